@@ -3,12 +3,14 @@ package net.java.lohttp;
 /* Java */
 
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Method;
-import java.net.URL;
+import java.nio.channels.FileChannel;
 
 /* Android */
 
+import android.content.res.AssetFileDescriptor;
 import android.content.res.AssetManager;
 
 
@@ -22,7 +24,8 @@ public class WebExecute implements Callback
 {
 	public WebExecute(AssetManager assets)
 	{
-		this.assets = assets;
+		this.assets  = assets;
+		this.statics = new Statics(assets(assets), 4L * 1024 * 1024);
 	}
 
 	protected final AssetManager assets;
@@ -42,35 +45,112 @@ public class WebExecute implements Callback
 			Responses.NotMethod.write(args[2]);
 	}
 
+	/**
+	 * Static content of the application assets.
+	 */
+	protected final Statics statics;
+
 	private void get(Get req, Response res)
 	{
-		res.addHeader("Cache-Control", "max-age=0, no-cache");
+		statics.act(req, res);
+	}
 
-		String p = null;
+	private static Statics.Source assets(final AssetManager assets)
+	{
+		return new Statics.Source()
+		{
+			public Statics.Resource find(String path)
+			  throws IOException
+			{
+				if(!Statics.valid(path))
+					return null;
+
+				return Asset.find(assets, path.substring(1));
+			}
+		};
+	}
 
-		//?: {index page}
-		if("/".equals(req.getPath()))
+	/**
+	 * Not compressed asset is a region of the
+	 * application package file to transfer.
+	 */
+	private static final class Asset implements Statics.Resource
+	{
+		public static Asset find(AssetManager assets, String path)
+		  throws IOException
 		{
-			res.addHeader("Content-Type", "text/html;charset=UTF-8");
-			p = "index.html";
+			try //?: {not compressed}
+			{
+				AssetFileDescriptor fd = assets.openFd(path);
+
+				try
+				{
+					return new Asset(assets, path,
+					  fd.getStartOffset(), fd.getLength());
+				}
+				finally
+				{
+					fd.close();
+				}
+			}
+			catch(FileNotFoundException ignore)
+			{}
+
+			try //?: {compressed asset exists}
+			{
+				assets.open(path).close();
+				return new Asset(assets, path, 0L, -1L);
+			}
+			catch(FileNotFoundException ignore)
+			{
+				return null;
+			}
 		}
-		//~: treat as a resource page
-		else
-			p = req.getPath().substring(1);
 
-		//~: asset file name
-		try(InputStream i = assets.open(p))
+		public Asset(AssetManager assets, String path, long offset, long length)
 		{
-			res.write(Support.input(i));
+			this.assets = assets;
+			this.path   = path;
+			this.offset = offset;
+			this.length = length;
 		}
-		catch(FileNotFoundException ignore)
+
+		public final AssetManager assets;
+		public final String       path;
+		public final long         offset;
+		public final long         length;
+
+
+		/* Resource */
+
+		public long        length()
 		{
-			res.setStatus(404);
-			res.write(null);
+			return length;
 		}
-		catch(Throwable ignore)
+
+		public long        modified()
+		{
+			return 0L;
+		}
+
+		public InputStream open()
+		  throws IOException
+		{
+			return assets.open(path);
+		}
+
+		public FileChannel channel()
+		  throws IOException
 		{
-			res.setStatus(500);
+			if(length < 0L)
+				return null;
+
+			return assets.openFd(path).createInputStream().getChannel();
+		}
+
+		public long        offset()
+		{
+			return offset;
 		}
 	}
 
@@ -110,14 +190,10 @@ public class WebExecute implements Callback
 		}
 
 		//~: write success
-		json(res, "{\"success\":true}");
-	}
-
-	private static void json(Response res, String body)
-	{
-		res.addHeader("Content-Type",
-		  "application/json;charset=UTF-8");
+		res.addHeader("Content-Type", Json.CONTENT_TYPE);
 
-		res.write(new Support.CharBytes(body).input());
+		new Json.Writer(res).object().
+		  name("success").value(true).
+		end().close();
 	}
 }
\ No newline at end of file
@@ -0,0 +1,1294 @@
+package net.java.lohttp;
+
+/* Java */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+
+/**
+ * Streaming JSON support without dependencies.
+ *
+ * @author anton.baukin@gmail.com
+ */
+public class Json
+{
+	/**
+	 * Content type of the JSON documents.
+	 */
+	public static final String CONTENT_TYPE =
+	  "application/json;charset=UTF-8";
+
+
+	/* Streaming Writer */
+
+	/**
+	 * Generates JSON document encoding it to UTF-8
+	 * into a pooled buffer that is written to the
+	 * output when it's full. Writing to a response,
+	 * the body of unknown length goes to the first
+	 * buffer of the response, and is framed as
+	 * chunked when it overflows, thus large
+	 * documents never reside in the memory.
+	 *
+	 * The structure is checked: names only in the
+	 * objects, values after the names.
+	 * This implementation is not thread-safe!
+	 */
+	public static final class Writer
+	{
+		/**
+		 * Writes to the body of the response. The status
+		 * and the headers must be set before, Content-Type
+		 * including (see {@link Json#CONTENT_TYPE}).
+		 */
+		public Writer(Response res)
+		{
+			this(Responses.body(res));
+		}
+
+		public Writer(OutputStream output)
+		{
+			this.output = EX.assertn(output);
+		}
+
+		public final OutputStream output;
+
+
+		/* Structure */
+
+		public Writer object()
+		{
+			open(OBJECT);
+			put((byte) '{');
+			return this;
+		}
+
+		public Writer array()
+		{
+			open(ARRAY);
+			put((byte) '[');
+			return this;
+		}
+
+		/**
+		 * Ends the current object, or array.
+		 */
+		public Writer end()
+		{
+			EX.assertx(depth > 0, "No JSON object or array to end!");
+			EX.assertx(!named, "JSON name has no value!");
+
+			put((byte)((stack[--depth] == OBJECT)?('}'):(']')));
+			first = false;
+			return this;
+		}
+
+		/**
+		 * Writes the name of the object field.
+		 */
+		public Writer name(CharSequence name)
+		{
+			EX.assertn(name);
+			EX.assertx((depth > 0) && (stack[depth - 1] == OBJECT),
+			  "JSON name is not in an object!");
+			EX.assertx(!named, "JSON name has no value!");
+
+			if(!first)
+				put((byte) ',');
+
+			string(name);
+			put((byte) ':');
+
+			named = true;
+			return this;
+		}
+
+		public int    depth()
+		{
+			return depth;
+		}
+
+
+		/* Values */
+
+		/**
+		 * Writes the string, or null.
+		 */
+		public Writer value(CharSequence s)
+		{
+			if(s == null)
+				return nul();
+
+			element();
+			string(s);
+			return this;
+		}
+
+		public Writer value(long v)
+		{
+			element();
+
+			ensure(20);
+			size = digits(v, buf, size);
+			return this;
+		}
+
+		/**
+		 * Integral doubles (by the magnitude of long
+		 * precision) are written as longs, others with
+		 * Double.toString(). NaN and the infinities
+		 * are not allowed in JSON.
+		 */
+		public Writer value(double v)
+		{
+			EX.assertx(!Double.isNaN(v) && !Double.isInfinite(v),
+			  "JSON number may not be NaN or infinite!");
+
+			if((v == (long) v) && (Math.abs(v) < 1e15))
+				return value((long) v);
+
+			element();
+			ascii(Double.toString(v));
+			return this;
+		}
+
+		public Writer value(boolean v)
+		{
+			element();
+			ascii((v)?("true"):("false"));
+			return this;
+		}
+
+		public Writer nul()
+		{
+			element();
+			ascii("null");
+			return this;
+		}
+
+
+		/* Output */
+
+		/**
+		 * Writes the buffered bytes and flushes the
+		 * output. Writing to a response of unknown
+		 * length, this makes the body chunked.
+		 */
+		public void flush()
+		{
+			try
+			{
+				drain();
+				output.flush();
+			}
+			catch(Throwable e)
+			{
+				throw EX.wrap(e);
+			}
+		}
+
+		/**
+		 * Writes the buffered bytes (not flushing the
+		 * output) and returns the buffer to the pool.
+		 * The document must be complete.
+		 */
+		public void close()
+		{
+			EX.assertx(depth == 0, "JSON document is not complete!");
+
+			try
+			{
+				drain();
+			}
+			catch(Throwable e)
+			{
+				throw EX.wrap(e);
+			}
+			finally
+			{
+				if(buf != null)
+					Support.BUFFERS.free(buf);
+				buf = null;
+			}
+		}
+
+
+		/* private: structure */
+
+		private static final byte OBJECT = 1;
+		private static final byte ARRAY  = 2;
+
+		/**
+		 * Kinds of the open containers.
+		 */
+		private byte[]  stack = new byte[16];
+		private int     depth;
+
+		/**
+		 * No elements in the current container yet.
+		 */
+		private boolean first = true;
+
+		/**
+		 * Name is written, expecting the value.
+		 */
+		private boolean named;
+
+		/**
+		 * Document has the top value.
+		 */
+		private boolean done;
+
+		private void open(byte kind)
+		{
+			element();
+
+			if(depth == stack.length)
+			{
+				byte[] x = new byte[depth * 2];
+				System.arraycopy(stack, 0, x, 0, depth);
+				stack = x;
+			}
+
+			stack[depth++] = kind;
+			first = true;
+		}
+
+		/**
+		 * Checks the place of a value, and
+		 * writes the separating comma.
+		 */
+		private void element()
+		{
+			if(depth == 0) //?: {top value}
+			{
+				EX.assertx(!done, "JSON document has the top value!");
+				done = true;
+				return;
+			}
+
+			if(stack[depth - 1] == OBJECT)
+			{
+				EX.assertx(named, "JSON value in object has no name!");
+				named = false;
+			}
+			else if(!first)
+				put((byte) ',');
+
+			first = false;
+		}
+
+
+		/* private: encoding */
+
+		private byte[] buf;
+		private int    size;
+
+		/**
+		 * Chunk of the string characters.
+		 */
+		private char[] cs;
+
+		private void put(byte b)
+		{
+			ensure(1);
+			buf[size++] = b;
+		}
+
+		private void ensure(int n)
+		{
+			if(buf == null)
+				buf = Support.BUFFERS.get();
+			else if(size + n > buf.length) try
+			{
+				drain();
+			}
+			catch(Throwable e)
+			{
+				throw EX.wrap(e);
+			}
+		}
+
+		private void drain()
+		  throws IOException
+		{
+			if(size != 0)
+				output.write(buf, 0, size);
+			size = 0;
+		}
+
+		private void ascii(String s)
+		{
+			final int l = s.length();
+			ensure(l);
+
+			for(int i = 0;(i < l);i++)
+				buf[size++] = (byte) s.charAt(i);
+		}
+
+		private void string(CharSequence s)
+		{
+			if(cs == null)
+				cs = new char[256];
+
+			put((byte) '"');
+
+			for(int i = 0, n = s.length();(i < n);)
+			{
+				final int l = Support.chunk(s, i, 256);
+
+				if(cs.length < l)
+					cs = new char[l];
+
+				Support.chars(s, i, i + l, cs, 0);
+				escaped(cs, l);
+				i += l;
+			}
+
+			put((byte) '"');
+		}
+
+		private void escaped(char[] cs, int e)
+		{
+			for(int i = 0;(i < e);)
+			{
+				//c: the run of plain characters
+				int k = i;
+				while((k < e) && !special(cs[k]))
+					k++;
+
+				while(i < k)
+				{
+					ensure(4);
+
+					final long r = Support.utf8(cs, i, k, buf, size, buf.length - size);
+					i    = (int)(r >>> 32);
+					size = (int) r;
+				}
+
+				if(k == e)
+					break;
+
+				escape(cs[k]);
+				i = k + 1;
+			}
+		}
+
+		private static boolean special(char c)
+		{
+			return (c < 0x20) || (c == '"') || (c == '\\') ||
+			  (c == 0x2028) || (c == 0x2029);
+		}
+
+		private void escape(int c)
+		{
+			ensure(6);
+			buf[size++] = '\\';
+
+			switch(c)
+			{
+				case '"' : buf[size++] = '"';  return;
+				case '\\': buf[size++] = '\\'; return;
+				case '\n': buf[size++] = 'n';  return;
+				case '\r': buf[size++] = 'r';  return;
+				case '\t': buf[size++] = 't';  return;
+				case '\b': buf[size++] = 'b';  return;
+				case '\f': buf[size++] = 'f';  return;
+			}
+
+			buf[size++] = 'u';
+			buf[size++] = HEX[(c >>> 12) & 0xF];
+			buf[size++] = HEX[(c >>> 8) & 0xF];
+			buf[size++] = HEX[(c >>> 4) & 0xF];
+			buf[size++] = HEX[c & 0xF];
+		}
+
+		private static final byte[] HEX = {
+		  '0', '1', '2', '3', '4', '5', '6', '7',
+		  '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'
+		};
+	}
+
+	/* Streaming Reader */
+
+	/**
+	 * Malformed JSON document, or one over the limits.
+	 */
+	public static class Malformed extends IOException
+	{
+		private static final long serialVersionUID = 1L;
+
+		public Malformed(String message)
+		{
+			super(message);
+		}
+	}
+
+	/**
+	 * Pull reader of JSON document from the stream.
+	 * The bytes are read incrementally into a pooled
+	 * buffer, only the current token is kept. Strings
+	 * and numbers are decoded only when requested,
+	 * and are valid till the next event.
+	 *
+	 * The nesting depth, and the total size of the
+	 * document are limited. The stream is read to
+	 * the end to check there is nothing after the
+	 * document, but it's not closed.
+	 *
+	 * This implementation is not thread-safe!
+	 */
+	public static final class Reader
+	{
+		/* Events */
+
+		public static final int OBJECT     = 1;
+		public static final int END_OBJECT = 2;
+		public static final int ARRAY      = 3;
+		public static final int END_ARRAY  = 4;
+		public static final int NAME       = 5;
+		public static final int STRING     = 6;
+		public static final int NUMBER     = 7;
+		public static final int TRUE       = 8;
+		public static final int FALSE      = 9;
+		public static final int NULL       = 10;
+
+		/**
+		 * The document is over.
+		 */
+		public static final int END        = 0;
+
+
+		/**
+		 * Reads the body of the request with the
+		 * limits configured in the server setup.
+		 */
+		public Reader(Post req)
+		{
+			this(req.input(), depth(req), size(req));
+		}
+
+		public Reader(InputStream input, int depth, long size)
+		{
+			this.input = EX.assertn(input);
+			this.limit = size;
+			this.stack = new boolean[depth];
+
+			EX.assertx((depth > 0) && (size > 0L));
+		}
+
+		public final InputStream input;
+
+
+		/* Reader */
+
+		/**
+		 * Reads the next event. The name of an object
+		 * field is an event followed by the value.
+		 */
+		public int     next()
+		  throws IOException
+		{
+			str = null;
+
+			while(true)
+			{
+				int c = blank();
+
+				switch(state)
+				{
+					case S_DONE:
+						return event = END;
+
+					case S_NEXT:
+					{
+						//?: {top value is over}
+						if(depth == 0)
+						{
+							if(c != -1)
+								throw malformed("data after the document");
+
+							state = S_DONE;
+							return event = END;
+						}
+
+						if(c == -1)
+							throw malformed("unexpected end");
+
+						p++;
+
+						if(c == ',')
+						{
+							state = (stack[depth - 1])?(S_NAME):(S_VALUE);
+							continue;
+						}
+
+						if((c == '}') && stack[depth - 1])
+						{
+							depth--;
+							return event = END_OBJECT;
+						}
+
+						if((c == ']') && !stack[depth - 1])
+						{
+							depth--;
+							return event = END_ARRAY;
+						}
+
+						throw malformed("expected , or the end");
+					}
+
+					case S_FIRST_NAME:
+						if(c == '}')
+						{
+							p++; depth--;
+							state = S_NEXT;
+							return event = END_OBJECT;
+						}
+
+						//~: field name follows
+						state = S_NAME;
+						continue;
+
+					case S_NAME:
+					{
+						if(c != '"')
+							throw malformed("expected field name");
+
+						p++;
+						quoted();
+
+						//~: the name over a refill
+						hold = true;
+						c    = blank();
+						hold = false;
+
+						if(c != ':')
+							throw malformed("expected :");
+
+						p++;
+						state = S_VALUE;
+						return event = NAME;
+					}
+
+					case S_FIRST_VALUE:
+						if(c == ']')
+						{
+							p++; depth--;
+							state = S_NEXT;
+							return event = END_ARRAY;
+						}
+
+						//~: value follows
+						state = S_VALUE;
+						continue;
+
+					default:
+						return event = value(c);
+				}
+			}
+		}
+
+		/**
+		 * The last event read.
+		 */
+		public int     event()
+		{
+			return event;
+		}
+
+		/**
+		 * Current nesting of the objects and the arrays.
+		 */
+		public int     depth()
+		{
+			return depth;
+		}
+
+		/**
+		 * Number of the bytes of the document read.
+		 */
+		public long    offset()
+		{
+			return total - (e - p);
+		}
+
+		/**
+		 * Decodes the name, or the string value.
+		 * For a number returns it's text.
+		 */
+		public String  string()
+		{
+			EX.assertx((event == NAME) || (event == STRING) || (event == NUMBER));
+
+			if(str == null)
+			{
+				if(escaped)
+					unescape();
+
+				if((chars == null) || (chars.length < te - ts))
+					chars = new char[Math.max(256, te - ts)];
+
+				str = Support.utf8(tb, ts, te - ts, chars);
+			}
+
+			return str;
+		}
+
+		/**
+		 * Compares the name, or the string value
+		 * not decoding it when it's ASCII.
+		 */
+		public boolean is(CharSequence s)
+		{
+			EX.assertx((event == NAME) || (event == STRING));
+
+			if(escaped)
+				unescape();
+
+			//HINT: UTF-8 bytes are not less than the chars.
+
+			if(s.length() != te - ts)
+				return (te - ts > s.length()) && string().contentEquals(s);
+
+			for(int i = 0;(i < s.length());i++)
+			{
+				final char c = s.charAt(i);
+
+				if(c >= 0x80) //?: {not ASCII}
+					return string().contentEquals(s);
+
+				if(tb[ts + i] != c)
+					return false;
+			}
+
+			return true;
+		}
+
+		/**
+		 * Returns the integral number. Not integral
+		 * ones are converted from the double value.
+		 */
+		public long    longValue()
+		  throws Malformed
+		{
+			EX.assertx(event == NUMBER);
+
+			if(!integral)
+				return (long) doubleValue();
+
+			final boolean neg = (tb[ts] == '-');
+			long          v   = 0L;
+
+			for(int i = (neg)?(ts + 1):(ts);(i < te);i++)
+			{
+				final int d = tb[i] - '0';
+
+				//?: {overflow} compare in negative
+				if(v < (Long.MIN_VALUE + d) / 10L)
+					throw malformed("number is out of long range");
+
+				v = v * 10L - d;
+			}
+
+			if(!neg && (v == Long.MIN_VALUE))
+				throw malformed("number is out of long range");
+
+			return (neg)?(v):(-v);
+		}
+
+		public double  doubleValue()
+		{
+			EX.assertx(event == NUMBER);
+
+			//?: {short integral} is exact
+			if(integral && (te - ts < 16))
+				try
+				{
+					return longValue();
+				}
+				catch(Malformed e)
+				{
+					throw EX.wrap(e);
+				}
+
+			return Double.parseDouble(string());
+		}
+
+		/**
+		 * Skips the value of the current event: all
+		 * the object, or the array, or the value
+		 * of the name, if it's else.
+		 */
+		public void    skip()
+		  throws IOException
+		{
+			if(event == NAME)
+				next();
+
+			if((event != OBJECT) && (event != ARRAY))
+				return;
+
+			for(int d = depth;(depth >= d);)
+				if(next() == END)
+					throw malformed("unexpected end");
+		}
+
+		/**
+		 * Returns the buffers to the pool.
+		 */
+		public void    close()
+		{
+			final byte[] x = b, y = tok;
+
+			b = tok = tb = null;
+			p = e = 0;
+
+			Support.free(x);
+			Support.free(y);
+		}
+
+
+		/* private: reading */
+
+		private final long limit;
+
+		/**
+		 * Kinds of the nesting: true for
+		 * the object, false for the array.
+		 */
+		private final boolean[] stack;
+
+		private int depth;
+
+		private static final int S_VALUE       = 0;
+		private static final int S_FIRST_VALUE = 1;
+		private static final int S_NAME        = 2;
+		private static final int S_FIRST_NAME  = 3;
+		private static final int S_NEXT        = 4;
+		private static final int S_DONE        = 5;
+
+		private int state = S_VALUE;
+
+		private int event = -1;
+
+		/**
+		 * Pooled read buffer, position, and the end.
+		 */
+		private byte[] b;
+		private int    p, e;
+
+		/**
+		 * Total number of the bytes read.
+		 */
+		private long   total;
+
+		/**
+		 * Keep the token over the buffer refill.
+		 */
+		private boolean hold;
+
+		private static int  depth(Post req)
+		{
+			return (req instanceof Requests.Basic)?
+			  (((Requests.Basic) req).setup.getJsonDepth()):(64);
+		}
+
+		private static long size(Post req)
+		{
+			return (req instanceof Requests.Basic)?
+			  (((Requests.Basic) req).setup.getJsonSize()):(1024L * 1024 * 16);
+		}
+
+		/**
+		 * Reads more bytes into the buffer when it's
+		 * over. The buffer grows by the size classes
+		 * when the reads fill it whole. Returns false
+		 * when the stream is over.
+		 */
+		private boolean fill()
+		  throws IOException
+		{
+			//?: {the token is in the buffer} move it
+			if(hold && (tb == b))
+			{
+				tn = -1;
+				spill(ts, te);
+
+				tb = tok;
+				ts = 0;
+				te = tn;
+			}
+
+			if(b == null)
+				b = Support.BUFFERS.get();
+			else if(e == b.length)
+				b = Support.grow(b);
+
+			final int x = input.read(b, 0, b.length);
+			p = 0;
+			e = (x > 0)?(x):(0);
+
+			if(x <= 0)
+				return false;
+
+			if((total += x) > limit)
+				throw malformed("document exceeds " + limit + " bytes");
+
+			return true;
+		}
+
+		/**
+		 * Skips the whitespaces and returns the next
+		 * byte not consuming it, or -1 at the end.
+		 */
+		private int     blank()
+		  throws IOException
+		{
+			while(true)
+			{
+				if((p == e) && !fill())
+					return -1;
+
+				final int c = b[p];
+
+				if((c != ' ') && (c != '\n') && (c != '\r') && (c != '\t'))
+					return c;
+
+				p++;
+			}
+		}
+
+		private int     value(int c)
+		  throws IOException
+		{
+			state = S_NEXT;
+
+			switch(c)
+			{
+				case '{':
+					p++;
+					push(true);
+					state = S_FIRST_NAME;
+					return OBJECT;
+
+				case '[':
+					p++;
+					push(false);
+					state = S_FIRST_VALUE;
+					return ARRAY;
+
+				case '"':
+					p++;
+					quoted();
+					return STRING;
+
+				case 't':
+					literal(TRUE_BYTES);
+					return TRUE;
+
+				case 'f':
+					literal(FALSE_BYTES);
+					return FALSE;
+
+				case 'n':
+					literal(NULL_BYTES);
+					return NULL;
+
+				case -1:
+					throw malformed("unexpected end");
+			}
+
+			if((c == '-') || ((c >= '0') && (c <= '9')))
+			{
+				number();
+				return NUMBER;
+			}
+
+			throw malformed("unexpected character");
+		}
+
+		private void    push(boolean object)
+		  throws Malformed
+		{
+			if(depth == stack.length)
+				throw malformed("nesting exceeds " + stack.length);
+
+			stack[depth++] = object;
+		}
+
+		private static final byte[] TRUE_BYTES  = { 't', 'r', 'u', 'e' };
+		private static final byte[] FALSE_BYTES = { 'f', 'a', 'l', 's', 'e' };
+		private static final byte[] NULL_BYTES  = { 'n', 'u', 'l', 'l' };
+
+		private void    literal(byte[] x)
+		  throws IOException
+		{
+			for(int i = 0;(i < x.length);i++)
+			{
+				if((p == e) && !fill())
+					throw malformed("unexpected end");
+
+				if(b[p++] != x[i])
+					throw malformed("unexpected character");
+			}
+		}
+
+
+		/* private: tokens */
+
+		/**
+		 * Bytes of the current token: the region
+		 * of the read buffer, or of the spill one.
+		 */
+		private byte[]  tb;
+		private int     ts, te;
+
+		/**
+		 * Token has the escapes.
+		 */
+		private boolean escaped;
+
+		/**
+		 * Number has no fraction and exponent.
+		 */
+		private boolean integral;
+
+		/**
+		 * Decoded string of the token.
+		 */
+		private String  str;
+
+		/**
+		 * Buffer of the token over the read buffers.
+		 */
+		private byte[]  tok;
+		private int     tn;
+
+		private char[]  chars;
+
+		/**
+		 * Scans the string after the opening quote.
+		 */
+		private void    quoted()
+		  throws IOException
+		{
+			boolean slash = false;
+			int     s     = p;
+
+			escaped = false;
+			tn      = -1;
+
+			while(true)
+			{
+				if(p == e)
+				{
+					spill(s, e);
+
+					if(!fill())
+						throw malformed("unexpected end of string");
+
+					s = 0;
+				}
+
+				final int c = b[p++];
+
+				if(slash)
+					slash = false;
+				else if(c == '"')
+					break;
+				else if(c == '\\')
+					slash = escaped = true;
+				else if((c >= 0) && (c < 0x20))
+					throw malformed("control character in string");
+			}
+
+			token(s, p - 1);
+		}
+
+		private void    number()
+		  throws IOException
+		{
+			int s = p;
+
+			escaped = false;
+			tn      = -1;
+
+			while(true)
+			{
+				if(p == e)
+				{
+					spill(s, e);
+					s = 0;
+
+					if(!fill())
+						break;
+				}
+
+				final int c = b[p];
+
+				if(((c >= '0') && (c <= '9')) || (c == '-') || (c == '+') ||
+				   (c == '.') || (c == 'e') || (c == 'E'))
+					p++;
+				else
+					break;
+			}
+
+			token(s, p);
+			grammar();
+		}
+
+		/**
+		 * Copies the bytes of the token from the
+		 * position given to the spill buffer
+		 * as the read buffer is to be refilled.
+		 */
+		private void    spill(int s, int end)
+		{
+			if(tn == -1)
+				tn = 0;
+
+			final int l = end - s;
+
+			//?: {grow the buffer}
+			if((tok == null) || (tn + l > tok.length))
+			{
+				final int    n = Math.max(tn + l, (tok == null)?(0):(tok.length * 2));
+				final byte[] x = (n <= Support.BULKS.size)?
+				  (Support.buffers(n).get()):(new byte[n]);
+
+				if(tn != 0)
+					System.arraycopy(tok, 0, x, 0, tn);
+
+				Support.free(tok);
+				tok = x;
+			}
+
+			System.arraycopy(b, s, tok, tn, l);
+			tn += l;
+		}
+
+		private void    token(int s, int end)
+		{
+			//?: {token is in the read buffer}
+			if(tn == -1)
+			{
+				tb = b;
+				ts = s;
+				te = end;
+				return;
+			}
+
+			//~: the rest of the token
+			spill(s, end);
+
+			tb = tok;
+			ts = 0;
+			te = tn;
+		}
+
+		/**
+		 * Checks JSON number: -?(0|[1-9]\d*)(\.\d+)?([eE][+-]?\d+)?
+		 */
+		private void    grammar()
+		  throws Malformed
+		{
+			int i = ts;
+
+			if(tb[i] == '-')
+				i++;
+
+			final int d = i;
+			while((i < te) && (tb[i] >= '0') && (tb[i] <= '9'))
+				i++;
+
+			if((i == d) || ((tb[d] == '0') && (i - d > 1)))
+				throw malformed("wrong number");
+
+			integral = (i == te);
+
+			if((i < te) && (tb[i] == '.'))
+			{
+				final int f = ++i;
+				while((i < te) && (tb[i] >= '0') && (tb[i] <= '9'))
+					i++;
+
+				if(i == f)
+					throw malformed("wrong number");
+			}
+
+			if((i < te) && ((tb[i] == 'e') || (tb[i] == 'E')))
+			{
+				i++;
+
+				if((i < te) && ((tb[i] == '+') || (tb[i] == '-')))
+					i++;
+
+				final int x = i;
+				while((i < te) && (tb[i] >= '0') && (tb[i] <= '9'))
+					i++;
+
+				if(i == x)
+					throw malformed("wrong number");
+			}
+
+			if(i != te)
+				throw malformed("wrong number");
+		}
+
+		/**
+		 * Replaces the escapes of the token in place
+		 * with UTF-8 bytes. Lone surrogates are
+		 * replaced with U+FFFD.
+		 */
+		private void    unescape()
+		{
+			int o = ts;
+
+			for(int i = ts;(i < te);)
+			{
+				final byte c = tb[i++];
+
+				if(c != '\\')
+				{
+					tb[o++] = c;
+					continue;
+				}
+
+				final byte x = tb[i++];
+				int        u;
+
+				switch(x)
+				{
+					case 'n': tb[o++] = '\n'; continue;
+					case 'r': tb[o++] = '\r'; continue;
+					case 't': tb[o++] = '\t'; continue;
+					case 'b': tb[o++] = '\b'; continue;
+					case 'f': tb[o++] = '\f'; continue;
+					case 'u': break;
+
+					default: //<-- " \ / and others as-is
+						tb[o++] = x;
+						continue;
+				}
+
+				u = hex(i);
+				i = Math.min(i + 4, te);
+
+				//?: {wrong escape}
+				if(u < 0)
+					u = 0xFFFD;
+
+				//?: {high surrogate followed by low one}
+				if((u >= 0xD800) && (u <= 0xDBFF) && (i + 6 <= te) &&
+				   (tb[i] == '\\') && (tb[i + 1] == 'u'))
+				{
+					final int l = hex(i + 2);
+
+					if((l >= 0xDC00) && (l <= 0xDFFF))
+					{
+						u = 0x10000 + ((u - 0xD800) << 10) + (l - 0xDC00);
+						i += 6;
+					}
+				}
+
+				//?: {lone surrogate}
+				if((u >= 0xD800) && (u <= 0xDFFF))
+					u = 0xFFFD;
+
+				if(u < 0x80)
+					tb[o++] = (byte) u;
+				else if(u < 0x800)
+				{
+					tb[o++] = (byte)(0xC0 | (u >>> 6));
+					tb[o++] = (byte)(0x80 | (u & 0x3F));
+				}
+				else if(u < 0x10000)
+				{
+					tb[o++] = (byte)(0xE0 | (u >>> 12));
+					tb[o++] = (byte)(0x80 | ((u >>> 6) & 0x3F));
+					tb[o++] = (byte)(0x80 | (u & 0x3F));
+				}
+				else
+				{
+					tb[o++] = (byte)(0xF0 | (u >>> 18));
+					tb[o++] = (byte)(0x80 | ((u >>> 12) & 0x3F));
+					tb[o++] = (byte)(0x80 | ((u >>> 6) & 0x3F));
+					tb[o++] = (byte)(0x80 | (u & 0x3F));
+				}
+			}
+
+			te      = o;
+			escaped = false;
+		}
+
+		/**
+		 * Returns the code of 4 hex digits, or -1.
+		 */
+		private int     hex(int i)
+		{
+			if(i + 4 > te)
+				return -1;
+
+			int u = 0;
+
+			for(int k = i;(k < i + 4);k++)
+			{
+				final int d = Character.digit(tb[k], 16);
+
+				if(d < 0)
+					return -1;
+
+				u = (u << 4) | d;
+			}
+
+			return u;
+		}
+
+		private Malformed malformed(String what)
+		{
+			return new Malformed("Malformed JSON at byte " + offset() + ": " + what + "!");
+		}
+	}
+
+	/**
+	 * Writes decimal digits of the number into
+	 * the buffer (20 bytes at most). Returns
+	 * the end offset.
+	 */
+	public static int digits(long v, byte[] b, int off)
+	{
+		if(v == Long.MIN_VALUE)
+		{
+			for(int i = 0;(i < MIN_LONG.length);i++)
+				b[off++] = MIN_LONG[i];
+			return off;
+		}
+
+		if(v < 0L)
+		{
+			b[off++] = '-';
+			v = -v;
+		}
+
+		//~: count the digits
+		int  n = 1;
+		for(long x = v;(x >= 10L);x /= 10L)
+			n++;
+
+		//c: write them from the end
+		final int e = off + n;
+		for(int i = e - 1;(i >= off);i--)
+		{
+			b[i] = (byte)('0' + (int)(v % 10L));
+			v /= 10L;
+		}
+
+		return e;
+	}
+
+	private static final byte[] MIN_LONG =
+	  Long.toString(Long.MIN_VALUE).getBytes();
+}
@@ -2,22 +2,31 @@ package net.java.lohttp;
 
 /* Java */
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /* Lo* HTTP */
 
+import net.java.lohttp.Requests.Known;
+import net.java.lohttp.Requests.Parser;
 import net.java.lohttp.Requests.Scanner;
+import net.java.lohttp.Responses.Complete;
 import net.java.lohttp.Responses.Dirty;
+import net.java.lohttp.Responses.Headed;
 import net.java.lohttp.Responses.ResponseWrapper;
 import net.java.lohttp.Support.Allocator;
 import net.java.lohttp.Support.Barrier;
+import net.java.lohttp.Support.Reservoir;
 
 
 /**
@@ -36,43 +45,51 @@ public class LowHat implements Server
 		synchronized(mutex)
 		{
 			EX.assertx(socket == null);
-			EX.assertx(peer == null);
+			EX.assertx(peers == null);
 
 			//~: configure
 			setup(setup);
 
-			//~: allocate the executor
-			Allocator exe = new Allocator();
-			setup.getPool().execute(exe);
-
-			//~: wait for it
-			exe.await(0L);
+			final int n = acceptors();
+			final Allocator[]  exe = new Allocator[n];
+			final ServerPeer[] ps  = new ServerPeer[n];
 
 			try
 			{
-				//~: create the socket
-				socket = new ServerSocket();
+				//~: allocate the executors
+				for(int i = 0;(i < n);i++)
+				{
+					exe[i] = new Allocator();
+					setup.getPool().execute(exe[i]);
 
-				//~: reuse the port
-				socket.setReuseAddress(true);
+					//~: wait for it
+					exe[i].await(0L);
+				}
 
-				//~: bind the socket
-				socket.bind(new InetSocketAddress(InetAddress.
-				  getByName(setup.getAddress()), setup.getPort()
-				), setup.getBacklog());
+				//~: create & bind the socket
+				sharded = (n > 1) && setup.isReusePort();
+				socket  = bind();
 
-				//~: create the peer
-				peer = createServerPeer(socket);
+				//~: create the peers
+				for(int i = 0;(i < n);i++)
+				{
+					//?: {not sharded} share the socket
+					ps[i] = createServerPeer(((i == 0) || !sharded)?(socket):(bind()));
 
-				//~: execute it
-				exe.run(peer);
+					//~: execute it
+					exe[i].run(ps[i]);
+					exe[i] = null;
 
-				//~: pre-allocate a hot thread
-				this.allocated.set(null);
-				preallocate();
+					//~: pre-allocate the hot threads
+					ps[i].hot.fill();
+				}
 
 				//~: wait for the start
-				peer.started.await();
+				for(ServerPeer p : ps)
+					p.started.await();
+
+				peers  = ps;
+				paused = false;
 
 				//~: notify the callback
 				if(done != null)
@@ -80,23 +97,29 @@ public class LowHat implements Server
 			}
 			catch(Throwable e)
 			{
-				//~: release the socket
-				if(socket != null) try
+				//~: release the sockets & the threads
+				for(ServerPeer p : ps) if(p != null)
 				{
-					socket.close();
+					p.hot.close();
+
+					if(p.socket != socket)
+						close(p.socket, e);
 				}
-				catch(Throwable x)
+
+				if(socket != null) try
 				{
-					EX.sup(e, x);
+					close(socket, e);
 				}
 				finally
 				{
 					socket = null;
+					peers  = null;
 				}
 
-				//~: relese the executor
-				if(exe != null)
-					exe.run(Allocator.Nothing);
+				//~: relese the executors
+				for(Allocator x : exe)
+					if(x != null)
+						x.run(Allocator.Nothing);
 
 				throw EX.wrap(e);
 			}
@@ -163,18 +186,22 @@ public class LowHat implements Server
 			final ServerSocket s = socket;
 			socket = null;
 
-			//~: safe swap peer
-			final ServerPeer p = peer;
-			peer = null;
+			//~: safe swap peers
+			final ServerPeer[] ps = peers;
+			peers = null;
 
-			try //~: close the socket
-			{
-				s.close();
-			}
-			catch(Throwable e)
-			{
-				throw EX.wrap(e);
-			}
+			Throwable error = null;
+
+			//~: close sharded sockets
+			if(ps != null) for(ServerPeer p : ps)
+				if(p.socket != s)
+					error = close(p.socket, error);
+
+			//~: close the socket
+			error = close(s, error);
+
+			if(error != null)
+				throw EX.wrap(error);
 		}
 	}
 
@@ -185,9 +212,110 @@ public class LowHat implements Server
 
 	protected Setup setup;
 
+	/**
+	 * The server socket bound first.
+	 */
 	protected ServerSocket socket;
 
-	protected ServerPeer peer;
+	/**
+	 * Peers accepting the connections.
+	 */
+	protected ServerPeer[] peers;
+
+	/**
+	 * Tells whether each acceptor has own
+	 * socket with SO_REUSEPORT option.
+	 */
+	protected boolean sharded;
+
+	/**
+	 * Closes the socket and returns the error
+	 * given or added with the close failure.
+	 */
+	protected Throwable close(ServerSocket s, Throwable error)
+	{
+		try
+		{
+			s.close();
+		}
+		catch(Throwable e)
+		{
+			error = EX.sup(error, e);
+		}
+
+		return error;
+	}
+
+
+	/**
+	 * Creates the server socket and binds it
+	 * to the address and the port of the setup.
+	 */
+	protected ServerSocket bind()
+	  throws IOException
+	{
+		//~: create the socket
+		final ServerSocket s = new ServerSocket();
+
+		try
+		{
+			//~: reuse the port
+			s.setReuseAddress(true);
+
+			//?: {not supported} share single socket
+			if(sharded && !reusePort(s))
+				sharded = false;
+
+			//~: bind the socket
+			s.bind(address(), setup.getBacklog());
+		}
+		catch(IOException e)
+		{
+			s.close();
+			throw e;
+		}
+
+		return s;
+	}
+
+	/**
+	 * Sets SO_REUSEPORT option of not yet bound
+	 * socket. Returns false when not supported.
+	 * The option is available since Java 9,
+	 * thus it's accessed via the reflection.
+	 */
+	protected boolean reusePort(ServerSocket s)
+	{
+		try
+		{
+			final Object o = Class.forName("java.net.StandardSocketOptions").
+			  getField("SO_REUSEPORT").get(null);
+
+			//?: {not supported by the platform}
+			final Set<?> x = (Set<?>) ServerSocket.class.
+			  getMethod("supportedOptions").invoke(s);
+
+			if(!x.contains(o))
+				return false;
+
+			final Class<?> so = Class.forName("java.net.SocketOption");
+			ServerSocket.class.getMethod("setOption", so, Object.class).
+			  invoke(s, o, Boolean.TRUE);
+
+			return true;
+		}
+		catch(Throwable e)
+		{
+			return false;
+		}
+	}
+
+	protected InetSocketAddress address()
+	  throws IOException
+	{
+		return new InetSocketAddress(InetAddress.
+		  getByName(setup.getAddress()), setup.getPort());
+	}
 
 
 	/* Server Peer */
@@ -202,10 +330,17 @@ public class LowHat implements Server
 		public ServerPeer(ServerSocket socket)
 		{
 			this.socket = socket;
+			this.hot    = createReservoir();
 		}
 
 		public final ServerSocket socket;
 
+		/**
+		 * Hot execution threads pre-allocated.
+		 * Closed while the server is paused.
+		 */
+		public final Reservoir    hot;
+
 
 		/* Server Peer */
 
@@ -218,7 +353,7 @@ public class LowHat implements Server
 			while(!socket.isClosed() && socket.isBound()) try
 			{
 				//~: wait for the incoming request
-				handle(socket.accept());
+				handle(this, socket.accept());
 			}
 			catch(Throwable ignore)
 			{
@@ -241,21 +376,44 @@ public class LowHat implements Server
 
 	protected void setup(Setup setup)
 	{
-		//?: {has no pool}
+		//=: configuration
+		this.setup = setup;
+
+		//?: {has no pool} each acceptor takes a thread
 		if(setup.getPool() == null)
-			setup.setPool(2, 4, 16, "LowHat-");
+		{
+			final int n = acceptors();
+
+			//HINT: each connection takes a thread while it's
+			// idle waiting for the next request, thus new
+			// ones must not wait in a queue for them.
+
+			setup.setPool(n + 1, n + POOL_MAX, 0, "LowHat-");
+		}
 
 		//!: fix the setup
 		setup.setFixed();
+	}
 
-		//=: configuration
-		this.setup = setup;
+	/**
+	 * The maximum number of the worker threads
+	 * (above the acceptors) of the default pool.
+	 * More connections are denied.
+	 */
+	public static final int POOL_MAX = 256;
+
+	/**
+	 * The number of the accepting peers.
+	 */
+	protected int  acceptors()
+	{
+		return setup.getAcceptors();
 	}
 
 	/**
-	 * Executed by the main accepting thread.
+	 * Executed by the accepting thread of the peer.
 	 */
-	protected void handle(final Socket s)
+	protected void handle(ServerPeer p, final Socket s)
 	{
 		//~: target work task
 		final Runnable task = new Runnable()
@@ -288,48 +446,60 @@ public class LowHat implements Server
 
 		try //~: allocate worker
 		{
-			allocate(task);
+			allocate(p, task);
 		}
 		catch(Throwable e)
 		{
-			final Callback deny = setup.getDeny();
+			deny(s, e);
+		}
+	}
 
-			try //~: unavailable
+	/**
+	 * Denies the socket of a task counted that
+	 * was not allocated. Closes the socket.
+	 */
+	protected void deny(Socket s, Throwable e)
+	{
+		final Callback deny = setup.getDeny();
+
+		try //~: unavailable
+		{
+			//?: {no user-defined deny}
+			if(deny == null)
+				Responses.Unavailable.write(s.getOutputStream());
+			//~: invoke the deny on the socket
+			else
+				deny.act(s, e);
+		}
+		catch(Throwable ignore)
+		{}
+		finally
+		{
+			try //!: close the socket now
 			{
-				//?: {no user-defined deny}
-				if(deny == null)
-					Responses.Unavailable.write(s.getOutputStream());
-				//~: invoke the deny on the socket
-				else
-					deny.act(s, e);
+				s.close();
 			}
 			catch(Throwable ignore)
 			{}
 			finally
 			{
-				try //!: close the socket now
-				{
-					s.close();
-				}
-				catch(Throwable ignore)
-				{}
-				finally
-				{
-					//~: exclude task from the set
-					tasks.dec();
-				}
+				//~: exclude task from the set
+				tasks.dec();
 			}
 		}
 	}
 
 	/**
-	 * Handles the request and writes the response.
+	 * Handles the requests of the connection and writes
+	 * the responses. Persistent connection serves the
+	 * requests one-by-one till it's closed, or timed
+	 * out, or the limits are reached.
+	 *
 	 * Executed in own thread and throws nothing.
 	 */
 	protected void worker(Socket s)
 	{
-		final Callback ex = setup.getExecute();
-		boolean        id = true; //<-- is dirty
+		Support.PushbackInput in = null;
 
 		try
 		{
@@ -337,40 +507,121 @@ public class LowHat implements Server
 			if(setup.getSoTimeout() != 0)
 				s.setSoTimeout(setup.getSoTimeout());
 
+			//~: no delay of the writes
+			if(setup.isTcpNoDelay())
+				s.setTcpNoDelay(true);
+
+			//~: input of the connection
+			in = new Support.PushbackInput(s.getInputStream());
+
+			//c: serve the requests
+			for(int n = 1;;n++)
+			{
+				//?: {close the connection}
+				if(!serve(s, in, null, n))
+					break;
+
+				//?: {no next request}
+				if(!idle(s, in))
+					break;
+			}
+		}
+		catch(Throwable ignore)
+		{
+			//!: worker throws nothing
+		}
+		finally
+		{
+			//~: release the buffered bytes
+			if(in != null) try
+			{
+				in.close();
+			}
+			catch(Throwable ignore)
+			{}
+
+			//?: {virtual thread exits} return the buffers
+			if(setup.isVirtual())
+				Support.flush();
+		}
+	}
+
+	/**
+	 * Handles single request of the connection
+	 * with the given number (starting from 1).
+	 * Returns true when the connection may be
+	 * used for the next request.
+	 *
+	 * The parser is given when the preamble of
+	 * the request is already scanned, else
+	 * the request is read from the input. The request
+	 * is closed when it's completed.
+	 */
+	protected boolean serve(Socket s, InputStream in, Parser scanned, int n)
+	{
+		final Callback ex = setup.getExecute();
+		Request       req = null;
+		Response      res = null;
+
+		try
+		{
 			if(ex == null) //?: {no executor}
+			{
+				if(scanned != null)
+					scanned.close();
+
 				Responses.NotImplemented.write(s.getOutputStream());
-			else
+				return false;
+			}
+
+			//~: parse the request
+			try
 			{
-				//~: parse the request
-				Request req = null; try
-				{
-					req = parseRequest(s.getInputStream());
-				}
-				catch(ResponseWrapper w)
-				{
-					w.response.write(s.getOutputStream());
-				}
+				req = (scanned == null)?(parseRequest(in)):
+				  (parseRequest(scanned, in));
+			}
+			catch(ResponseWrapper w)
+			{
+				w.response.write(s.getOutputStream());
+			}
 
-				if(req != null) //?: {got valid request}
-				{
-					//~: create the response
-					Response res = createResponse(s);
+			//?: {got invalid request}
+			if(req == null)
+				return false;
 
-					try //!: execute the handler
-					{
-						ex.act(req, res, s);
-					}
-					finally
-					{
-						if(res instanceof Dirty)
-							id = ((Dirty)res).isDirty();
-					}
-				}
+			//~: create the response
+			res = createResponse(s);
+			final boolean keep = keepAlive(req, n);
+
+			//?: {negotiate the connection}
+			if(res instanceof Headed)
+			{
+				((Headed)res).setKeepAlive(keep,
+				  "HTTP/1.1".equals(protocol(req)));
+
+				((Headed)res).setDate(setup.isDateHeader());
+
+				//?: {compress the response}
+				if(setup.getCompression() != 0)
+					((Headed)res).setCompression(Responses.negotiate(
+					  req.getHeader(Known.ACCEPT_ENCODING)), compression(),
+					  setup.getCompressMin());
 			}
+
+			//!: execute the handler
+			ex.act(req, res, s);
+
+			//?: {complete the response}
+			if(!(res instanceof Complete) || !((Complete)res).complete())
+				return false;
+
+			//~: skip the body not read
+			return keep && drain(req);
 		}
 		catch(Throwable e)
 		{
-			if(!id) try //?: {not yet committed}
+			//?: {not yet committed}
+			if((res instanceof Dirty) && !((Dirty)res).isDirty()) try
 			{
 				Responses.Error.write(s.getOutputStream());
 			}
@@ -378,92 +629,235 @@ public class LowHat implements Server
 			{
 				//!: worker throws nothing
 			}
+
+			return false;
+		}
+		finally
+		{
+			//~: release the response buffers
+			if(res instanceof Headed)
+				((Headed)res).release();
+
+			//~: release the request
+			if(req instanceof Closeable) try
+			{
+				((Closeable)req).close();
+			}
+			catch(Throwable ignore)
+			{}
 		}
 	}
 
-	protected void allocate(Runnable task)
-	  throws Throwable
+	/**
+	 * Waits for the next request on the persistent
+	 * connection. Returns false to close it.
+	 */
+	protected boolean idle(Socket s, Support.PushbackInput in)
+	  throws IOException
 	{
-		//~: take cached allocator
-		final Object xa = allocated.get();
+		//?: {has the next request bytes}
+		if(in.isBuffered())
+			return true;
 
-		//?: {server is paused}
-		if(xa == this.paused)
-			throw new IllegalStateException();
+		//~: idle timeout
+		s.setSoTimeout(setup.getKeepAliveTimeout());
 
-		//~: {cached allocator got our task}
-		if((xa != null) && ((Allocator)xa).run(task))
+		//~: register as idle
+		idle.put(s, s);
+
+		try
+		{
+			//?: {server is paused} hangup closes idle
+			if(isPaused())
+				return false;
+
+			//?: {connection closed}
+			if(!in.fill())
+				return false;
+		}
+		finally
 		{
-			//~: release it
-			allocated.compareAndSet(xa, null);
+			idle.remove(s);
+		}
 
-			//~: cache new worker
-			preallocate();
+		//~: restore socket timeout
+		s.setSoTimeout(setup.getSoTimeout());
 
-			return;
+		return true;
+	}
+
+	/**
+	 * Sockets of the persistent connections
+	 * waiting for the next request.
+	 */
+	protected final ConcurrentHashMap<Socket, Object> idle =
+	  new ConcurrentHashMap<Socket, Object>();
+
+	/**
+	 * Tells whether the connection of the request
+	 * having the given number may be persistent.
+	 */
+	protected boolean keepAlive(Request req, int n)
+	{
+		//?: {keep-alive is disabled | limit reached}
+		if((setup.getKeepAliveTimeout() == 0) || (n >= setup.getKeepAliveMax()))
+			return false;
+
+		//?: {has no response body}
+		if("HEAD".equals(req.getMethod()))
+			return false;
+
+		final String t = req.getHeader(Known.TRANSFER_ENCODING);
+		final String l = req.getHeader(Known.CONTENT_LENGTH);
+
+		//?: {ambiguous framing}
+		if((t != null) && (l != null))
+			return false;
+
+		if(req instanceof Post)
+		{
+			//?: {body is not framed}
+			if((t != null) && !Requests.chunked(t))
+				return false;
+
+			if((l == null) && (t == null))
+				return false;
 		}
+		else if(t != null) //<-- the body is not drained
+			return false;
+		else if((l != null) && !"0".equals(l.trim()))
+			return false;
+
+		final String p = protocol(req);
+		final String c = req.getHeader(Known.CONNECTION);
 
-		//~: allocate a new instance
-		final Allocator na = new Allocator();
+		if("HTTP/1.1".equals(p))
+			return (c == null) || !c.toLowerCase(Locale.ROOT).contains("close");
 
-		//~: schedule the execution
-		setup.getPool().execute(na);
+		if("HTTP/1.0".equals(p))
+			return (c != null) && c.toLowerCase(Locale.ROOT).contains("keep-alive");
 
-		//~: assign our task there
-		EX.assertx(na.run(task));
+		return false;
+	}
 
-		//~: cache new worker
-		preallocate();
+	protected String  protocol(Request req)
+	{
+		return (req instanceof Requests.Basic)?
+		  ((Requests.Basic)req).getProtocol():(null);
 	}
 
-	protected void preallocate()
+	/**
+	 * Skips the body of a request not read by the
+	 * handler. Returns false if the body was not
+	 * read till the end within the drain limit.
+	 *
+	 * Inflated body is skipped by the framed
+	 * bytes: the limit is of the wire.
+	 */
+	protected boolean drain(Request req)
+	  throws IOException
 	{
-		Allocator a = new Allocator();
+		//?: {has no body}
+		if(!(req instanceof Post))
+			return true;
+
+		InputStream  i = ((Post)req).input();
+		final byte[] b = Support.BUFFERS.get();
 
-		try //~: run for the pool
+		//?: {inflated} drain the framed stream
+		if(i instanceof Support.InflatingInput)
+			i = ((Support.InflatingInput)i).input;
+
+		try
 		{
-			setup.getPool().execute(a);
+			for(long l = DRAIN;(l > 0L);)
+			{
+				final int x = i.read(b);
+
+				if(x <= 0) //?: {reached the end}
+					return true;
+
+				l -= x;
+			}
+
+			return false;
 		}
-		catch(Throwable ignore)
+		finally
 		{
-			//~: could not schedule
-			return;
+			Support.BUFFERS.free(b);
 		}
+	}
+
+	/**
+	 * The number of bytes of the request body
+	 * skipped to continue the connection.
+	 */
+	protected static final long DRAIN = 64 * 1024;
+
+	protected void allocate(ServerPeer p, Runnable task)
+	  throws Throwable
+	{
+		//~: hand over to a hot thread
+		p.hot.run(task);
+	}
 
-		//?: {not assigned} release the thread
-		if(!allocated.compareAndSet(null, a))
-			a.release();
+	/**
+	 * Creates the reservoir of the hot threads
+	 * of a peer. The reservoirs share the pool
+	 * and the counter of the tasks pending.
+	 */
+	protected Reservoir createReservoir()
+	{
+		return new Reservoir(setup.getPool(),
+		  setup.isVirtual()?(0):(setup.getHotThreads()), pending);
 	}
 
 	protected void pause(boolean paused)
 	{
+		final ServerPeer[] ps = this.peers;
+
+		//?: {not started}
+		if(ps == null)
+			return;
+
+		this.paused = paused;
+
 		if(!paused) //?: {release pause}
 		{
-			//~: clear the pause flag
-			if(allocated.compareAndSet(this.paused, null))
-				preallocate(); //<-- cache a thread
+			//~: cache the threads
+			for(ServerPeer p : ps)
+				if(p.hot.isClosed())
+					p.hot.open();
 
 			return;
 		}
 
-		//~: assign paused flag
-		final Object xa = allocated.getAndSet(this.paused);
+		//~: release the hot threads
+		for(ServerPeer p : ps)
+			p.hot.close();
 
-		//~: release cached allocator
-		if((xa != null) && (xa != this.paused))
-			((Allocator)xa).release();
+		//~: close idle persistent connections
+		for(Socket s : idle.keySet()) try
+		{
+			s.close();
+		}
+		catch(Throwable ignore)
+		{}
 	}
 
-	/**
-	 * Flag object indicating that the server is paused.
-	 */
-	protected final Object paused = new Object();
+	protected boolean isPaused()
+	{
+		return paused;
+	}
+
+	protected volatile boolean paused = true;
 
 	/**
-	 * Hot execution thread pre-allocated, or paused flag.
+	 * Tasks waiting in the pool queue
+	 * shared by the hot reservoirs.
 	 */
-	protected final AtomicReference<Object>
-	  allocated = new AtomicReference<Object>();
+	protected final AtomicInteger pending =
+	  new AtomicInteger();
 
 	/**
 	 * Currently executed (allocated) tasks.
@@ -480,19 +874,56 @@ public class LowHat implements Server
 	protected Request  parseRequest(InputStream s)
 	  throws ResponseWrapper, IOException
 	{
-		Scanner req = new Scanner(setup, s);
+		return upgrade(new Scanner(setup, s));
+	}
+
+	/**
+	 * Parses the request which preamble is already
+	 * scanned, and the body follows in the stream.
+	 */
+	protected Request  parseRequest(Parser scanned, InputStream s)
+	  throws ResponseWrapper, IOException
+	{
+		return upgrade(new Scanner(setup, scanned, s));
+	}
+
+	protected Request  upgrade(Scanner req)
+	{
+		return req.upgrade(factory(req.getMethod()));
+	}
+
+	/**
+	 * Returns the factory of the requests having the
+	 * method given. Takes the one of the setup, else
+	 * GET request, or general bodied request.
+	 */
+	protected Requests.Factory factory(String method)
+	{
+		final Requests.Factory f = setup.getFactory(method);
+
+		if(f != null)
+			return f;
 
 		//?: {is GET}
-		if("GET".equals(req.getMethod()))
-			return req.upgrade(Requests.Got.class);
+		if("GET".equals(method))
+			return Requests.Got.FACTORY;
+
+		//~: general bodied request
+		return Requests.Bodied.FACTORY;
+	}
 
-		//~: upgrade to general bodied request
-		return req.upgrade(Requests.Bodied.class);
+	/**
+	 * Level of the response compression.
+	 */
+	protected int compression()
+	{
+		final int l = setup.getCompression();
+		return (setup.isCompressAdaptive())?(Responses.adapt(l)):(l);
 	}
 
 	protected Response createResponse(Socket s)
 	  throws IOException
 	{
-		return new Responses.Headed(s.getOutputStream());
+		return new Responses.Headed(s);
 	}
 }
\ No newline at end of file
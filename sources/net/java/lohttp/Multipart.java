@@ -0,0 +1,687 @@
+package net.java.lohttp;
+
+/* Java */
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+
+/**
+ * Streaming parser of multipart/form-data body.
+ *
+ * The parts are taken one by one, each is a stream
+ * bounded by the delimiter that is searched with
+ * Boyer-Moore-Horspool algorithm in a pooled buffer.
+ * A part may be stored: in the memory till it's
+ * small, else it's moved to a temporary file.
+ *
+ * This implementation is not thread-safe!
+ *
+ * @author anton.baukin@gmail.com
+ */
+public class Multipart implements Closeable
+{
+	public static final String CONTENT_TYPE = "multipart/form-data";
+
+	public Multipart(InputStream input, String boundary)
+	{
+		this.input = EX.assertn(input);
+
+		EX.asserts(boundary);
+		EX.assertx(boundary.length() <= 200, "Multipart boundary is too long!");
+
+		//~: delimiter is CRLF--boundary
+		this.delimiter = new byte[boundary.length() + 4];
+		delimiter[0] = '\r';
+		delimiter[1] = '\n';
+		delimiter[2] = '-';
+		delimiter[3] = '-';
+
+		for(int i = 0;(i < boundary.length());i++)
+			delimiter[i + 4] = (byte) boundary.charAt(i);
+
+		//~: the skip table of the search
+		final int m = delimiter.length;
+
+		for(int i = 0;(i < 256);i++)
+			shift[i] = m;
+		for(int i = 0;(i < m - 1);i++)
+			shift[delimiter[i] & 0xFF] = m - 1 - i;
+	}
+
+	public final InputStream input;
+
+	/**
+	 * Returns the boundary parameter of multipart
+	 * content type, or null if it's not one.
+	 */
+	public static String boundary(String contentType)
+	{
+		if(contentType == null)
+			return null;
+
+		contentType = contentType.trim();
+		if(!ascii(contentType, 0, CONTENT_TYPE))
+			return null;
+
+		return parameter(contentType, "boundary");
+	}
+
+
+	/* Multipart */
+
+	/**
+	 * Returns the next part, or null when the closing
+	 * delimiter is reached. The rest of the previous
+	 * part is skipped when it was not read.
+	 */
+	public Part next()
+	  throws IOException
+	{
+		if(done)
+			return null;
+
+		//?: {the first part} the body starts with the delimiter
+		if(b == null)
+		{
+			b = Support.OUTPUTS.get();
+
+			//HINT: CRLF is virtual as the delimiter
+			// of the first part has no one.
+
+			b[0] = '\r';
+			b[1] = '\n';
+			e    = 2;
+			mark = -1;
+		}
+
+		//~: skip the rest of the current part
+		if(part != null)
+		{
+			part.skip();
+			part = null;
+		}
+		else while(true) //<-- skip the preamble
+		{
+			final int x = delimited0();
+
+			if(x == 0)
+				break;
+			if(x > 0)
+				p += x;
+		}
+
+		//~: the delimiter itself
+		p += delimiter.length;
+
+		//?: {closing delimiter}
+		if(!ensure(2))
+			throw new EOFException("Multipart body is not terminated!");
+
+		if((b[p] == '-') && (b[p + 1] == '-'))
+		{
+			done = true;
+			return null;
+		}
+
+		//~: the padding till the line end
+		while(true)
+		{
+			if(!ensure(2))
+				throw new EOFException("Multipart body is not terminated!");
+
+			if((b[p] == ' ') || (b[p] == '\t'))
+				p++;
+			else
+				break;
+		}
+
+		if((b[p] != '\r') || (b[p + 1] != '\n'))
+			throw new IOException("Multipart delimiter line is malformed!");
+
+		p += 2;
+		return part = new Part(headers());
+	}
+
+	/**
+	 * Returns the pooled buffer. The input
+	 * stream is not closed here.
+	 */
+	public void close()
+	{
+		final byte[] x = b;
+		b = null;
+
+		if(x != null)
+			Support.OUTPUTS.free(x);
+
+		if(part != null)
+			part.live = false;
+
+		done = true;
+	}
+
+
+	/* Part */
+
+	/**
+	 * Part of the body. It's read as the live stream,
+	 * or it's stored first to be read as many times
+	 * as needed. Stored part must be closed to
+	 * delete the temporary file.
+	 */
+	public final class Part implements Closeable
+	{
+		public Part(Map<String, String> headers)
+		{
+			this.headers = headers;
+
+			final String cd = headers.get("content-disposition");
+
+			this.name     = (cd == null)?(null):(parameter(cd, "name"));
+			this.filename = (cd == null)?(null):(parameter(cd, "filename"));
+		}
+
+		/**
+		 * Headers of the part by the lower-case names.
+		 */
+		public final Map<String, String> headers;
+
+		/**
+		 * Name of the form field, or null.
+		 */
+		public final String name;
+
+		/**
+		 * File name of the upload, or null.
+		 */
+		public final String filename;
+
+		public String  getContentType()
+		{
+			return headers.get("content-type");
+		}
+
+		/**
+		 * Returns the live stream of the part, or the
+		 * new stream of the stored one.
+		 */
+		public InputStream input()
+		  throws IOException
+		{
+			if(file != null)
+				return new FileInputStream(file);
+
+			if(bytes != null)
+				return bytes.inputStream();
+
+			EX.assertx(live, "Multipart part is over!");
+			return stream;
+		}
+
+		/**
+		 * Reads the rest of the part into the memory.
+		 * When it's over the spill size, the bytes are
+		 * moved into a temporary file in the directory
+		 * given (null is the system default one).
+		 */
+		public Part    store(long spill, File dir)
+		  throws IOException
+		{
+			if((file != null) || (bytes != null))
+				return this;
+
+			EX.assertx(live, "Multipart part is over!");
+			bytes = new Support.BytesStream();
+
+			final byte[] x = Support.BUFFERS.get();
+			OutputStream f = null;
+
+			try
+			{
+				for(int s;((s = stream.read(x, 0, x.length)) > 0);)
+				{
+					bytes.write(x, 0, s);
+					length += s;
+
+					//?: {spill to the file}
+					if(length > spill)
+					{
+						file = File.createTempFile("lohttp-", ".part", dir);
+						f    = new FileOutputStream(file);
+
+						bytes.copy(f);
+						bytes.closeAlways();
+						bytes = null;
+
+						//~: the rest in bulk
+						length += Support.pump(stream, f);
+						f.close();
+						break;
+					}
+				}
+			}
+			catch(IOException e)
+			{
+				if(f != null) try
+				{
+					f.close();
+				}
+				catch(IOException ignore)
+				{}
+
+				close();
+				throw e;
+			}
+			finally
+			{
+				Support.BUFFERS.free(x);
+			}
+
+			return this;
+		}
+
+		/**
+		 * Length of the stored part, else -1.
+		 */
+		public long    length()
+		{
+			return ((file == null) && (bytes == null))?(-1L):(length);
+		}
+
+		/**
+		 * Temporary file of the stored part, or null
+		 * when it's in the memory, or not stored.
+		 */
+		public File    file()
+		{
+			return file;
+		}
+
+		/**
+		 * Decodes the part stored in the memory as UTF-8.
+		 */
+		public String  string()
+		  throws IOException
+		{
+			EX.assertn(bytes, "Multipart part is not stored in the memory!");
+			return Support.utf8(bytes.bytes(), 0, (int) length, null);
+		}
+
+		/**
+		 * Frees the memory, deletes the temporary file.
+		 */
+		public void    close()
+		{
+			if(bytes != null)
+				bytes.closeAlways();
+			bytes = null;
+
+			if((file != null) && !file.delete())
+				file.deleteOnExit();
+			file = null;
+		}
+
+
+		/* private: part content */
+
+		private boolean live = true;
+
+		private Support.BytesStream bytes;
+
+		private File file;
+
+		private long length;
+
+		private void skip()
+		  throws IOException
+		{
+			if(live)
+				while(stream.skip(Long.MAX_VALUE) > 0L);
+
+			live = false;
+		}
+
+		private final InputStream stream = new InputStream()
+		{
+			public int  read()
+			  throws IOException
+			{
+				return (read(one, 0, 1) <= 0)?(-1):(one[0] & 0xFF);
+			}
+
+			private final byte[] one = new byte[1];
+
+			public int  read(byte[] buf, int off, int len)
+			  throws IOException
+			{
+				if(!live || (b == null))
+					return -1;
+
+				if(len == 0)
+					return 0;
+
+				final int x = available0();
+
+				//?: {reached the delimiter}
+				if(x == 0)
+				{
+					live = false;
+					return -1;
+				}
+
+				final int s = Math.min(x, len);
+				System.arraycopy(b, p, buf, off, s);
+				p += s;
+
+				return s;
+			}
+
+			public long skip(long n)
+			  throws IOException
+			{
+				if(!live || (b == null))
+					return 0L;
+
+				final int x = available0();
+
+				if(x == 0)
+				{
+					live = false;
+					return 0L;
+				}
+
+				final int s = (int) Math.min(x, n);
+				p += s;
+
+				return s;
+			}
+
+			public int  available()
+			{
+				return (!live || (b == null))?(0):
+				  Math.max(0, ((mark >= 0)?(mark):(clean)) - p);
+			}
+		};
+
+		/**
+		 * Returns the number of bytes available till the
+		 * delimiter, reading more when it's needed.
+		 * Zero tells the part is over.
+		 */
+		private int  available0()
+		  throws IOException
+		{
+			while(true)
+			{
+				final int x = delimited0();
+
+				if(x != -1)
+					return x;
+			}
+		}
+	}
+
+
+	/* private: buffer */
+
+	private final byte[] delimiter;
+
+	private final int[]  shift = new int[256];
+
+	private boolean done;
+
+	private Part    part;
+
+	/**
+	 * Pooled buffer, position, and the end.
+	 */
+	private byte[]  b;
+	private int     p, e;
+
+	/**
+	 * Position of the delimiter found, or -1.
+	 * The positions before the clean one can
+	 * not start the delimiter.
+	 */
+	private int     mark, clean;
+
+	/**
+	 * Returns the number of bytes before the delimiter
+	 * (0 if it's at the position), or -1 when more
+	 * bytes were read and the search is to repeat.
+	 * Bytes that may not start the delimiter are
+	 * returned at once.
+	 */
+	private int     delimited0()
+	  throws IOException
+	{
+		//?: {the delimiter is known}
+		if(mark >= 0)
+			return mark - p;
+
+		if(clean < p)
+			clean = p;
+
+		final int m = delimiter.length;
+		final int k = find(clean, e);
+
+		if(k >= 0)
+		{
+			mark = k;
+			return k - p;
+		}
+
+		//~: the bytes that can't start the delimiter
+		clean = Math.max(clean, e - m + 1);
+
+		if(clean > p)
+			return clean - p;
+
+		//~: need more bytes
+		if(!more())
+			throw new EOFException("Multipart body is not terminated!");
+
+		return -1;
+	}
+
+	/**
+	 * Boyer-Moore-Horspool search of the delimiter.
+	 */
+	private int     find(int from, int to)
+	{
+		final byte[] d = delimiter;
+		final int    m = d.length;
+
+		for(int i = from;(i + m <= to);)
+		{
+			int j = m - 1;
+
+			while((j >= 0) && (b[i + j] == d[j]))
+				j--;
+
+			if(j < 0)
+				return i;
+
+			i += shift[b[i + m - 1] & 0xFF];
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Moves the bytes to the buffer start, and
+	 * reads more. Returns false at the end.
+	 */
+	private boolean more()
+	  throws IOException
+	{
+		//~: compact the buffer
+		if(p > 0)
+		{
+			System.arraycopy(b, p, b, 0, e - p);
+
+			e     -= p;
+			clean -= p;
+			if(mark >= 0)
+				mark -= p;
+
+			p = 0;
+		}
+
+		if(e == b.length)
+			throw new IOException("Multipart line is too long!");
+
+		final int x = input.read(b, e, b.length - e);
+
+		if(x <= 0)
+			return false;
+
+		e += x;
+		return true;
+	}
+
+	/**
+	 * Makes sure the number of bytes is in the
+	 * buffer. Returns false at the end.
+	 */
+	private boolean ensure(int n)
+	  throws IOException
+	{
+		while(e - p < n)
+			if(!more())
+				return false;
+
+		return true;
+	}
+
+	/**
+	 * Reads the header lines of the part till
+	 * the empty one. The names are lower-case.
+	 */
+	private Map<String, String> headers()
+	  throws IOException
+	{
+		final Map<String, String> hs = new LinkedHashMap<String, String>();
+		mark  = -1;
+		clean = p;
+
+		while(true)
+		{
+			//~: find the line end
+			int i = 0; //<-- offset from the position
+
+			while(true)
+			{
+				while((p + i + 1 < e) && ((b[p + i] != '\r') || (b[p + i + 1] != '\n')))
+					i++;
+
+				if(p + i + 1 < e)
+					break;
+
+				if(!more())
+					throw new EOFException("Multipart headers are not terminated!");
+			}
+
+			i += p;
+
+			//?: {empty line}
+			if(i == p)
+			{
+				p += 2;
+				clean = p;
+				return hs;
+			}
+
+			final String l = Support.utf8(b, p, i - p, null);
+			final int    c = l.indexOf(':');
+
+			if(c > 0)
+				hs.put(l.substring(0, c).trim().toLowerCase(Locale.ROOT),
+				  l.substring(c + 1).trim());
+
+			p = i + 2;
+		}
+	}
+
+	/**
+	 * Returns the parameter of the header value,
+	 * as name="value", or name=value. The name
+	 * is lower-case ASCII, matched ignoring
+	 * the case of ASCII letters only.
+	 */
+	static String   parameter(String h, String name)
+	{
+		final int n = h.length();
+
+		for(int i = 0;(i + name.length() <= n);i++)
+		{
+			//?: {not a whole name}
+			if((i > 0) && (h.charAt(i - 1) != ';') &&
+			   (h.charAt(i - 1) != ' ') && (h.charAt(i - 1) != '\t'))
+				continue;
+
+			if(!ascii(h, i, name))
+				continue;
+
+			int x = i + name.length();
+			while((x < n) && (h.charAt(x) == ' '))
+				x++;
+
+			if((x == n) || (h.charAt(x) != '='))
+				continue;
+
+			x++;
+			while((x < n) && (h.charAt(x) == ' '))
+				x++;
+
+			//?: {quoted value}
+			if((x < n) && (h.charAt(x) == '"'))
+			{
+				final int q = h.indexOf('"', x + 1);
+				return h.substring(x + 1, (q == -1)?(n):(q));
+			}
+
+			int y = x;
+			while((y < n) && (h.charAt(y) != ';') && (h.charAt(y) != ' '))
+				y++;
+
+			return h.substring(x, y);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Tells the string has the lower-case ASCII
+	 * word at the offset, ignoring the case of
+	 * ASCII letters only (not by the locale).
+	 */
+	static boolean  ascii(String s, int i, String lower)
+	{
+		if(i + lower.length() > s.length())
+			return false;
+
+		for(int j = 0;(j < lower.length());j++)
+		{
+			char c = s.charAt(i + j);
+
+			if((c >= 'A') && (c <= 'Z'))
+				c = (char)(c + ('a' - 'A'));
+
+			if(c != lower.charAt(j))
+				return false;
+		}
+
+		return true;
+	}
+}
@@ -29,8 +29,8 @@ public interface Post extends Request
 	 * the request type is not recognized.
 	 *
 	 * In practice, if request type if URL
-	 * encoded web form, does decode adding
-	 * the parameters.
+	 * encoded web form, or multipart form data,
+	 * does decode adding the parameters.
 	 *
 	 * Returns false if nothing happened.
 	 */
@@ -2,18 +2,18 @@ package net.java.lohttp;
 
 /* Java */
 
-import java.io.ByteArrayInputStream;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.Reader;
 import java.net.URLDecoder;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 /* lo*-http: support */
@@ -49,6 +49,14 @@ public class Requests
 			EX.assertx("GET".equals(source.getMethod()));
 		}
 
+		public static final Factory FACTORY = new Factory()
+		{
+			public Basic create(Basic source, InputStream input)
+			{
+				return new Got(source, input);
+			}
+		};
+
 		public String getMethod()
 		{
 			return "GET";
@@ -69,6 +77,14 @@ public class Requests
 			EX.assertx(!"GET".equals(source.getMethod()));
 		}
 
+		public static final Factory FACTORY = new Factory()
+		{
+			public Basic create(Basic source, InputStream input)
+			{
+				return new Bodied(source, input);
+			}
+		};
+
 
 		/* Post Request */
 
@@ -79,96 +95,217 @@ public class Requests
 		public static final String UE_BODY_CT =
 		  "application/x-www-form-urlencoded";
 
-		@SuppressWarnings("unchecked")
+		/**
+		 * Decodes URL encoded web form, or multipart
+		 * form data. Multipart text fields without a file
+		 * name that are not longer than the spill size of
+		 * the setup become the parameters, the rest parts
+		 * are stored, see {@link #getParts()}. The total
+		 * size of the parts in the memory is limited,
+		 * the following ones go to the files.
+		 */
 		public boolean     decode()
 		{
-			String ct = getHeader("Content-Type");
+			String ct = getHeader(Known.CONTENT_TYPE);
 
-			//?: {not a form body request}
-			if((ct == null) || !ct.contains(UE_BODY_CT))
+			//?: {no content type}
+			if(ct == null)
 				return false;
 
+			//?: {multipart form}
+			if(!ct.contains(UE_BODY_CT))
+				return multipart(Multipart.boundary(ct));
+
 			try
 			{
-				//~: input reader
-				Reader r = new InputStreamReader(input, "UTF-8");
-
 				//~: resulting parameters
 				Map<String, Object> ps = new LinkedHashMap<String, Object>();
 
-				//~: parse the parameters
-				Requests.params(r, ps);
+				//~: decode the parameters from the bytes
+				Requests.params(input, Requests.params(ps));
 
 				//?: {no parameters found}
 				if(ps.isEmpty())
 					return false;
 
-				//~: clear cached names
-				this.paramNames = null;
+				assign(ps);
+				return true;
+			}
+			catch(Throwable e)
+			{
+				throw EX.wrap(e);
+			}
+		}
 
-				//~: assign them
-				for(Map.Entry<String, Object> e : ps.entrySet())
-				{
-					List<String> xs;
+		public InputStream input()
+		{
+			return input;
+		}
 
-					//~: values to add
-					if(e.getValue() instanceof String)
-						xs = Arrays.asList((String) e.getValue());
-					else
-						xs = (List<String>) e.getValue();
+		protected final InputStream input;
 
-					//~: value object
-					Object vo = params.get(e.getKey());
+		/**
+		 * Stored parts of multipart form that were
+		 * not taken as the parameters: the files,
+		 * and long fields. Empty list if none.
+		 * The parts are deleted on the close.
+		 */
+		public List<Multipart.Part> getParts()
+		{
+			if(parts == null)
+				return Collections.emptyList();
+			return Collections.unmodifiableList(parts);
+		}
 
-					//?: {new single value}
-					if((vo == null) && (xs.size() == 1))
-					{
-						params.put(e.getKey(), xs.get(0));
-						continue;
-					}
+		protected List<Multipart.Part> parts;
 
-					//~: existing values
-					List<String> es;
+		public void        close()
+		{
+			//?: {inflated body} return the buffer
+			if(input instanceof Support.InflatingInput)
+				((Support.InflatingInput) input).release();
 
-					if(vo instanceof String)
-					{
-						es = new ArrayList<String>(xs.size() + 1);
-						es.add((String) vo);
-						es.addAll(xs);
-					}
-					else if(vo != null)
+			final List<Multipart.Part> ps = this.parts;
+			this.parts = null;
+
+			if(ps != null)
+				for(Multipart.Part p : ps)
+					p.close();
+
+			super.close();
+		}
+
+
+		/* protected: decoding */
+
+		protected boolean  multipart(String boundary)
+		{
+			//?: {not a multipart form}
+			if(boundary == null)
+				return false;
+
+			final Multipart mp = new Multipart(input, boundary);
+			final long      sp = setup.getMultipartSpill();
+			long            mm = setup.getMultipartMemory();
+
+			try
+			{
+				Map<String, Object> ps = new LinkedHashMap<String, Object>();
+				TakeParam           tp = Requests.params(ps);
+
+				for(Multipart.Part p;((p = mp.next()) != null);)
+				{
+					//~: store within the memory left
+					p.store(Math.min(sp, mm), setup.getMultipartDir());
+
+					if(p.file() == null)
+						mm -= p.length();
+
+					//?: {small text field}
+					if((p.name != null) && (p.filename == null) && (p.file() == null))
 					{
-						es = new ArrayList<String>(xs.size() + ((String[])vo).length);
-						es.addAll(Arrays.asList((String[])vo));
-						es.addAll(xs);
+						tp.take(p.name, p.string());
+						p.close();
+						continue;
 					}
-					else
-						es = xs;
 
-					//~: save the array
-					params.put(e.getKey(), es.toArray(new String[es.size()]));
+					if(parts == null)
+						parts = new ArrayList<Multipart.Part>(2);
+					parts.add(p);
 				}
 
-				return true;
+				if(!ps.isEmpty())
+					assign(ps);
+
+				return !ps.isEmpty() || (parts != null);
 			}
 			catch(Throwable e)
 			{
 				throw EX.wrap(e);
 			}
+			finally
+			{
+				mp.close();
+			}
 		}
 
-		public InputStream input()
+		/**
+		 * Adds the parameters decoded from the body.
+		 */
+		@SuppressWarnings("unchecked")
+		protected void     assign(Map<String, Object> ps)
 		{
-			return input;
+			//~: clear cached names
+			this.paramNames = null;
+
+			//?: {lazy mode} decode the query
+			if(lazyParams)
+				params();
+
+			//~: assign them
+			for(Map.Entry<String, Object> e : ps.entrySet())
+			{
+				List<String> xs;
+
+				//~: values to add
+				if(e.getValue() instanceof String)
+					xs = Arrays.asList((String) e.getValue());
+				else
+					xs = (List<String>) e.getValue();
+
+				//~: value object
+				Object vo = params.get(e.getKey());
+
+				//?: {new single value}
+				if((vo == null) && (xs.size() == 1))
+				{
+					params.put(e.getKey(), xs.get(0));
+					continue;
+				}
+
+				//~: existing values
+				List<String> es;
+
+				if(vo instanceof String)
+				{
+					es = new ArrayList<String>(xs.size() + 1);
+					es.add((String) vo);
+					es.addAll(xs);
+				}
+				else if(vo != null)
+				{
+					es = new ArrayList<String>(xs.size() + ((String[])vo).length);
+					es.addAll(Arrays.asList((String[])vo));
+					es.addAll(xs);
+				}
+				else
+					es = xs;
+
+				//~: save the array
+				params.put(e.getKey(), es.toArray(new String[es.size()]));
+			}
 		}
+	}
 
-		protected final InputStream input;
+
+	/* Request Factory */
+
+	/**
+	 * Creates the request instance from the scanned
+	 * one, see {@link Scanner#upgrade(Factory)}.
+	 * The input is the body stream of the request.
+	 */
+	public static interface Factory
+	{
+		/* Request Factory */
+
+		Basic create(Basic source, InputStream input);
 	}
 
 
 	/* Basic Request */
 
-	public static abstract class Basic implements Request
+	public static abstract class Basic implements Request, Closeable
 	{
 		/* HTTP Request */
 
@@ -186,9 +323,21 @@ public class Requests
 
 		protected String path;
 
+		/**
+		 * Protocol of the request line in upper case,
+		 * such as HTTP/1.1. This is not a part
+		 * of the request interface.
+		 */
+		public String   getProtocol()
+		{
+			return protocol;
+		}
+
+		protected String protocol;
+
 		public String   getParam(String name)
 		{
-			Object p = params.get(name);
+			Object p = param(name);
 
 			if(p == null)
 				return null;
@@ -201,6 +350,10 @@ public class Requests
 
 		public String[] getParams()
 		{
+			//?: {lazy mode} decode all
+			if(lazyParams)
+				params();
+
 			if(paramNames == null)
 				paramNames = params.keySet().
 				  toArray(new String[params.size()]);
@@ -214,7 +367,7 @@ public class Requests
 
 		public int      takeParams(String name, Take take)
 		{
-			Object p = params.get(name);
+			Object p = param(name);
 
 			if(p == null)
 				return 0;
@@ -232,7 +385,8 @@ public class Requests
 
 		public String   getHeader(String name)
 		{
-			Object h = headers.get(name.toLowerCase());
+			//?: {is a known constant} needs no lowercase
+			Object h = header((Known.ordinal(name) >= 0)?(name):(name.toLowerCase(Locale.ROOT)));
 
 			if(h == null)
 				return null;
@@ -245,6 +399,10 @@ public class Requests
 
 		public String[] getHeaders()
 		{
+			//?: {lazy mode} decode all
+			if(lazyHeaders)
+				headers();
+
 			if(headerNames == null)
 				headerNames = headers.keySet().
 				  toArray(new String[headers.size()]);
@@ -256,9 +414,15 @@ public class Requests
 
 		protected final HashMap<String, Object> headers;
 
+		/**
+		 * Values of the well-known headers
+		 * by the ordinals of {@link Known}.
+		 */
+		protected final Object[] known;
+
 		public int      takeHeaders(String name, Take take)
 		{
-			Object h = headers.get(name);
+			Object h = header((Known.ordinal(name) >= 0)?(name):(name.toLowerCase(Locale.ROOT)));
 
 			if(h == null)
 				return 0;
@@ -275,6 +439,24 @@ public class Requests
 		}
 
 
+		/* Request Lifecycle */
+
+		/**
+		 * Releases the preamble buffers of the lazy
+		 * mode. Invoked by the server when the request
+		 * is completed. The headers and the parameters
+		 * not yet decoded are not available after.
+		 */
+		public void     close()
+		{
+			final Parser p = this.preamble;
+			this.preamble  = null;
+
+			if(p != null)
+				p.close();
+		}
+
+
 		/* protected: HTTP Handling */
 
 		/**
@@ -285,193 +467,409 @@ public class Requests
 			this.setup   = setup;
 			this.params  = new LinkedHashMap<String, Object>();
 			this.headers = new LinkedHashMap<String, Object>();
+			this.known   = new Object[Known.NAMES.length];
 		}
 
 		protected final Setup setup;
 
 		/**
 		 * Copying constructor that does nothing.
+		 * The preamble of the lazy mode is taken
+		 * over as the source is not used further.
 		 */
 		public Basic(Basic source)
 		{
-			this.setup   = source.setup;
-			this.method  = source.method;
-			this.params  = source.params;
-			this.headers = source.headers;
-			this.path    = source.path;
+			this.setup       = source.setup;
+			this.method      = source.method;
+			this.params      = source.params;
+			this.headers     = source.headers;
+			this.known       = source.known;
+			this.path        = source.path;
+			this.protocol    = source.protocol;
+			this.preamble    = source.preamble;
+			this.lazyParams  = source.lazyParams;
+			this.lazyHeaders = source.lazyHeaders;
+
+			source.preamble  = null;
 		}
-	}
 
 
-	/* Scanning Request */
-
-	public static class Scanner extends Basic
-	{
-		public Scanner(Setup setup, InputStream socket)
-		  throws IOException
-		{
-			super(setup);
+		/* protected: lazy decoding */
 
-			this.socket  = socket;
-			this.parser  = parse();
-		}
+		/**
+		 * Parser holding the preamble bytes in the lazy
+		 * decode mode. Released by {@link #close()}.
+		 */
+		protected Parser  preamble;
 
+		/**
+		 * Tells that the parameters, or the headers
+		 * are not decoded all, but on demand.
+		 */
+		protected boolean lazyParams;
+		protected boolean lazyHeaders;
 
-		/* Request Upgrade */
+		/**
+		 * Marks the name looked up in the lazy
+		 * mode that is absent in the request.
+		 */
+		protected static final Object NONE = new Object();
 
 		/**
-		 * Upgrades to the request class closing the parser.
-		 * Scanner instance may not be used further!
+		 * Returns the value object of the header
+		 * having the name in the lower case.
 		 */
-		public Basic upgrade(Class<? extends Basic> c)
+		protected Object  header(String name)
 		{
-			try
+			final int k = Known.ordinal(name);
+			Object    h = (k >= 0)?(known[k]):(headers.get(name));
+
+			//?: {lazy mode & not found yet}
+			if((h == null) && lazyHeaders)
 			{
-				InputStream stream = socket;
+				h = header(preamble(), name, k);
 
-				//?: {scan got out of the header}
-				if(parser.bytes.length() > parser.whole.e)
-				{
-					final int    s = (int)(parser.bytes.length() - parser.whole.e);
-					final byte[] b = new byte[s];
+				if(h == null)
+					h = NONE;
 
-					//~: copy the bytes
-					parser.bytes.each(parser.whole.e, s, new TakeBytes()
-					{
-						int o;
+				if(k >= 0)
+					known[k] = h;
+				else
+					headers.put(name, h);
+			}
 
-						public boolean take(byte[] buf, int off, int len)
-						{
-							System.arraycopy(buf, off, b, o, len);
-							o += len;
-							return true;
-						}
-					});
+			return (h == NONE)?(null):(h);
+		}
 
-					//~: create composite stream
-					stream = new Support.CompositeInput(
-					  new ByteArrayInputStream(b), socket);
-				}
+		protected Object  param(String name)
+		{
+			Object p = params.get(name);
 
-				//?: {content length is provided} limited stream
-				String length = getHeader("Content-Length");
-				if(length != null)
-					stream = new Support.LimitedInput(
-					  stream, Long.parseLong(length));
+			//?: {lazy mode & not found yet}
+			if((p == null) && lazyParams)
+			{
+				p = param(preamble(), name);
+				params.put(name, (p == null)?(NONE):(p));
+			}
 
-				//~: create the new instance
-				return c.getConstructor(Basic.class, InputStream.class).
-				  newInstance(this, stream);
+			return (p == NONE)?(null):(p);
+		}
+
+		protected Parser  preamble()
+		{
+			EX.assertn(preamble, "Request is already completed!");
+			return preamble;
+		}
+
+		/**
+		 * Decodes all the headers of the lazy mode.
+		 */
+		protected void    headers()
+		{
+			try
+			{
+				headers.clear();
+				Arrays.fill(known, null);
+				headers(preamble());
+				lazyHeaders = false;
 			}
 			catch(Throwable e)
 			{
 				throw EX.wrap(e);
 			}
-			finally
+		}
+
+		/**
+		 * Decodes all the parameters of the lazy mode.
+		 */
+		protected void    params()
+		{
+			try
 			{
-				//!: close the parser always
-				parser.close();
+				params.clear();
+				params(preamble());
+				lazyParams = false;
+			}
+			catch(Throwable e)
+			{
+				throw EX.wrap(e);
 			}
 		}
 
+		/**
+		 * Finds the values of the header without
+		 * decoding the others. The name is given
+		 * in the lower case with the known ordinal.
+		 */
+		protected Object  header(Parser p, String name, int k)
+		{
+			Object h = null;
 
-		/* protected: parse operations */
+			for(int i = 0;(i < p.headers.length);i += 2)
+			{
+				final Pair hp = p.headers[i];
 
-		protected final InputStream socket;
-		protected final Parser parser;
+				//?: {not that known header}
+				if((k >= 0) && (p.known[i/2] != k))
+					continue;
 
-		protected Parser  parse()
-		  throws IOException
+				//?: {not that name}
+				if(!same(p, hp.b, hp.e, name))
+					continue;
+
+				final String v = string(p, p.headers[i+1]);
+
+				if(h == null)
+					h = v;
+				else if(h instanceof String)
+					h = new String[]{ (String)h, v };
+				else
+				{
+					String[] xh = new String[((String[])h).length + 1];
+					System.arraycopy(h, 0, xh, 0, xh.length - 1);
+					xh[xh.length - 1] = v;
+					h = xh;
+				}
+			}
+
+			return h;
+		}
+
+		/**
+		 * Finds the values of the query parameter
+		 * decoding only the names that may not be
+		 * compared directly with the bytes.
+		 */
+		protected Object  param(Parser p, String name)
 		{
-			//~: create the parser
-			Parser p = new Parser(socket, setup.getPreambleLimit());
+			//?: {no parameters}
+			if(p.params == null)
+				return null;
 
-			//~: scan the preamble
-			int x = p.scan();
+			final List<String> vs = new ArrayList<String>(1);
 
 			try
 			{
-				if(x == 2) //?: {limit reached}
-					throw new ResponseWrapper(Responses.RequestTooLarge);
-				else if(x != 0) //?: {format error}
-					throw new ResponseWrapper(Responses.BadRequest);
-
-				//~: decode the first line
-				x = p.first();
-
-				if(x != 0) //?: {parse error}
-					throw new ResponseWrapper(Responses.BadRequest);
+				//c: for each name[=value] section
+				for(int b = p.params.b;(b <= p.params.e);)
+				{
+					int e = index(p, b, p.params.e, '&');
+					int v = index(p, b, e, '=');
 
-				//~: parse the headers
-				x = p.headers();
+					//?: {empty section}
+					if(b == e)
+					{
+						b = e + 1;
+						continue;
+					}
 
-				if(x != 0) //?: {parse error}
-					throw new ResponseWrapper(Responses.BadRequest);
+					//?: {the name matches}
+					if(exact(p, b, v, name) || (encoded(p, b, v) &&
+					  name.equals(decode(p, b, v))))
+						vs.add((v == e)?(""):decode(p, v + 1, e));
 
-				try
-				{
-					postScan(p);
-				}
-				catch(Throwable ignore)
-				{
-					p.close();
-					throw new ResponseWrapper(Responses.BadRequest);
+					b = e + 1;
 				}
 			}
-			finally
+			catch(Throwable e)
 			{
-				//?: {not fine} close the parser
-				if(x != 0)
-					p.close();
+				throw EX.wrap(e);
 			}
 
-			return p;
-		}
+			if(vs.isEmpty())
+				return null;
 
-		protected void    postScan(Parser p)
-		  throws Throwable
-		{
-			method(p);
-			params(p);
-			headers(p);
-			path(p);
+			if(vs.size() == 1)
+				return vs.get(0);
+
+			return vs.toArray(new String[vs.size()]);
 		}
 
 		/**
-		 * Assigns the request method.
+		 * Tells the preamble bytes of the range are
+		 * the same as ASCII characters of the name,
+		 * ignoring the case of the bytes.
 		 */
-		protected void    method(Parser p)
-		  throws Exception
+		protected boolean same(Parser p, int b, int e, final String name)
 		{
-			EX.assertn(p.method);
+			//?: {length differs}
+			if(e - b != name.length())
+				return false;
 
-			//~: resulting string
-			final StringBuilder s = new StringBuilder(8);
+			final boolean[] r = { true };
 
-			//c: append the bytes
-			p.bytes.each(p.method.b, p.method.e - p.method.b, new TakeBytes()
+			each(p, b, e, new TakeBytes()
 			{
+				int o;
+
 				public boolean take(byte[] buf, int off, int len)
 				{
-					for(int i = 0; (i < len); i++)
+					for(int i = 0;(i < len);i++)
 					{
-						final char c = Character.toUpperCase(
+						final char c = Character.toLowerCase(
 						  (char)(buf[off + i] & 0xFF));
 
-						//?: {not a letter}
-						EX.assertx(c >= 'A' & c <= 'Z');
+						final char n = Character.toLowerCase(
+						  name.charAt(o++));
 
-						//~: accumulate
-						s.append(c);
+						if(c != n)
+							return r[0] = false;
 					}
 
 					return true;
 				}
 			});
 
-			//=: assign the method
-			method = s.toString();
-			EX.asserts(method);
+			return r[0];
+		}
+
+		/**
+		 * Tells the preamble bytes of the range are
+		 * exactly the same as ASCII characters of
+		 * the name. The bytes that are decoded by
+		 * the URL rules never match.
+		 */
+		protected boolean exact(Parser p, int b, int e, final String name)
+		{
+			//?: {length differs}
+			if(e - b != name.length())
+				return false;
+
+			final boolean[] r = { true };
+
+			each(p, b, e, new TakeBytes()
+			{
+				int o;
+
+				public boolean take(byte[] buf, int off, int len)
+				{
+					for(int i = 0;(i < len);i++)
+					{
+						final int c = buf[off + i] & 0xFF;
+
+						if((c == '%') || (c == '+') || (c >= 0x80) ||
+						   (c != name.charAt(o++)))
+							return r[0] = false;
+					}
+
+					return true;
+				}
+			});
+
+			return r[0];
+		}
+
+		/**
+		 * Tells the range has URL escapes,
+		 * or not ASCII bytes.
+		 */
+		protected boolean encoded(Parser p, int b, int e)
+		{
+			final boolean[] r = { false };
+
+			each(p, b, e, new TakeBytes()
+			{
+				public boolean take(byte[] buf, int off, int len)
+				{
+					for(int i = 0;(i < len);i++)
+					{
+						final int c = buf[off + i] & 0xFF;
+
+						if(c == '%' || c == '+' || c >= 0x80)
+							return !(r[0] = true);
+					}
+
+					return true;
+				}
+			});
+
+			return r[0];
+		}
+
+		/**
+		 * Returns the offset of the first byte
+		 * in the range, or the range end.
+		 */
+		protected int     index(Parser p, final int b, int e, final int x)
+		{
+			final int[] r = { e };
+
+			each(p, b, e, new TakeBytes()
+			{
+				int o = b;
+
+				public boolean take(byte[] buf, int off, int len)
+				{
+					for(int i = 0;(i < len);i++)
+						if((buf[off + i] & 0xFF) == x)
+						{
+							r[0] = o + i;
+							return false;
+						}
+
+					o += len;
+					return true;
+				}
+			});
+
+			return r[0];
+		}
+
+		/**
+		 * Decodes URL encoded preamble range.
+		 */
+		protected String  decode(Parser p, int b, int e)
+		{
+			final byte[] s = bytes(p, b, e);
+			return UrlDecoder.decode(s, 0, s.length);
+		}
+
+		protected String  string(Parser p, Pair x)
+		{
+			return string(p, x.b, x.e);
+		}
+
+		/**
+		 * Decodes UTF-8 string of the preamble range.
+		 */
+		protected String  string(Parser p, int b, int e)
+		{
+			final byte[] s = bytes(p, b, e);
+			return Support.utf8(s, 0, s.length, null);
+		}
+
+		/**
+		 * Copies the bytes of the preamble range.
+		 */
+		protected byte[]  bytes(Parser p, int b, int e)
+		{
+			final byte[] s = new byte[e - b];
+
+			each(p, b, e, new TakeBytes()
+			{
+				int o;
+
+				public boolean take(byte[] buf, int off, int len)
+				{
+					System.arraycopy(buf, off, s, o, len);
+					o += len;
+					return true;
+				}
+			});
+
+			return s;
+		}
+
+		protected void    each(Parser p, int b, int e, TakeBytes take)
+		{
+			try
+			{
+				p.bytes.each(b, e - b, take);
+			}
+			catch(Throwable x)
+			{
+				throw EX.wrap(x);
+			}
 		}
 
 		/**
@@ -485,15 +883,13 @@ public class Requests
 			if(p.params == null)
 				return;
 
-			//~: input reader
-			Reader r = new InputStreamReader(p.bytes.inputStream(
-			  p.params.b, p.params.e - p.params.b), "UTF-8");
-
 			//~: resulting parameters
 			Map<String, Object> ps = new LinkedHashMap<String, Object>();
 
-			//~: parse the parameters
-			Requests.params(r, ps);
+			//~: decode the parameters from the preamble bytes
+			final UrlDecoder d = new UrlDecoder(Requests.params(ps));
+			p.bytes.each(p.params.b, p.params.e - p.params.b, d);
+			d.finish();
 
 			//~: assign them
 			for(Map.Entry<String, Object> e : ps.entrySet())
@@ -517,7 +913,6 @@ public class Requests
 
 			//~: temporary string
 			final StringBuilder s = new StringBuilder(64);
-			final char[]        b = new char[16];
 
 			//c: for each header
 			for(int i = 0;(i < p.headers.length);i += 2)
@@ -531,71 +926,68 @@ public class Requests
 				//?: {header value is empty}
 				EX.assertx(vp.b < vp.e);
 
+				//~: well-known header name
+				final int     k = p.known[i/2];
+				final boolean w = (k >= 0) && same(p, hp.b, hp.e, Known.NAMES[k]);
+				String       hn = (w)?(Known.NAMES[k]):(null);
+
 				//~: concatenate the ANSI name
-				s.delete(0, s.length());
-				p.bytes.each(hp.b, hp.e - hp.b, new TakeBytes()
+				if(!w)
 				{
-					public boolean take(byte[] buf, int off, int len)
+					s.delete(0, s.length());
+					p.bytes.each(hp.b, hp.e - hp.b, new TakeBytes()
 					{
-						for(int i = 0; (i < len); i++)
+						public boolean take(byte[] buf, int off, int len)
 						{
-							final char c = Character.toLowerCase(
-							  (char)(buf[off + i] & 0xFF));
-
-							//?: {is character}
-							final boolean ic = (c >= 'a' & c <= 'z');
-
-							//?: {is digit}
-							final boolean id = (c >= '0' & c <= '9');
+							for(int i = 0; (i < len); i++)
+							{
+								final char c = Character.toLowerCase(
+								  (char)(buf[off + i] & 0xFF));
 
-							//?: {is invalid character}
-							if(!ic && !id && !isHeaderCharacter(c))
-								throw EX.ass();
+								//?: {is character}
+								final boolean ic = (c >= 'a' & c <= 'z');
 
-							//~: accumulate
-							s.append(c);
-						}
+								//?: {is digit}
+								final boolean id = (c >= '0' & c <= '9');
 
-						return true;
-					}
-				});
+								//?: {is invalid character}
+								if(!ic && !id && !isHeaderCharacter(c))
+									throw EX.ass();
 
-				//~: header name
-				final String hn = s.toString();
-				s.delete(0, s.length());
+								//~: accumulate
+								s.append(c);
+							}
 
-				//~: concatenate the header value
-				InputStreamReader vr = new InputStreamReader(
-				  p.bytes.inputStream(vp.b, vp.e - vp.b), "UTF-8"
-				);
+							return true;
+						}
+					});
 
-				while(true)
-				{
-					int sz = vr.read(b);
-					if(sz <= 0) break;
-					s.append(b, 0, sz);
+					hn = s.toString();
 				}
 
+				//~: header value
+				final String v  = string(p, vp);
+				Object       hv = headers.get(hn);
+
 				//?: {header not exists}
-				if(!headers.containsKey(hn))
-					headers.put(hn, s.toString());
+				if(hv == null)
+					hv = v;
+				else if(hv instanceof String)
+					hv = new String[]{ (String)hv, v };
 				else
 				{
-					Object hv = headers.get(hn);
+					EX.assertx(hv instanceof String[]);
+					String[] xhv = new String[((String[])hv).length + 1];
+					System.arraycopy(hv, 0, xhv, 0, xhv.length - 1);
+					xhv[xhv.length - 1] = v;
+					hv = xhv;
+				}
 
-					if(hv instanceof String)
-						hv = new String[]{ (String)hv, s.toString() };
-					else
-					{
-						EX.assertx(hv instanceof String[]);
-						String[] xhv = new String[((String[])hv).length + 1];
-						System.arraycopy(hv, 0, xhv, 0, xhv.length - 1);
-						xhv[xhv.length - 1] = s.toString();
-						hv = xhv;
-					}
+				headers.put(hn, hv);
 
-					headers.put(hn, hv);
-				}
+				//?: {well-known header}
+				if(w)
+					known[k] = hv;
 			}
 		}
 
@@ -603,102 +995,378 @@ public class Requests
 		{
 			return (c == '-');
 		}
+	}
+
+
+	/* Scanning Request */
+
+	public static class Scanner extends Basic
+	{
+		public Scanner(Setup setup, InputStream socket)
+		  throws IOException
+		{
+			super(setup);
+
+			this.socket  = socket;
+			this.parser  = parse();
+		}
 
 		/**
-		 * Assigns the request path.
+		 * Takes the parser that had already scanned the
+		 * preamble, see {@link Parser#feed(byte[], int, int)}.
+		 * The socket stream follows the bytes fed.
 		 */
-		protected void    path(Parser p)
-		  throws Exception
+		public Scanner(Setup setup, Parser scanned, InputStream socket)
+		  throws IOException
 		{
-			EX.assertn(p.path);
+			super(setup);
 
-			//~: resulting string
-			final StringBuilder s = new StringBuilder(32);
-			final List<String>  a = new ArrayList<String>(8);
+			this.socket  = socket;
+			this.parser  = parse(scanned, (scanned.whole == null)?(1):(0));
+		}
 
-			//~: take procedure
-			final TakeBytes take = new TakeBytes()
+
+		/* Request Upgrade */
+
+		/**
+		 * Upgrades to the request class via the reflection.
+		 * The class must have the same constructor as
+		 * {@link Factory#create(Basic, InputStream)}.
+		 */
+		public Basic upgrade(final Class<? extends Basic> c)
+		{
+			return upgrade(new Factory()
 			{
-				public boolean take(byte[] buf, int off, int len)
+				public Basic create(Basic source, InputStream input)
 				{
-					for(int i = 0; (i < len); i++)
+					try
 					{
-						final int c = buf[off + i] & 0xFF;
+						return c.getConstructor(Basic.class, InputStream.class).
+						  newInstance(source, input);
+					}
+					catch(Throwable e)
+					{
+						throw EX.wrap(e);
+					}
+				}
+			});
+		}
 
-						if(c != '/')
-						{
-							s.appendCodePoint(buf[off + i] & 0xFF);
-							continue;
-						}
+		/**
+		 * Upgrades to the request created by the factory
+		 * closing the parser. Scanner instance may not
+		 * be used further!
+		 *
+		 * In the lazy decode mode the parser is taken by
+		 * the request created, and it's closed with it.
+		 *
+		 * The bytes read over the preamble are returned to
+		 * the head of the pushback stream (the socket one
+		 * when it is) without copying, and the body is
+		 * read from that stream: limited by the content
+		 * length, or decoded from the chunks. Gzip body
+		 * is inflated when the setup tells so.
+		 */
+		public Basic upgrade(Factory f)
+		{
+			Basic r = null;
 
-						//~: add separator
-						if(a.isEmpty() || !"/".equals(a.get(a.size() - 1)))
-							a.add("/");
+			try
+			{
+				InputStream   stream  = socket;
+				final boolean chunked = chunked(getHeader(Known.TRANSFER_ENCODING));
 
-						//~: add previous component
-						if(s.length() != 0) try
-						{
-							a.add(URLDecoder.decode(s.toString(), "UTF-8"));
-							s.delete(0, s.length());
-						}
-						catch(Throwable e)
-						{
-							throw EX.wrap(e);
-						}
-					}
+				//?: {scan got out of the header}
+				if(chunked || (parser.bytes.length() > parser.whole.e))
+				{
+					final Support.PushbackInput pi =
+					  (socket instanceof Support.PushbackInput)?
+					  ((Support.PushbackInput) socket):
+					  (new Support.PushbackInput(socket));
 
-					return true;
+					//~: return the buffers with the body bytes
+					if(parser.bytes.length() > parser.whole.e)
+						parser.bytes.move(parser.whole.e, pi, (preamble == parser));
+
+					stream = pi;
 				}
-			};
 
-			//c: append the bytes
-			p.bytes.each(p.path.b, p.path.e - p.path.b, take);
+				//?: {chunked} content length is ignored
+				String length = getHeader(Known.CONTENT_LENGTH);
+				if(chunked)
+					stream = new Support.ChunkedInput(
+					  (Support.PushbackInput) stream, setup.getBodyLimit());
+				else if(length != null) //<-- limited stream
+					stream = new Support.LimitedInput(
+					  stream, Long.parseLong(length));
 
-			//~: closing '/'
-			take.take(new byte[]{'/'}, 0, 1);
+				//?: {inflate gzip body}
+				if(setup.isInflate() && gzipped(getHeader(Known.CONTENT_ENCODING)))
+					stream = new Support.InflatingInput(stream, setup.getBodyLimit());
 
-			//?: {is empty path}
-			EX.asserte(a);
+				//~: create the new instance
+				return r = f.create(this, stream);
+			}
+			catch(Throwable e)
+			{
+				throw EX.wrap(e);
+			}
+			finally
+			{
+				//?: {not taken by the request} close the parser
+				if((r == null) || (r.preamble != parser))
+					parser.close();
+			}
+		}
 
-			//~: join the path
-			for(String x : a) s.append(x);
 
-			//=: assign it
-			path = s.toString();
-		}
-	}
+		/* protected: parse operations */
 
+		protected final InputStream socket;
+		protected final Parser parser;
 
-	/* Request Parser */
+		protected Parser  parse()
+		  throws IOException
+		{
+			//~: create the parser
+			Parser p = new Parser(socket, setup.getPreambleLimit());
 
-	/**
-	 * Begin-end (excluding) pair used by the parser.
-	 */
-	public static class Pair
-	{
-		/**
-		 * Begin including.
-		 */
-		public final int b;
+			//~: scan the preamble
+			int x; try
+			{
+				x = p.scan();
+			}
+			catch(IOException e)
+			{
+				p.close();
+				throw e;
+			}
+
+			return parse(p, x);
+		}
 
 		/**
-		 * End excluding.
+		 * Parses the preamble scanned with the result
+		 * code given. Closes the parser on errors.
 		 */
-		public final int e;
-
-		public Pair(int b, int e)
+		protected Parser  parse(Parser p, int x)
+		  throws IOException
 		{
-			this.b = b;
-			this.e = e;
-		}
-	}
+			try
+			{
+				if(x == 2) //?: {limit reached}
+					throw new ResponseWrapper(Responses.RequestTooLarge);
+				else if(x != 0) //?: {format error}
+					throw new ResponseWrapper(Responses.BadRequest);
 
-	public static interface TakeBytesResult extends TakeBytes
-	{
-		/* Processing Result */
+				//?: {first line & headers are not marked}
+				if((x = p.first()) != 0 || (x = p.headers()) != 0)
+					throw new ResponseWrapper(Responses.BadRequest);
 
-		Object result();
-	}
+				try
+				{
+					postScan(p);
+				}
+				catch(Throwable ignore)
+				{
+					p.close();
+					throw new ResponseWrapper(Responses.BadRequest);
+				}
+			}
+			finally
+			{
+				//?: {not fine} close the parser
+				if(x != 0)
+					p.close();
+			}
+
+			return p;
+		}
+
+		protected void    postScan(Parser p)
+		  throws Throwable
+		{
+			method(p);
+
+			//?: {lazy mode} decode on demand
+			if(setup.isLazyDecode())
+			{
+				preamble    = p;
+				lazyParams  = true;
+				lazyHeaders = true;
+			}
+			else
+			{
+				params(p);
+				headers(p);
+			}
+
+			path(p);
+			protocol(p);
+		}
+
+		/**
+		 * Assigns the request method.
+		 */
+		protected void    method(Parser p)
+		  throws Exception
+		{
+			EX.assertn(p.method);
+
+			//~: resulting string
+			final StringBuilder s = new StringBuilder(8);
+
+			//c: append the bytes
+			p.bytes.each(p.method.b, p.method.e - p.method.b, new TakeBytes()
+			{
+				public boolean take(byte[] buf, int off, int len)
+				{
+					for(int i = 0; (i < len); i++)
+					{
+						final char c = Character.toUpperCase(
+						  (char)(buf[off + i] & 0xFF));
+
+						//?: {not a letter}
+						EX.assertx(c >= 'A' & c <= 'Z');
+
+						//~: accumulate
+						s.append(c);
+					}
+
+					return true;
+				}
+			});
+
+			//=: assign the method
+			method = s.toString();
+			EX.asserts(method);
+		}
+
+		/**
+		 * Assigns the protocol of the request line.
+		 */
+		protected void    protocol(Parser p)
+		  throws Exception
+		{
+			EX.assertn(p.protocol);
+
+			//~: resulting string
+			final StringBuilder s = new StringBuilder(8);
+
+			//c: append the bytes
+			p.bytes.each(p.protocol.b, p.protocol.e - p.protocol.b, new TakeBytes()
+			{
+				public boolean take(byte[] buf, int off, int len)
+				{
+					for(int i = 0; (i < len); i++)
+						s.append(Character.toUpperCase((char)(buf[off + i] & 0xFF)));
+
+					return true;
+				}
+			});
+
+			//=: assign the protocol
+			protocol = s.toString().trim();
+
+			//?: {not a HTTP protocol}
+			EX.assertx(protocol.startsWith("HTTP/"));
+		}
+
+		/**
+		 * Assigns the request path.
+		 */
+		protected void    path(Parser p)
+		  throws Exception
+		{
+			EX.assertn(p.path);
+
+			//~: resulting string
+			final StringBuilder s = new StringBuilder(32);
+			final List<String>  a = new ArrayList<String>(8);
+
+			//~: take procedure
+			final TakeBytes take = new TakeBytes()
+			{
+				public boolean take(byte[] buf, int off, int len)
+				{
+					for(int i = 0; (i < len); i++)
+					{
+						final int c = buf[off + i] & 0xFF;
+
+						if(c != '/')
+						{
+							s.appendCodePoint(buf[off + i] & 0xFF);
+							continue;
+						}
+
+						//~: add separator
+						if(a.isEmpty() || !"/".equals(a.get(a.size() - 1)))
+							a.add("/");
+
+						//~: add previous component
+						if(s.length() != 0) try
+						{
+							a.add(URLDecoder.decode(s.toString(), "UTF-8"));
+							s.delete(0, s.length());
+						}
+						catch(Throwable e)
+						{
+							throw EX.wrap(e);
+						}
+					}
+
+					return true;
+				}
+			};
+
+			//c: append the bytes
+			p.bytes.each(p.path.b, p.path.e - p.path.b, take);
+
+			//~: closing '/'
+			take.take(new byte[]{'/'}, 0, 1);
+
+			//?: {is empty path}
+			EX.asserte(a);
+
+			//~: join the path
+			for(String x : a) s.append(x);
+
+			//=: assign it
+			path = s.toString();
+		}
+	}
+
+
+	/* Request Parser */
+
+	/**
+	 * Begin-end (excluding) pair used by the parser.
+	 */
+	public static class Pair
+	{
+		/**
+		 * Begin including.
+		 */
+		public final int b;
+
+		/**
+		 * End excluding.
+		 */
+		public final int e;
+
+		public Pair(int b, int e)
+		{
+			this.b = b;
+			this.e = e;
+		}
+	}
+
+	public static interface TakeBytesResult extends TakeBytes
+	{
+		/* Processing Result */
+
+		Object result();
+	}
 
 	/**
 	 * HTTP preamble parser with the exposed state.
@@ -744,7 +1412,7 @@ public class Requests
 		 * Note that if the bytes buffer has more bytes,
 		 * those bytes are of the body.
 		 *
-		 * Assigned in scan() if was fine.
+		 * Assigned in scan() or feed() if was fine.
 		 */
 		public Pair whole;
 
@@ -752,7 +1420,7 @@ public class Requests
 		 * The first line of the query excluding
 		 * the trailing '\n' or '\r\n'.
 		 *
-		 * Assigned in first() if was fine.
+		 * Assigned while scanning if was fine.
 		 */
 		public Pair first;
 
@@ -770,13 +1438,20 @@ public class Requests
 		public Pair protocol;
 
 		/**
-		 * The headers of the preamble. Assigned by headers(),
+		 * The headers of the preamble. Assigned by the scan,
 		 * if it was fine. Each event item is a header name
 		 * excluding ':'.  Odd items are the values,
 		 * line breaks excluded.
 		 */
 		public Pair[] headers;
 
+		/**
+		 * For each header (a pair of the headers) the
+		 * ordinal of {@link Known} header, else -1.
+		 * The name bytes are to be compared still.
+		 */
+		public int[]  known;
+
 
 		/* Parser */
 
@@ -791,7 +1466,8 @@ public class Requests
 		 * line that delimiters the preamble from the body.
 		 *
 		 * Returns 0 when everything was fine, 1 in the case
-		 * of illegal characters combination, 2 limit reached.
+		 * of illegal characters combination, or when the
+		 * input ends before the empty line, 2 limit reached.
 		 *
 		 * Feeds all the bytes to {@link #bytes} stream. All
 		 * following operations work on that buffer.
@@ -799,346 +1475,815 @@ public class Requests
 		public int  scan()
 		  throws IOException
 		{
-			//~: parse states
-			final int  OO = 0;
-			final int  OR = 1;
-			final int  ON = 2;
-			final int  RN = 3;
-			final int  NN = 4;
-			final int RNR = 5;
-
-			//~: parse variables
 			byte[] b = Support.BUFFERS.get();
-			int    l = this.limit;
-			int    o = 0; //<-- offset
-			int    x = 0; //<-- parse state
 
 			try
 			{
-				//c: fill whole preamble
-				while(l > 0)
+				while(true)
 				{
 					//~: socket input
 					int s = input.read(b);
 
-					if(s <= 0) //?: {got nothing}
-						break;
-
-					//~: tee to the bytes
-					bytes.write(b, 0, s);
-
-					//~: limit
-					l -= s;
-
-					//c: scan depending on the state
-					scan: for(int i = 0;(i < s);i++) switch(b[i] & 0xFF)
-					{
-						case '\r':
-						{
-							if(x == OO)
-								x = OR;
-							else if(x == RN)
-								x = RNR;
-							else
-								return 1;
-							break;
-						}
-
-						case '\n':
-						{
-							if(x == OO)
-								x = ON;
-							else if(x == OR)
-								x = RN;
-							else if(x == ON || x == RNR)
-							{
-								o += i + 1; //<-- offset after the new line
-								x  = NN;    //<-- final state
-								break scan;
-							}
-							else
-								return 1;
-							break;
-						}
-
-						default:
-						{
-							if(x == OR || x == RNR)
-								return 1;
-
-							x = OO; //<-- default state
-						}
-					}
-
-					//?: {reached the stream end}
-					if(x != NN && s < b.length)
+					if(s <= 0) //?: {reached the stream end}
 						return 1;
 
-					if(x == NN)
-						break; //<-- offset is given
-
-					o += s; //~: advance the offset
+					//?: {scan is done}
+					int x = feed(b, 0, s);
+					if(x != -1)
+						return x;
 				}
 			}
 			finally
 			{
 				Support.BUFFERS.free(b);
 			}
-
-			//?: {reached the limit}
-			if(x != NN)
-				return 2;
-
-			//=: whole to the offset
-			this.whole = new Pair(0, o);
-
-			return 0;
 		}
 
 		/**
-		 * Parses the first line of the query that contains
-		 * the method, query path, query parameters, protocol.
+		 * Resumable variant of {@link #scan()} that takes
+		 * the bytes of the preamble as they arrive, thus
+		 * allowing non-blocking input. Returns -1 when
+		 * the following bytes are required, else the
+		 * same codes as scan() does.
 		 *
-		 * Returns 0 when everything was fine, 1, 2, 3, 4 if
-		 * method, path, parameters, or protocol were wrong.
+		 * Single pass both finds the empty line and marks
+		 * the sections of the first line and the headers,
+		 * see {@link #first} and {@link #headers}.
+		 *
+		 * All the bytes are fed to {@link #bytes} stream,
+		 * including the ones after the empty line.
 		 */
-		public int  first()
+		public int  feed(byte[] b, int off, int len)
 		  throws IOException
 		{
-			EX.assertn(whole);
+			EX.assertx(whole == null);
 
-			//~: parse the first line
-			TakeFirst take = new TakeFirst();
-			bytes.each(0, whole.e, take);
+			//~: parse states
+			final int  OO = 0;
+			final int  OR = 1;
+			final int  ON = 2;
+			final int  RN = 3;
+			final int  NN = 4;
+			final int RNR = 5;
 
-			return (Integer) take.result();
-		}
+			//~: tee to the bytes
+			bytes.write(b, off, len);
 
-		protected class TakeFirst implements TakeBytesResult
-		{
-			public int      o = 0;     //<-- global offset
-			public int      b = 0;     //<-- begin of section
-			public int      x = 1;     //<-- parse section
-			public boolean in = false; //<-- in section?
+			//~: parse state
+			int x = this.state;
+			int t = this.token;
+			int o = this.begin;
+			int h = this.hash;
 
-			public boolean take(byte[] buf, int off, int s)
+			//c: scan depending on the state
+			for(int i = 0;(i < len);i++)
 			{
-				//c: scan depending on the state
-				for(int i = 0;(i < s);i++) switch(buf[off + i] & 0xFF)
+				final int c = b[off + i] & 0xFF;
+				final int p = scanned + i;
+
+				//~: line breaks
+				switch(c)
 				{
-					case ' ':
+					case '\r':
 					{
-						//~: skip spaces
-						if(!in) break;
-
-						if(x != 4)
-							in = false;
-
-						if(x == 1) //?: {method ends}
-						{
-							x = 2; //<-- path section
-							method = new Pair(b, o + i);
-						}
-						else if(x == 2) //?: {path}
-						{
-							x = 4; //<-- no params
-							path = new Pair(b, o + i);
-						}
-						else if(x == 3) //?: {parameters}
-						{
-							x = 4; //<-- protocol section
-							params = new Pair(b, o + i);
-						}
-
+						if(x == OO)
+							x = OR;
+						else if(x == RN)
+							x = RNR;
+						else
+							return 1;
 						break;
 					}
 
-					case '?':
+					case '\n':
 					{
-						if(x != 2) //?: {not in path}
-							return false;
-
-						path = new Pair(b, o + i);
-
-						x = 3; //<-- set to params
-						b = o + i + 1; //<-- after '?'
+						if(x == OO)
+							x = ON;
+						else if(x == OR)
+							x = RN;
+						else if(x == ON || x == RNR)
+						{
+							//?: {headers are not closed}
+							if(t != HO && t != HR)
+								return 1;
+
+							//=: whole to the offset after the new line
+							this.state   = NN;
+							this.token   = FS;
+							this.whole   = new Pair(0, p + 1);
+							this.headers = pairs.toArray(new Pair[pairs.size()]);
+							this.known   = new int[nknown];
+							System.arraycopy(ordinals, 0, known, 0, nknown);
+							return 0;
+						}
+						else
+							return 1;
 						break;
 					}
 
-					case '\r': case '\n':
+					default:
+					{
+						if(x == OR || x == RNR)
+							return 1;
+
+						x = OO; //<-- default state
+					}
+				}
+
+				//~: sections
+				switch(t)
 				{
-					if(x == 4) //?: {in protocol}
+					case MO: //<-- before the method
+					case PO: //<-- before the path
+					case VO: //<-- before the protocol
 					{
-						protocol = new Pair(b, o + i);
-						first = new Pair(0, o + i);
-						x = 5; //<-- final state
-						return false;
+						if(c == ' ')
+							break;
+
+						if(c == '\r' || c == '\n' || c == '?')
+							return 1;
+
+						o = p;
+						t = (t == MO)?(MT):(t == PO)?(PT):(VT);
+						break;
 					}
 
-					return false;
-				}
+					case MT: //<-- method
+					{
+						if(c == ' ')
+						{
+							method = new Pair(o, p);
+							t = PO;
+						}
+						else if(c == '\r' || c == '\n' || c == '?')
+							return 1;
+						break;
+					}
 
-					default:
+					case PT: //<-- path
 					{
-						if(!in) //?: {start section}
+						if(c == ' ')
+						{
+							path = new Pair(o, p);
+							t = VO;
+						}
+						else if(c == '?')
 						{
-							b = o + i;
-							in = true;
+							path = new Pair(o, p);
+							o = p + 1; //<-- after '?'
+							t = QT;
 						}
+						else if(c == '\r' || c == '\n')
+							return 1;
+						break;
 					}
-				}
 
-				o += s; //~: advance the offset
-				return true;
+					case QT: //<-- query parameters
+					{
+						if(c == ' ')
+						{
+							params = new Pair(o, p);
+							t = VO;
+						}
+						else if(c == '\r' || c == '\n')
+							return 1;
+						break;
+					}
+
+					case VT: //<-- protocol
+					{
+						if(c == '\r' || c == '\n')
+						{
+							protocol = new Pair(o, p);
+							first = new Pair(0, p);
+							t = (c == '\r')?(HR):(HO);
+						}
+						else if(c == '?')
+							return 1;
+						break;
+					}
+
+					case HR: //<-- line break
+					{
+						t = HO; //<-- the line machine checks '\n'
+						break;
+					}
+
+					case HO: //<-- header line open
+					{
+						if(c == '\r')
+							break; //<-- the empty line
+
+						if(c == ':')
+							return 1;
+
+						o = p;
+						t = HN;
+						h = (c >= 'A' && c <= 'Z')?(c + 32):(c);
+						break;
+					}
+
+					case HN: //<-- header name
+					{
+						if(c == ':')
+						{
+							pairs.add(new Pair(o, p));
+							known(Known.ordinal(h));
+							t = HS;
+						}
+						else if(c == '\r' || c == '\n')
+							return 1;
+						else //~: hash of the lower case name
+							h = 31 * h + ((c >= 'A' && c <= 'Z')?(c + 32):(c));
+						break;
+					}
+
+					case HS: //<-- before header value
+					{
+						if(c == ' ')
+							break;
+
+						//?: {value is empty}
+						if(c == '\r' || c == '\n')
+							return 1;
+
+						o = p;
+						t = HV;
+						break;
+					}
+
+					case HV: //<-- header value
+					{
+						if(c == '\r' || c == '\n')
+						{
+							pairs.add(new Pair(o, p));
+							t = (c == '\r')?(HR):(HO);
+						}
+						break;
+					}
+				}
 			}
 
-			public Object  result()
+			this.state    = x;
+			this.token    = t;
+			this.begin    = o;
+			this.hash     = h;
+			this.scanned += len;
+
+			//?: {reached the limit}
+			return (scanned >= limit)?(2):(-1);
+		}
+
+		/**
+		 * State of the resumable scan.
+		 */
+		protected int state;
+
+		/**
+		 * Number of the bytes scanned so far.
+		 */
+		protected int scanned;
+
+		/**
+		 * Section of the preamble being scanned,
+		 * and the offset where it begins.
+		 */
+		protected int token;
+		protected int begin;
+
+		/**
+		 * Header name-value pairs found so far.
+		 */
+		protected final ArrayList<Pair> pairs =
+		  new ArrayList<Pair>(16);
+
+		/**
+		 * Hash of the header name being scanned.
+		 */
+		protected int   hash;
+
+		/**
+		 * Ordinals of the headers found so far.
+		 */
+		protected int[] ordinals = new int[16];
+		protected int   nknown;
+
+		protected void  known(int ordinal)
+		{
+			if(nknown == ordinals.length)
 			{
-				//?: {reached final state}
-				return (x == 5)?(0):(x);
+				final int[] x = new int[nknown * 2];
+				System.arraycopy(ordinals, 0, x, 0, nknown);
+				ordinals = x;
 			}
+
+			ordinals[nknown++] = ordinal;
+		}
+
+		//~: sections of the first line
+		protected static final int MO =  0;
+		protected static final int MT =  1;
+		protected static final int PO =  2;
+		protected static final int PT =  3;
+		protected static final int QT =  4;
+		protected static final int VO =  5;
+		protected static final int VT =  6;
+
+		//~: sections of the headers
+		protected static final int HR =  7; //<-- line '\r'
+		protected static final int HO =  8; //<-- line open
+		protected static final int HN =  9; //<-- header name
+		protected static final int HS = 10; //<-- value spaces
+		protected static final int HV = 11; //<-- header value
+		protected static final int FS = 12; //<-- final state
+
+		/**
+		 * Tells the first line of the query that contains
+		 * the method, query path, query parameters, protocol
+		 * was fully scanned. Returns 0 when it's fine.
+		 *
+		 * The sections are marked by {@link #feed(byte[], int, int)},
+		 * thus there is no need to call this method.
+		 */
+		public int  first()
+		{
+			EX.assertn(whole);
+
+			return (first == null)?(1):(0);
 		}
 
 		/**
-		 * Parses the headers following the first line.
-		 * Returns 0 when everything was fine, or (i + 1)
-		 * for wrong header number i.
+		 * Tells the headers following the first line
+		 * were scanned. Returns 0 when it's fine.
 		 */
 		public int  headers()
-		  throws IOException
 		{
 			EX.assertn(whole);
 			EX.assertn(first);
 
-			//~: parse after the first line
-			TakeHeaders take = new TakeHeaders();
-			bytes.each(first.e, whole.e - first.e, take);
+			return (headers == null)?(1):(0);
+		}
+	}
+
+
+	/* Well-Known Headers */
+
+	/**
+	 * Table of the standard request headers. The names
+	 * are interned constants in the lower case. The
+	 * parser matches them directly from the bytes by
+	 * the hash of the lower case name that is the same
+	 * as {@link String#hashCode()} of the constant.
+	 *
+	 * The table is a perfect hash: each name takes own
+	 * slot, thus single compare tells the match.
+	 */
+	public static final class Known
+	{
+		public static final String HOST              = "host";
+		public static final String CONNECTION        = "connection";
+		public static final String KEEP_ALIVE        = "keep-alive";
+		public static final String CONTENT_LENGTH    = "content-length";
+		public static final String CONTENT_TYPE      = "content-type";
+		public static final String CONTENT_ENCODING  = "content-encoding";
+		public static final String TRANSFER_ENCODING = "transfer-encoding";
+		public static final String TE                = "te";
+		public static final String EXPECT            = "expect";
+		public static final String UPGRADE           = "upgrade";
+		public static final String ACCEPT            = "accept";
+		public static final String ACCEPT_ENCODING   = "accept-encoding";
+		public static final String ACCEPT_LANGUAGE   = "accept-language";
+		public static final String ACCEPT_CHARSET    = "accept-charset";
+		public static final String COOKIE            = "cookie";
+		public static final String USER_AGENT        = "user-agent";
+		public static final String REFERER           = "referer";
+		public static final String ORIGIN            = "origin";
+		public static final String AUTHORIZATION     = "authorization";
+		public static final String CACHE_CONTROL     = "cache-control";
+		public static final String PRAGMA            = "pragma";
+		public static final String DATE              = "date";
+		public static final String VIA               = "via";
+		public static final String FORWARDED         = "forwarded";
+		public static final String IF_MATCH          = "if-match";
+		public static final String IF_NONE_MATCH     = "if-none-match";
+		public static final String IF_MODIFIED       = "if-modified-since";
+		public static final String IF_UNMODIFIED     = "if-unmodified-since";
+		public static final String IF_RANGE          = "if-range";
+		public static final String RANGE             = "range";
+		public static final String DNT               = "dnt";
+		public static final String X_FORWARDED_FOR   = "x-forwarded-for";
+		public static final String X_FORWARDED_PROTO = "x-forwarded-proto";
+		public static final String X_REQUESTED_WITH  = "x-requested-with";
+		public static final String UPGRADE_INSECURE  = "upgrade-insecure-requests";
+		public static final String SEC_FETCH_DEST    = "sec-fetch-dest";
+		public static final String SEC_FETCH_MODE    = "sec-fetch-mode";
+		public static final String SEC_FETCH_SITE    = "sec-fetch-site";
+		public static final String SEC_FETCH_USER    = "sec-fetch-user";
 
-			//?: {positive} set the pairs
-			if((Integer) take.result() == 0)
-				headers = take.pairs.toArray(new Pair[take.pairs.size()]);
+		/**
+		 * The names by the ordinal.
+		 */
+		public static final String[] NAMES = {
+		  HOST, CONNECTION, KEEP_ALIVE, CONTENT_LENGTH, CONTENT_TYPE,
+		  CONTENT_ENCODING, TRANSFER_ENCODING, TE, EXPECT, UPGRADE,
+		  ACCEPT, ACCEPT_ENCODING, ACCEPT_LANGUAGE, ACCEPT_CHARSET,
+		  COOKIE, USER_AGENT, REFERER, ORIGIN, AUTHORIZATION,
+		  CACHE_CONTROL, PRAGMA, DATE, VIA, FORWARDED, IF_MATCH,
+		  IF_NONE_MATCH, IF_MODIFIED, IF_UNMODIFIED, IF_RANGE, RANGE,
+		  DNT, X_FORWARDED_FOR, X_FORWARDED_PROTO, X_REQUESTED_WITH,
+		  UPGRADE_INSECURE, SEC_FETCH_DEST, SEC_FETCH_MODE,
+		  SEC_FETCH_SITE, SEC_FETCH_USER
+		};
 
-			return (Integer) take.result();
+		/**
+		 * Returns the ordinal of the known name in
+		 * the lower case, else -1. For the constants
+		 * of this class the hash is cached, and
+		 * the compare is by the identity.
+		 */
+		public static int ordinal(String name)
+		{
+			final int o = ordinal(name.hashCode());
+			return (o >= 0) && NAMES[o].equals(name)?(o):(-1);
 		}
 
-		protected class TakeHeaders implements TakeBytesResult
+		/**
+		 * Returns the ordinal of the name having
+		 * the hash of the lower case string, or -1.
+		 * The name must be compared, as unknown
+		 * one may have the same hash.
+		 */
+		public static int ordinal(int hash)
 		{
-			//~: parse states
-			public final int OO = 0;
-			public final int OR = 1;
-			public final int HN = 2; //<-- header name
-			public final int HV = 3; //<-- header value
-			public final int HR = 4; //<-- header value + CR
-			public final int HO = 5; //<-- header open
-			public final int VO = 6; //<-- value open
-			public final int ER = 7; //<-- ending CR
-			public final int FS = 8; //<-- final state
-
-			public int o = first.e; //<-- global offset
-			public int b = first.e; //<-- begin of the line section
-			public int x = 0;       //<-- parse state
-			public int n = 0;       //<-- header line index
-
-			public final ArrayList<Pair> pairs =
-			  new ArrayList<Pair>(16);
-
-			public boolean take(byte[] buf, int off, int s)
+			final int o = SLOTS[(hash * M) >>> SHIFT];
+			return (o >= 0) && (HASHES[o] == hash)?(o):(-1);
+		}
+
+		/**
+		 * Hashes of the names by the ordinals.
+		 */
+		private static final int[] HASHES;
+
+		/**
+		 * Slots of the table with the ordinals.
+		 */
+		private static final byte[] SLOTS;
+
+		private static final int SHIFT = 24;
+
+		/**
+		 * Multiplier of the perfect hash.
+		 */
+		private static final int M;
+
+		static
+		{
+			HASHES = new int[NAMES.length];
+			for(int i = 0;(i < NAMES.length);i++)
+				HASHES[i] = NAMES[i].hashCode();
+
+			SLOTS = new byte[1 << (32 - SHIFT)];
+
+			//c: search the multiplier having no collisions
+			int m = 0x9E3779B1;
+			while(!place(m, SLOTS))
+				m += 2;
+
+			M = m;
+		}
+
+		private static boolean place(int m, byte[] slots)
+		{
+			Arrays.fill(slots, (byte) -1);
+
+			for(int i = 0;(i < HASHES.length);i++)
 			{
-				//c: scan depending on the state
-				for(int i = 0;(i < s);i++) switch(buf[off + i] & 0xFF)
-				{
-					case '\r':
-					{
-						if(x == OO)
-							x = OR;
-						else if(x == HV)
-							x = HR;
-						else if(x == HO)
-							x = ER;
-						else
-							return false;
+				final int s = (HASHES[i] * m) >>> SHIFT;
 
-						break;
-					}
+				if(slots[s] != -1)
+					return false;
 
-					case '\n':
+				slots[s] = (byte) i;
+			}
+
+			return true;
+		}
+	}
+
+
+	/* URL Parameters Parser */
+
+	/**
+	 * Takes decoded name-value pair of a parameter.
+	 * The value is null when the name has no '='.
+	 */
+	public static interface TakeParam
+	{
+		/* Take Parameter */
+
+		void take(String name, String value);
+	}
+
+	/**
+	 * Decodes URL encoded parameters directly from the
+	 * bytes as they are fed, percent escapes including
+	 * the UTF-8 sequences. Malformed escapes are taken
+	 * literally. Call {@link #finish()} after the last
+	 * bytes to take the last pair.
+	 */
+	public static final class UrlDecoder implements TakeBytes
+	{
+		public UrlDecoder(TakeParam take)
+		{
+			this.take = EX.assertn(take);
+		}
+
+
+		/* Take Bytes */
+
+		public boolean take(byte[] b, int off, int len)
+		{
+			for(int i = off;(i < off + len);i++)
+			{
+				final int c = b[i] & 0xFF;
+
+				if(hex != 0) //?: {in the escape}
+				{
+					final int d = digit(c);
+
+					if(d >= 0)
 					{
-						if(x == OR || x == OO)
-						{
-							if(n != 0)
-								return false;
-							x = HO;
-						}
-						else if(x == HV || x == HR)
+						if(hex == 1)
 						{
-							pairs.add(new Pair(b, o + i - (x == HR?1:0)));
-							x = HO;
+							hv  = d;
+							hc  = c;
+							hex = 2;
 						}
-						else if(x == HO || x == ER)
+						else
 						{
-							x = FS;
-							return false;
+							append(hv * 16 + d);
+							hex = 0;
 						}
-						else
-							return false;
 
-						break;
+						continue;
 					}
 
-					case ':':
-					{
-						if(x == HN)
+					//~: take malformed literally
+					literal();
+				}
+
+				switch(c)
+				{
+					case '%':
+						hex = 1;
+						break;
+
+					case '+':
+						append(' ');
+						break;
+
+					case '=':
+						if((name == null) && !component)
 						{
-							pairs.add(new Pair(b, o + i));
-							x = VO;
-							b = o + i + 1;
-							break;
+							name = string();
+							size = 0;
 						}
+						else
+							append(c);
+						break;
 
-						if(x != HV)
-							return false;
+					case '&':
+						if(component)
+							append(c);
+						else
+							pair();
+						break;
 
-						//--> no break
-					}
+					default:
+						append(c);
+				}
+			}
 
-					case ' ':
-					{
-						if(x == VO)
-							break;
+			return true;
+		}
 
-						//--> no break
-					}
+		/**
+		 * Takes the last pair of the bytes fed.
+		 */
+		public void    finish()
+		{
+			if(hex != 0)
+				literal();
 
-					default:
-					{
-						if(x == HO)
-						{
-							b = o + i;
-							x = HN;
-						}
+			pair();
+		}
 
-						else if(x == VO)
-						{
-							b = o + i;
-							x = HV;
-						}
-					}
+		/**
+		 * Decodes single URL encoded component.
+		 */
+		public static String decode(byte[] b, int off, int len)
+		{
+			final String[] r = new String[1];
+			final UrlDecoder d = new UrlDecoder(new TakeParam()
+			{
+				public void take(String name, String value)
+				{
+					r[0] = name;
 				}
+			});
 
-				o += s; //~: advance the offset
-				return true;
-			}
+			d.component = true;
+			d.take(b, off, len);
+			d.finish();
+
+			return (r[0] == null)?(""):(r[0]);
+		}
+
+
+		/* private: decoder state */
+
+		private final TakeParam take;
+
+		/**
+		 * Decoded bytes of the name or the value.
+		 */
+		private byte[]  buf = new byte[64];
+		private int     size;
+
+		/**
+		 * Chars buffer of UTF-8 decoding.
+		 */
+		private char[]  chars;
+
+		/**
+		 * Name decoded when '=' is met.
+		 */
+		private String  name;
+
+		/**
+		 * Escape state: 1 after '%', 2 after
+		 * the first digit kept in hv, and
+		 * the original character in hc.
+		 */
+		private int     hex;
+		private int     hv;
+		private int     hc;
+
+		/**
+		 * Single component has no separators.
+		 */
+		private boolean component;
 
-			public Object  result()
+		private void    append(int c)
+		{
+			if(size == buf.length)
 			{
-				//?: {reached final state}
-				return (x == FS)?(0):(n);
+				final byte[] x = new byte[size * 2];
+				System.arraycopy(buf, 0, x, 0, size);
+				buf = x;
 			}
+
+			buf[size++] = (byte) c;
+		}
+
+		private void    literal()
+		{
+			append('%');
+
+			if(hex == 2)
+				append(hc);
+
+			hex = 0;
+		}
+
+		private void    pair()
+		{
+			if(name != null)
+				take.take(name, string());
+			else if(size != 0)
+				take.take(string(), null);
+
+			name = null;
+			size = 0;
+		}
+
+		private String  string()
+		{
+			if(chars == null)
+				chars = new char[64];
+
+			final String s = Support.utf8(buf, 0, size, chars);
+
+			//~: keep the larger buffer
+			if(chars.length < size)
+				chars = new char[size];
+
+			return s;
+		}
+
+		private static int digit(int c)
+		{
+			if(c >= '0' && c <= '9')
+				return c - '0';
+
+			if(c >= 'a' && c <= 'f')
+				return c - 'a' + 10;
+
+			if(c >= 'A' && c <= 'F')
+				return c - 'A' + 10;
+
+			return -1;
 		}
 	}
 
+	/**
+	 * Decodes the parameters of the stream till
+	 * it's end. The stream is not closed.
+	 */
+	public static void params(InputStream i, TakeParam take)
+	  throws IOException
+	{
+		final UrlDecoder d = new UrlDecoder(take);
+		final byte[]     b = Support.BUFFERS.get();
+
+		try
+		{
+			for(int s;((s = i.read(b)) > 0);)
+				d.take(b, 0, s);
+
+			d.finish();
+		}
+		finally
+		{
+			Support.BUFFERS.free(b);
+		}
+	}
+
+	/**
+	 * Tells the transfer encoding header value
+	 * has chunked as the final coding.
+	 */
+	public static boolean chunked(String te)
+	{
+		if(te == null)
+			return false;
+
+		te = te.trim().toLowerCase(Locale.ROOT);
+
+		if(!te.endsWith("chunked"))
+			return false;
+
+		final int i = te.length() - 7;
+		return (i == 0) || (te.charAt(i - 1) == ',') || (te.charAt(i - 1) == ' ');
+	}
+
+	/**
+	 * Tells the content encoding header
+	 * value is gzip (or x-gzip).
+	 */
+	public static boolean gzipped(String ce)
+	{
+		if(ce == null)
+			return false;
+
+		ce = ce.trim().toLowerCase(Locale.ROOT);
+		return "gzip".equals(ce) || "x-gzip".equals(ce);
+	}
+
+	/**
+	 * Collects the parameters taken into the map.
+	 * Multiple values of a name are in a list.
+	 */
+	public static TakeParam params(final Map<String, Object> ps)
+	{
+		return new TakeParam()
+		{
+			@SuppressWarnings("unchecked")
+			public void take(String n, String v)
+			{
+				if(v == null)
+					v = "";
+
+				Object x = ps.get(n);
+
+				if(x == null)
+					ps.put(n, v);
+				else if(x instanceof String)
+				{
+					List<String> l = new ArrayList<String>(2);
+
+					l.add((String) x);
+					l.add(v);
+
+					ps.put(n, l);
+				}
+				else
+					((List<String>) x).add(v);
+			}
+		};
+	}
+
 
-	/* URL Parameters Parser */
 
 	/**
 	 * Parses the URL encoded string invoking the
@@ -1208,6 +2353,8 @@ public class Requests
 		//?: {finish the last}
 		if(x == 1)
 			take.act(n, URLDecoder.decode(s.toString(), "UTF-8"));
+		else if(s.length() != 0)
+			take.act(URLDecoder.decode(s.toString(), "UTF-8"));
 	}
 
 	@SuppressWarnings("unchecked")
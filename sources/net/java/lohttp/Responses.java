@@ -2,10 +2,23 @@ package net.java.lohttp;
 
 /* Java */
 
+import java.io.EOFException;
+import java.io.IOException;
 import java.io.OutputStream;
+import java.lang.reflect.Method;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TimeZone;
 
 
 /**
@@ -79,6 +92,8 @@ public class Responses
 					write(((Socket)socket).getOutputStream());
 				else if(socket instanceof OutputStream)
 					write((OutputStream) socket);
+				else if(socket instanceof WritableByteChannel)
+					((WritableByteChannel)socket).write(ByteBuffer.wrap(output));
 			}
 			catch(Throwable ignore)
 			{}
@@ -165,27 +180,808 @@ public class Responses
 	}
 
 
+	/* Complete Response */
+
+	/**
+	 * Completes the framing of the response body
+	 * after the request handler. Answers true when
+	 * the connection may serve the next request.
+	 */
+	public static interface Complete
+	{
+		boolean complete();
+	}
+
+
+	/* File Transfer Response */
+
+	/**
+	 * Writes the file region to the body directly
+	 * from the file system cache to the socket
+	 * when it's possible (sendfile). This applies
+	 * to the NIO sockets of SelectHat only: LowHat
+	 * reads the file in a pooled buffer.
+	 */
+	public static interface Transfer
+	{
+		void transfer(FileChannel file, long offset, long length);
+	}
+
+
+	/* Streamed Response */
+
+	/**
+	 * Gives the body as an output stream to write the
+	 * content as it's generated. The first call is
+	 * the same as the first write: the status and
+	 * the headers must be set before.
+	 */
+	public static interface Streamed
+	{
+		OutputStream body();
+	}
+
+	/**
+	 * Returns the body stream of the response. Streamed
+	 * responses give it directly, else each write of
+	 * the stream is a write of the response.
+	 */
+	public static OutputStream body(final Response res)
+	{
+		EX.assertn(res);
+
+		if(res instanceof Streamed)
+			return ((Streamed) res).body();
+
+		return new OutputStream()
+		{
+			public void write(int b)
+			{
+				this.write(new byte[] { (byte) b }, 0, 1);
+			}
+
+			public void write(final byte[] b, final int off, final int len)
+			{
+				final int[] o = { off, off + len };
+
+				res.write(new Input()
+				{
+					public int read(byte[] buf, int xoff, int xlen)
+					{
+						final int x = Math.min(xlen, o[1] - o[0]);
+						if(x <= 0)
+							return -1;
+
+						System.arraycopy(b, o[0], buf, xoff, x);
+						o[0] += x;
+
+						return x;
+					}
+				});
+			}
+		};
+	}
+
+
+	/* Preamble Encoder */
+
+	/**
+	 * Encodes the response preamble directly into a pooled
+	 * buffer that is written out with single call. The
+	 * characters of ISO-8859-1 are written as the bytes,
+	 * the others are encoded in UTF-8.
+	 */
+	public static final class Preamble
+	{
+		public Preamble()
+		{
+			this.buf = Support.BUFFERS.get();
+		}
+
+
+		/* Preamble */
+
+		/**
+		 * Appends the status line of the code.
+		 */
+		public Preamble status(int code)
+		{
+			return bytes(statusLine(code));
+		}
+
+		public Preamble header(String name, String value)
+		{
+			text(name);
+			bytes(COLON);
+			text(value);
+			return bytes(CRLF);
+		}
+
+		/**
+		 * Appends the line of Date header.
+		 */
+		public Preamble date()
+		{
+			return bytes(dateLine());
+		}
+
+		/**
+		 * Appends the empty line ending the preamble.
+		 */
+		public Preamble end()
+		{
+			return bytes(CRLF);
+		}
+
+		public Preamble bytes(byte[] b)
+		{
+			ensure(b.length);
+			System.arraycopy(b, 0, buf, size, b.length);
+			size += b.length;
+			return this;
+		}
+
+		public void     write(OutputStream socket)
+		  throws IOException
+		{
+			socket.write(buf, 0, size);
+		}
+
+		/**
+		 * Returns the pooled buffer.
+		 */
+		public void     close()
+		{
+			if(pooled)
+				Support.BUFFERS.free(buf);
+
+			buf    = null;
+			pooled = false;
+		}
+
+
+		/* private: encoding */
+
+		private byte[]  buf;
+
+		private int     size;
+
+		private boolean pooled = true;
+
+		private void    text(String s)
+		{
+			final int l = s.length();
+			ensure(l);
+
+			for(int i = 0;(i < l);i++)
+			{
+				final char c = s.charAt(i);
+
+				//?: {ISO-8859-1}
+				if(c < 256)
+				{
+					buf[size++] = (byte) c;
+					continue;
+				}
+
+				//~: UTF-8 sequence, and the rest
+				ensure(4 + l - i);
+				int x = c;
+
+				//?: {surrogate pair}
+				if(Character.isHighSurrogate(c) && (i + 1 < l) &&
+				   Character.isLowSurrogate(s.charAt(i + 1)))
+					x = Character.toCodePoint(c, s.charAt(++i));
+				else if(Character.isSurrogate(c))
+				{
+					buf[size++] = '?';
+					continue;
+				}
+
+				if(x < 0x800)
+					buf[size++] = (byte)(0xC0 | (x >> 6));
+				else
+				{
+					if(x < 0x10000)
+						buf[size++] = (byte)(0xE0 | (x >> 12));
+					else
+					{
+						buf[size++] = (byte)(0xF0 | (x >> 18));
+						buf[size++] = (byte)(0x80 | ((x >> 12) & 0x3F));
+					}
+
+					buf[size++] = (byte)(0x80 | ((x >> 6) & 0x3F));
+				}
+
+				buf[size++] = (byte)(0x80 | (x & 0x3F));
+			}
+		}
+
+		/**
+		 * Grows the buffer in the rare case of
+		 * a preamble larger the pooled one.
+		 */
+		private void    ensure(int l)
+		{
+			if(size + l <= buf.length)
+				return;
+
+			final byte[] x = new byte[Math.max(buf.length * 2, size + l)];
+			System.arraycopy(buf, 0, x, 0, size);
+
+			if(pooled)
+				Support.BUFFERS.free(buf);
+
+			buf    = x;
+			pooled = false;
+		}
+
+		private static final byte[] COLON = { ':', ' ' };
+
+		private static final byte[] CRLF  = { '\r', '\n' };
+	}
+
+	/**
+	 * Returns the status line bytes of the code,
+	 * such as "HTTP/1.1 200 OK\r\n".
+	 */
+	public static byte[] statusLine(int code)
+	{
+		EX.assertx(code >= 100 && code < 600);
+		return STATUS_LINES[code - 100];
+	}
+
+	private static final byte[][] STATUS_LINES = new byte[500][];
+
+	static
+	{
+		for(int c = 100;(c < 600);c++) try
+		{
+			final String r = reason(c);
+
+			STATUS_LINES[c - 100] = ("HTTP/1.1 " + c + " " +
+			  ((r == null)?(""):(r)) + "\r\n").getBytes("ASCII");
+		}
+		catch(Throwable e)
+		{
+			throw EX.wrap(e);
+		}
+	}
+
+	/**
+	 * Returns the reason phrase of the status
+	 * code registered in IANA, or null.
+	 */
+	public static String reason(int code)
+	{
+		switch(code)
+		{
+			case 100: return "Continue";
+			case 101: return "Switching Protocols";
+			case 102: return "Processing";
+			case 103: return "Early Hints";
+
+			case 200: return "OK";
+			case 201: return "Created";
+			case 202: return "Accepted";
+			case 203: return "Non-Authoritative Information";
+			case 204: return "No Content";
+			case 205: return "Reset Content";
+			case 206: return "Partial Content";
+			case 207: return "Multi-Status";
+			case 208: return "Already Reported";
+			case 226: return "IM Used";
+
+			case 300: return "Multiple Choices";
+			case 301: return "Moved Permanently";
+			case 302: return "Found";
+			case 303: return "See Other";
+			case 304: return "Not Modified";
+			case 305: return "Use Proxy";
+			case 307: return "Temporary Redirect";
+			case 308: return "Permanent Redirect";
+
+			case 400: return "Bad Request";
+			case 401: return "Unauthorized";
+			case 402: return "Payment Required";
+			case 403: return "Forbidden";
+			case 404: return "Not Found";
+			case 405: return "Method Not Allowed";
+			case 406: return "Not Acceptable";
+			case 407: return "Proxy Authentication Required";
+			case 408: return "Request Timeout";
+			case 409: return "Conflict";
+			case 410: return "Gone";
+			case 411: return "Length Required";
+			case 412: return "Precondition Failed";
+			case 413: return "Content Too Large";
+			case 414: return "URI Too Long";
+			case 415: return "Unsupported Media Type";
+			case 416: return "Range Not Satisfiable";
+			case 417: return "Expectation Failed";
+			case 421: return "Misdirected Request";
+			case 422: return "Unprocessable Content";
+			case 423: return "Locked";
+			case 424: return "Failed Dependency";
+			case 425: return "Too Early";
+			case 426: return "Upgrade Required";
+			case 428: return "Precondition Required";
+			case 429: return "Too Many Requests";
+			case 431: return "Request Header Fields Too Large";
+			case 451: return "Unavailable For Legal Reasons";
+
+			case 500: return "Internal Server Error";
+			case 501: return "Not Implemented";
+			case 502: return "Bad Gateway";
+			case 503: return "Service Unavailable";
+			case 504: return "Gateway Timeout";
+			case 505: return "HTTP Version Not Supported";
+			case 506: return "Variant Also Negotiates";
+			case 507: return "Insufficient Storage";
+			case 508: return "Loop Detected";
+			case 511: return "Network Authentication Required";
+		}
+
+		return null;
+	}
+
+	/**
+	 * Returns the line of Date header with the
+	 * current time. The line is cached and is
+	 * regenerated at most once per second.
+	 */
+	public static byte[] dateLine()
+	{
+		final long s = System.currentTimeMillis() / 1000L;
+		DateLine   d = date;
+
+		//?: {the second had changed} the race is benign
+		if(d.second != s)
+			date = d = new DateLine(s);
+
+		return d.line;
+	}
+
+	/**
+	 * Formats the timestamp as HTTP date (RFC 1123).
+	 */
+	public static String date(long ts)
+	{
+		return dateFormat().format(new Date(ts));
+	}
+
+	/**
+	 * Parses HTTP date (RFC 1123) into the timestamp,
+	 * or returns -1 when the format is wrong.
+	 */
+	public static long   date(String s)
+	{
+		try
+		{
+			return dateFormat().parse(s.trim()).getTime();
+		}
+		catch(Throwable e)
+		{
+			return -1L;
+		}
+	}
+
+	/**
+	 * Creates the format of HTTP date.
+	 * Note that the formats are not thread-safe.
+	 */
+	public static SimpleDateFormat dateFormat()
+	{
+		final SimpleDateFormat f = new SimpleDateFormat(
+		  "EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+
+		f.setTimeZone(TimeZone.getTimeZone("GMT"));
+		return f;
+	}
+
+	private static final class DateLine
+	{
+		public DateLine(long second)
+		{
+			this.second = second;
+
+			try
+			{
+				this.line = ("Date: " + date(second * 1000L) +
+				  "\r\n").getBytes("ASCII");
+			}
+			catch(Throwable e)
+			{
+				throw EX.wrap(e);
+			}
+		}
+
+		public final long   second;
+
+		public final byte[] line;
+	}
+
+	private static volatile DateLine date = new DateLine(0L);
+
+
+	/* Compression */
+
+	/**
+	 * Selects the content encoding by the value of
+	 * Accept-Encoding request header: gzip is preferred
+	 * over deflate. Returns null when none is accepted.
+	 */
+	public static String negotiate(String accept)
+	{
+		if((accept == null) || accept.isEmpty())
+			return null;
+
+		float gzip = -1f, deflate = -1f, any = -1f;
+
+		for(String x : accept.split(","))
+		{
+			//~: the coding with the quality
+			final int    i = x.indexOf(';');
+			final String c = ((i == -1)?(x):(x.substring(0, i))).trim();
+			float        q = 1f;
+
+			if(i != -1)
+			{
+				final String p = x.substring(i + 1).trim();
+
+				if(p.startsWith("q=")) try
+				{
+					q = Float.parseFloat(p.substring(2).trim());
+				}
+				catch(NumberFormatException e)
+				{
+					q = 0f;
+				}
+			}
+
+			if(c.equalsIgnoreCase("gzip") || c.equalsIgnoreCase("x-gzip"))
+				gzip = q;
+			else if(c.equalsIgnoreCase("deflate"))
+				deflate = q;
+			else if(c.equals("*"))
+				any = q;
+		}
+
+		//~: not listed are accepted as any
+		if(gzip < 0f)    gzip    = any;
+		if(deflate < 0f) deflate = any;
+
+		if((gzip > 0f) && (gzip >= deflate))
+			return "gzip";
+
+		if(deflate > 0f)
+			return "deflate";
+
+		return null;
+	}
+
+	/**
+	 * Tells the content type is not compressed
+	 * itself, such as the images, the fonts, or
+	 * the archives. Empty type is compressible.
+	 */
+	public static boolean compressible(String contentType)
+	{
+		if(contentType == null)
+			return true;
+
+		String t = contentType.trim().toLowerCase(Locale.ROOT);
+		int    i = t.indexOf(';');
+		if(i != -1)
+			t = t.substring(0, i).trim();
+
+		//?: {a text}
+		if(t.startsWith("text/") || t.endsWith("+xml") ||
+		   t.endsWith("+json") || t.endsWith("/json") ||
+		   t.endsWith("/xml") || t.endsWith("/javascript"))
+			return true;
+
+		//?: {media, or the fonts}
+		if(t.startsWith("image/") || t.startsWith("audio/") ||
+		   t.startsWith("video/") || t.startsWith("font/woff") ||
+		   t.equals("application/font-woff"))
+			return false;
+
+		return !COMPRESSED.contains(t);
+	}
+
+	private static final Set<String> COMPRESSED = new HashSet<String>(
+	  Arrays.asList(
+	    "application/zip", "application/gzip", "application/x-gzip",
+	    "application/x-bzip2", "application/x-xz", "application/x-7z-compressed",
+	    "application/x-rar-compressed", "application/zstd", "application/pdf",
+	    "application/octet-stream", "application/java-archive"
+	));
+
+	/**
+	 * Lowers the compression level when the system
+	 * load average per processor is high. The load
+	 * is sampled at most once per second.
+	 */
+	public static int adapt(int level)
+	{
+		final long s = System.currentTimeMillis() / 1000L;
+		Load       l = load;
+
+		//?: {the second had changed} the race is benign
+		if(l.second != s)
+			load = l = new Load(s);
+
+		//?: {overloaded} the fastest
+		if(l.ratio >= 1.0)
+			return Math.min(level, 1);
+
+		//?: {loaded} the middle
+		if(l.ratio >= 0.5)
+			return Math.min(level, (level + 1) / 2);
+
+		return level;
+	}
+
+	private static final class Load
+	{
+		public Load(long second)
+		{
+			this.second = second;
+
+			final double a = (second == 0L)?(-1.0):(average());
+
+			//HINT: negative average means not available.
+
+			this.ratio = (a < 0.0)?(0.0):
+			  (a / Runtime.getRuntime().availableProcessors());
+		}
+
+		public final long   second;
+
+		public final double ratio;
+
+		/**
+		 * Management classes are absent on Android,
+		 * thus they are accessed via the reflection.
+		 * Returns -1 when no load info is available.
+		 */
+		private static double average()
+		{
+			if(BEAN == null)
+				return -1.0;
+
+			try
+			{
+				return ((Number) AVERAGE.invoke(BEAN)).doubleValue();
+			}
+			catch(Throwable e)
+			{
+				return -1.0;
+			}
+		}
+
+		private static final Object BEAN;
+		private static final Method AVERAGE;
+
+		static
+		{
+			Object b = null;
+			Method a = null;
+
+			try
+			{
+				b = Class.forName("java.lang.management.ManagementFactory").
+				  getMethod("getOperatingSystemMXBean").invoke(null);
+
+				a = Class.forName("java.lang.management.OperatingSystemMXBean").
+				  getMethod("getSystemLoadAverage");
+			}
+			catch(Throwable e)
+			{
+				b = null;
+			}
+
+			BEAN    = b;
+			AVERAGE = a;
+		}
+	}
+
+	private static volatile Load load = new Load(0L);
+
+
 	/* Response with Headers */
 
-	public static class Headed extends Basic implements Dirty
+	public static class Headed extends Basic
+	  implements Dirty, Complete, Transfer, Streamed
 	{
 		public Headed(OutputStream socket)
 		{
-			this.socket = socket;
+			this.output  = new Support.BufferedOutput(committing(socket));
+			this.socket  = this.output;
+			this.channel = null;
+		}
+
+		/**
+		 * Socket of a channel (in blocking mode)
+		 * allows to transfer the files directly.
+		 */
+		public Headed(Socket socket)
+		  throws IOException
+		{
+			this.output  = new Support.BufferedOutput(
+			  committing(socket.getOutputStream()));
+			this.socket  = this.output;
+			this.channel = socket.getChannel();
 		}
 
+		/**
+		 * Coalesces the preamble and the body writes.
+		 * Flushed when the buffer is full, and when
+		 * the response is completed.
+		 */
+		protected final Support.BufferedOutput output;
+
 		protected OutputStream socket;
 
+		/**
+		 * Channel of the socket, or null.
+		 */
+		protected final WritableByteChannel channel;
+
+
+		/* Persistent Connection */
+
+		/**
+		 * Assigns the connection mode negotiated with
+		 * the request. Chunked flag tells that the client
+		 * supports chunked transfer encoding (HTTP/1.1).
+		 *
+		 * When keep-alive is requested, the body is framed
+		 * with Content-Length header set by the handler,
+		 * or with chunked encoding, else the connection
+		 * is closed after the response.
+		 */
+		public void    setKeepAlive(boolean keep, boolean chunked)
+		{
+			EX.assertx(!dirty);
+
+			this.keep    = keep;
+			this.chunked = chunked;
+		}
+
+		public boolean isKeepAlive()
+		{
+			return keep;
+		}
+
+		/**
+		 * Tells to add Date header (cached) when
+		 * the handler had not added one.
+		 */
+		public void    setDate(boolean date)
+		{
+			EX.assertx(!dirty);
+			this.date = date;
+		}
+
+		protected boolean keep;
+
+		protected boolean chunked;
+
+		protected boolean date;
+
+		/**
+		 * Assigns the content encoding negotiated with
+		 * the request: gzip, deflate, or null. Bodies
+		 * smaller than the minimum, and the types that
+		 * are already compressed are written as-is.
+		 */
+		public void    setCompression(String encoding, int level, int min)
+		{
+			EX.assertx(!dirty);
+			EX.assertx((level >= 0) && (level <= 9) && (min >= 0));
+			EX.assertx((encoding == null) ||
+			  "gzip".equals(encoding) || "deflate".equals(encoding));
+
+			this.encoding = (level == 0)?(null):(encoding);
+			this.level    = level;
+			this.min      = min;
+		}
+
+		protected String encoding;
+
+		protected int level;
+
+		protected int min;
+
+		public boolean complete()
+		{
+			//?: {nothing was written}
+			if(!dirty)
+				return false;
+
+			try
+			{
+				//?: {whole body is in the first buffer}
+				if((first != null) && (framed == null))
+					whole();
+
+				//~: write the buffered body
+				socket.flush();
+
+				//?: {write the compressed rest}
+				if(zipped != null)
+					zipped.finish();
+
+				//?: {write the last chunk}
+				if(chunks != null)
+					chunks.finish();
+
+				output.flush();
+			}
+			catch(Throwable e)
+			{
+				throw EX.wrap(e);
+			}
+			finally
+			{
+				release();
+			}
+
+			//?: {declared length is not the actual}
+			return keep && ((length < 0L) || (length == written));
+		}
+
+		/**
+		 * Content length declared by the handler,
+		 * or -1 when the body is not framed so.
+		 */
+		protected long length = -1L;
+
+		/**
+		 * Number of the body bytes written.
+		 */
+		protected long written;
+
+
+		/**
+		 * Returns the pooled buffers. Call it when the
+		 * handler had failed: the response is not
+		 * completed, and the buffered bytes are lost.
+		 */
+		public void    release()
+		{
+			if(first != null)
+				first.release();
+			if(zipped != null)
+				zipped.release();
+			output.release();
+		}
+
 
 		/* Response */
 
+		/**
+		 * Answers true when the bytes had reached the
+		 * socket. Before that the response may still
+		 * be replaced with an error.
+		 */
 		public boolean isDirty()
 		{
-			return dirty;
+			return committed;
 		}
 
+		/**
+		 * The status and the headers are fixed.
+		 */
 		protected boolean dirty;
 
+		/**
+		 * Some bytes were written to the socket.
+		 */
+		protected boolean committed;
+
 		public void    addHeader(String name, String value)
 		{
 			EX.asserts(name);
@@ -196,6 +992,16 @@ public class Responses
 			headers.add(value);
 		}
 
+		/**
+		 * Declares the length of the body to write
+		 * it directly without the first buffer.
+		 */
+		public void    setContentLength(long length)
+		{
+			EX.assertx(length >= 0L);
+			addHeader("Content-Length", Long.toString(length));
+		}
+
 		public void    setStatus(int status)
 		{
 			EX.assertx(!dirty);
@@ -212,25 +1018,365 @@ public class Responses
 			try
 			{
 				if(!dirty) //?: {the firsts write}
-					preamble();
+				{
+					dirty = true;
+					open();
+				}
 
 				//?: {actual content presents}
 				if(body != null)
-					Support.pump(body, socket);
+					written += Support.pump(body, socket);
 			}
 			catch(Throwable e)
 			{
 				throw EX.wrap(e);
 			}
-			finally
+		}
+
+
+		/* Streamed Body */
+
+		/**
+		 * The writes of the body stream go to the same
+		 * buffers as the inputs. Flushing it frames
+		 * the body of unknown length as chunked.
+		 */
+		public OutputStream body()
+		{
+			write((Input) null);
+
+			if(body == null)
+				body = new OutputStream()
+				{
+					public void write(int b)
+					  throws IOException
+					{
+						socket.write(b);
+						written++;
+					}
+
+					public void write(byte[] b, int off, int len)
+					  throws IOException
+					{
+						socket.write(b, off, len);
+						written += len;
+					}
+
+					public void flush()
+					  throws IOException
+					{
+						socket.flush();
+						output.flush();
+					}
+				};
+
+			return body;
+		}
+
+		protected OutputStream body;
+
+
+		/* File Transfer */
+
+		/**
+		 * When the file is the whole body, it's framed
+		 * with the length. Transfers via the socket
+		 * channel (SelectHat), else reads in the
+		 * pooled buffer.
+		 * Compressed, or chunked body is written as
+		 * the ordinary stream.
+		 */
+		public void    transfer(FileChannel file, long offset, long length)
+		{
+			EX.assertn(file);
+			EX.assertx((offset >= 0L) && (length >= 0L));
+
+			try
 			{
-				dirty = true;
+				if(!dirty) //?: {the first write}
+				{
+					//?: {will not compress} the length is known
+					if((encoding == null) || !compressible())
+					{
+						encoding = null;
+
+						if(bodied() && (header("Content-Length") == null) &&
+						   (header("Transfer-Encoding") == null))
+							contentLength(length);
+					}
+
+					dirty = true;
+					open();
+				}
+
+				//?: {body is framed} stream it
+				if(socket != output)
+				{
+					written += Support.pump(Support.input(file, offset, length), socket);
+					return;
+				}
+
+				//?: {has no channel} read in the buffer
+				if(channel == null)
+					output.transfer(file, offset, length);
+				else
+				{
+					output.flush();
+					committed = true;
+
+					//c: transfer till the end
+					for(long o = offset, e = offset + length;(o < e);)
+					{
+						final long x = file.transferTo(o, e - o, channel);
+
+						if(x <= 0L)
+							throw new EOFException("File region is not available!");
+
+						o += x;
+					}
+				}
+
+				written += length;
+			}
+			catch(Throwable e)
+			{
+				throw EX.wrap(e);
 			}
 		}
 
 
 		/* protected: response handling */
 
+		/**
+		 * Wraps the socket output to know
+		 * when the response is committed.
+		 */
+		protected OutputStream committing(final OutputStream socket)
+		{
+			EX.assertn(socket);
+
+			return new OutputStream()
+			{
+				public void write(int b)
+				  throws IOException
+				{
+					committed = true;
+					socket.write(b);
+				}
+
+				public void write(byte[] b, int off, int len)
+				  throws IOException
+				{
+					committed = true;
+					socket.write(b, off, len);
+				}
+
+				public void flush()
+				  throws IOException
+				{
+					socket.flush();
+				}
+
+				public void close()
+				  throws IOException
+				{
+					socket.close();
+				}
+			};
+		}
+
+		/**
+		 * The body of unknown length is gathered into
+		 * the first buffer. When it's completed so, it
+		 * gets Content-Length, else it's framed on the
+		 * overflow, and the buffer sizes the chunks.
+		 */
+		protected void open()
+		  throws IOException
+		{
+			//?: {not compress the body}
+			if((encoding != null) && !compressible())
+				encoding = null;
+
+			//?: {length declared is of the original}
+			if(encoding != null)
+				removeHeader("Content-Length");
+
+			//?: {has the length or own framing}
+			if(!bodied() || (header("Content-Length") != null) ||
+			   (header("Transfer-Encoding") != null))
+			{
+				frame();
+				socket = framed;
+				return;
+			}
+
+			socket = first = new Support.BufferedOutput(new OutputStream()
+			{
+				public void write(int b)
+				  throws IOException
+				{
+					this.write(new byte[] { (byte) b }, 0, 1);
+				}
+
+				public void write(byte[] b, int off, int len)
+				  throws IOException
+				{
+					if(framed == null)
+						frame();
+
+					framed.write(b, off, len);
+				}
+			});
+		}
+
+		/**
+		 * Buffer of the body when the length is not known.
+		 */
+		protected Support.BufferedOutput first;
+
+		/**
+		 * Output of the body bytes after the preamble.
+		 */
+		protected OutputStream framed;
+
+		protected Support.ChunkedOutput chunks;
+
+		protected Support.DeflatingOutput zipped;
+
+		/**
+		 * Frames the body completed in the first buffer.
+		 * If it's compressed, this is done in memory to
+		 * know the length.
+		 */
+		protected void whole()
+		  throws IOException
+		{
+			//?: {too small to compress}
+			if(first.buffered() < min)
+				encoding = null;
+
+			//?: {plain body}
+			if(encoding == null)
+			{
+				contentLength(first.buffered());
+				frame();
+				return;
+			}
+
+			final Support.BytesStream z = new Support.BytesStream();
+
+			try
+			{
+				//~: compress into the memory
+				framed = zipped = new Support.DeflatingOutput(
+				  z, "gzip".equals(encoding), level);
+
+				first.flush();
+				zipped.finish();
+				zipped = null;
+
+				//~: frame the compressed
+				contentLength(z.length());
+				encoded();
+				encoding = null;
+				frame();
+
+				//HINT: the length declared is of the compressed,
+				// but the handler had written the original.
+
+				length = -1L;
+				z.copy(framed);
+			}
+			finally
+			{
+				z.close();
+			}
+		}
+
+		/**
+		 * Adds the length header of the whole body.
+		 */
+		protected void contentLength(long length)
+		{
+			headers.add("Content-Length");
+			headers.add(Long.toString(length));
+		}
+
+		/**
+		 * Writes the preamble and selects the output.
+		 */
+		protected void frame()
+		  throws IOException
+		{
+			//?: {compressed body}
+			if(encoding != null)
+				encoded();
+
+			try
+			{
+				preamble();
+			}
+			catch(IOException e)
+			{
+				throw e;
+			}
+			catch(Throwable e)
+			{
+				throw EX.wrap(e);
+			}
+
+			//?: {chunked body}
+			framed = (!chunking)?(output):
+			  (chunks = new Support.ChunkedOutput(output));
+
+			//?: {compress the body}
+			if(encoding != null)
+				framed = zipped = new Support.DeflatingOutput(
+				  framed, "gzip".equals(encoding), level);
+		}
+
+		/**
+		 * Adds the headers of the compressed body.
+		 */
+		protected void encoded()
+		{
+			headers.add("Content-Encoding");
+			headers.add(encoding);
+
+			if(header("Vary") == null)
+			{
+				headers.add("Vary");
+				headers.add("Accept-Encoding");
+			}
+		}
+
+		/**
+		 * Tells the body is worth compressing.
+		 */
+		protected boolean compressible()
+		{
+			if(!bodied() || (status == 206) ||
+			   (header("Content-Encoding") != null) ||
+			   (header("Transfer-Encoding") != null))
+				return false;
+
+			//?: {declared length is too small}
+			String l = header("Content-Length");
+			if((l != null) && (Long.parseLong(l.trim()) < min))
+				return false;
+
+			return Responses.compressible(header("Content-Type"));
+		}
+
+		/**
+		 * Tells the status allows the body.
+		 */
+		protected boolean bodied()
+		{
+			return (status >= 200) && (status != 204) && (status != 304);
+		}
+
 		/**
 		 * Writes HTTP response preamble:
 		 * the status line, and the headers.
@@ -238,29 +1384,106 @@ public class Responses
 		protected void preamble()
 		  throws Throwable
 		{
-			StringBuilder s = new StringBuilder(256);
+			final Preamble p = new Preamble();
 
-			//~: status line
-			s.append("HTTP/1.1 ");
-			s.append(status);
+			try
+			{
+				//~: status line
+				p.status(status);
 
-			if(status == 200)
-				s.append(" OK");
+				//~: the headers
+				for(int i = 0;(i < headers.size());i += 2)
+					p.header(headers.get(i), headers.get(i+1));
 
-			s.append("\r\n");
+				//?: {add the date}
+				if(date && (header("Date") == null))
+					p.date();
 
-			//~: the headers
-			for(int i = 0;(i < headers.size());i += 2)
-				s.append(headers.get(i)).
-				  append(": ").
-				  append(headers.get(i+1)).
-				  append("\r\n");
+				//~: framing of the body
+				framing(p);
+
+				//~: preamble delimiter line
+				p.end();
+
+				//!: stream out
+				p.write(output);
+			}
+			finally
+			{
+				p.close();
+			}
+		}
+
+		/**
+		 * Selects the body framing and the connection
+		 * mode appending the related headers.
+		 */
+		protected void framing(Preamble p)
+		{
+			//?: {handler closes the connection}
+			String c = header("Connection");
+			if((c != null) && c.toLowerCase(Locale.ROOT).contains("close"))
+				keep = false;
+
+			//~: declared content length
+			String l = header("Content-Length");
+			if(l != null)
+				length = Long.parseLong(l.trim());
+			//?: {has no body}
+			else if(!bodied())
+				length = 0L;
+			//?: {frame with the chunks}
+			else if(keep && chunked && (header("Transfer-Encoding") == null))
+			{
+				chunking = true;
+				p.header("Transfer-Encoding", "chunked");
+			}
+			//~: only connection close frames the body
+			else
+				keep = false;
 
-			//~: preamble delimiter line
-			s.append("\r\n");
+			//?: {connection header is defined}
+			if(c != null)
+				return;
+
+			if(!keep)
+				p.header("Connection", "close");
+			else if(!chunked) //<-- HTTP/1.0
+				p.header("Connection", "keep-alive");
+		}
+
+		/**
+		 * The body is written in the chunks.
+		 */
+		protected boolean chunking;
+
+		/**
+		 * Removes all the values of the header
+		 * regardless of the name case.
+		 */
+		protected void removeHeader(String name)
+		{
+			for(int i = 0;(i < headers.size());)
+				if(!name.equalsIgnoreCase(headers.get(i)))
+					i += 2;
+				else
+				{
+					headers.remove(i);
+					headers.remove(i);
+				}
+		}
+
+		/**
+		 * Returns the first value of the header
+		 * regardless of the name case.
+		 */
+		protected String header(String name)
+		{
+			for(int i = 0;(i < headers.size());i += 2)
+				if(name.equalsIgnoreCase(headers.get(i)))
+					return headers.get(i+1);
 
-			//!: stream out
-			Support.pump(new Support.CharBytes(s), socket);
+			return null;
 		}
 	}
 }
\ No newline at end of file
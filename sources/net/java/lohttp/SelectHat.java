@@ -0,0 +1,602 @@
+package net.java.lohttp;
+
+/* Java */
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/* Lo* HTTP */
+
+import net.java.lohttp.Requests.Parser;
+
+
+/**
+ * Implements HTTP server on the non-blocking channels.
+ *
+ * Single selector thread accepts the connections
+ * and reads the request preambles. Only the requests
+ * fully scanned are executed in the pool threads.
+ * Idle persistent connections are returned back
+ * to the selector, thus they take no threads.
+ *
+ * The setup, the callbacks, and the responses
+ * are the same as of {@link LowHat}.
+ *
+ * @author anton.baukin@gmail.com
+ */
+public class SelectHat extends LowHat
+{
+	/* HTTP Server */
+
+	public void close()
+	{
+		synchronized(mutex)
+		{
+			final Selector     s  = this.selector;
+			final ServerPeer[] ps = this.peers;
+
+			//~: close the socket
+			super.close();
+
+			//~: awake the peer to exit
+			if(s != null)
+				s.wakeup();
+
+			//HINT: the channel registered in the selector
+			// is released only when it's deregistered.
+
+			if(ps != null) try
+			{
+				for(ServerPeer p : ps)
+					p.done.await();
+			}
+			catch(InterruptedException e)
+			{
+				throw EX.wrap(e);
+			}
+		}
+	}
+
+
+	/* protected: server runtime state */
+
+	protected Selector selector;
+
+	/**
+	 * Persistent connections returned by the workers
+	 * to be registered in the selector again.
+	 */
+	protected final Queue<Connection> returned =
+	  new ConcurrentLinkedQueue<Connection>();
+
+	/**
+	 * Interval in milliseconds of the selector
+	 * to check the connections timeouts.
+	 */
+	protected static final long TICK = 1000L;
+
+
+	/* Connection */
+
+	/**
+	 * State of a client connection.
+	 */
+	protected static class Connection
+	{
+		public Connection(SocketChannel channel)
+		{
+			this.channel = channel;
+			this.ts      = System.currentTimeMillis();
+		}
+
+		public final SocketChannel channel;
+
+		/**
+		 * Parser of the request preamble that
+		 * is being read. Null while idle.
+		 */
+		public Parser parser;
+
+		/**
+		 * Number of the requests served.
+		 */
+		public int    number;
+
+		/**
+		 * Timestamp of the last activity.
+		 */
+		public long   ts;
+
+		public void   close()
+		{
+			if(parser != null)
+			{
+				parser.close();
+				parser = null;
+			}
+
+			try
+			{
+				channel.close();
+			}
+			catch(Throwable ignore)
+			{}
+		}
+	}
+
+
+	/* Selector Peer */
+
+	protected ServerSocket bind()
+	  throws IOException
+	{
+		final ServerSocketChannel c = ServerSocketChannel.open();
+
+		try
+		{
+			//~: reuse the port
+			c.socket().setReuseAddress(true);
+
+			//~: bind the socket
+			c.socket().bind(address(), setup.getBacklog());
+
+			//~: register for accepting
+			c.configureBlocking(false);
+			this.selector = Selector.open();
+			c.register(selector, SelectionKey.OP_ACCEPT);
+		}
+		catch(Throwable e)
+		{
+			try
+			{
+				c.close();
+
+				if(selector != null)
+					selector.close();
+			}
+			catch(Throwable x)
+			{
+				EX.sup(e, x);
+			}
+			finally
+			{
+				selector = null;
+			}
+
+			if(e instanceof IOException)
+				throw (IOException) e;
+			throw EX.wrap(e);
+		}
+
+		return c.socket();
+	}
+
+	/**
+	 * Single selector accepts all the connections.
+	 */
+	protected int acceptors()
+	{
+		return 1;
+	}
+
+	protected ServerPeer createServerPeer(ServerSocket socket)
+	{
+		return new SelectPeer(socket, selector);
+	}
+
+	protected class SelectPeer extends ServerPeer
+	{
+		public SelectPeer(ServerSocket socket, Selector selector)
+		{
+			super(socket);
+			this.selector = EX.assertn(selector);
+		}
+
+		public final Selector selector;
+
+
+		/* Server Peer */
+
+		public void run()
+		{
+			//~: notify started
+			started.countDown();
+
+			try
+			{
+				//c: selection cycle
+				while(!socket.isClosed()) try
+				{
+					cycle();
+				}
+				catch(Throwable ignore)
+				{
+					//~: continue operations
+				}
+			}
+			finally
+			{
+				//~: close the connections
+				shutdown();
+
+				//~: notify exited
+				done.countDown();
+			}
+		}
+
+
+		/* protected: selection */
+
+		protected void cycle()
+		  throws IOException
+		{
+			//~: wait for the events
+			selector.select(TICK);
+
+			//~: register the connections returned
+			reclaim();
+
+			//c: for all the keys selected
+			Iterator<SelectionKey> i = selector.selectedKeys().iterator();
+			while(i.hasNext())
+			{
+				SelectionKey k = i.next();
+				i.remove();
+
+				if(!k.isValid())
+					continue;
+
+				try
+				{
+					if(k.isAcceptable())
+						accept();
+					else if(k.isReadable())
+						read(k);
+				}
+				catch(Throwable e)
+				{
+					//?: {a connection failed}
+					if(k.attachment() instanceof Connection)
+						drop(k);
+				}
+			}
+
+			//~: execute the requests scanned
+			dispatch();
+
+			//~: close the expired
+			expire();
+		}
+
+		protected void accept()
+		  throws IOException
+		{
+			final ServerSocketChannel server = socket.getChannel();
+			SocketChannel c;
+
+			//c: take all the pending connections
+			while((c = server.accept()) != null) try
+			{
+				c.configureBlocking(false);
+
+				//~: no delay of the writes
+				if(setup.isTcpNoDelay())
+					c.socket().setTcpNoDelay(true);
+
+				c.register(selector, SelectionKey.OP_READ, new Connection(c));
+			}
+			catch(Throwable e)
+			{
+				c.close();
+			}
+		}
+
+		protected void read(SelectionKey k)
+		  throws IOException
+		{
+			final Connection c = (Connection) k.attachment();
+			final byte[]     b = Support.BUFFERS.get();
+
+			try
+			{
+				//~: read available bytes
+				final int s = c.channel.read(ByteBuffer.wrap(b));
+
+				if(s < 0) //?: {connection is closed}
+				{
+					drop(k);
+					return;
+				}
+
+				if(s == 0)
+					return;
+
+				//~: new request
+				if(c.parser == null)
+					c.parser = new Parser(null, setup.getPreambleLimit());
+
+				c.ts = System.currentTimeMillis();
+
+				//~: feed the bytes
+				final int x = c.parser.feed(b, 0, s);
+
+				if(x == -1) //?: {wait for more}
+					return;
+
+				//?: {scanned} execute it
+				if(x == 0)
+				{
+					k.cancel();
+					scanned.add(c);
+					return;
+				}
+
+				//~: write the error
+				((x == 2)?(Responses.RequestTooLarge):
+				  (Responses.BadRequest)).write(c.channel);
+
+				drop(k);
+			}
+			finally
+			{
+				Support.BUFFERS.free(b);
+			}
+		}
+
+		protected void drop(SelectionKey k)
+		{
+			k.cancel();
+			((Connection) k.attachment()).close();
+		}
+
+		/**
+		 * Connections with the preamble scanned.
+		 */
+		protected final ArrayList<Connection> scanned =
+		  new ArrayList<Connection>(8);
+
+		protected void dispatch()
+		  throws IOException
+		{
+			if(scanned.isEmpty())
+				return;
+
+			//~: deregister the cancelled keys
+			selector.selectNow();
+
+			try
+			{
+				for(Connection c : scanned)
+					handle(this, c);
+			}
+			finally
+			{
+				scanned.clear();
+			}
+		}
+
+		protected void reclaim()
+		{
+			Connection c;
+
+			while((c = returned.poll()) != null) try
+			{
+				c.ts = System.currentTimeMillis();
+				c.channel.register(selector, SelectionKey.OP_READ, c);
+			}
+			catch(Throwable e)
+			{
+				c.close();
+			}
+		}
+
+		protected void expire()
+		{
+			final long ts = System.currentTimeMillis();
+
+			//?: {not yet the time}
+			if(ts - checked < TICK)
+				return;
+
+			checked = ts;
+
+			for(SelectionKey k : selector.keys())
+			{
+				if(!(k.attachment() instanceof Connection))
+					continue;
+
+				final Connection c = (Connection) k.attachment();
+				final long       t = timeout(c);
+
+				//?: {timed out}
+				if((t != 0L) && (ts - c.ts > t))
+					drop(k);
+			}
+		}
+
+		protected long checked;
+
+		protected void shutdown()
+		{
+			try
+			{
+				for(SelectionKey k : selector.keys())
+					if(k.attachment() instanceof Connection)
+						((Connection) k.attachment()).close();
+			}
+			catch(Throwable ignore)
+			{}
+
+			try
+			{
+				selector.close();
+			}
+			catch(Throwable ignore)
+			{}
+
+			//~: close the returned
+			for(Connection c : scanned)
+				c.close();
+			scanned.clear();
+			reclaim();
+		}
+	}
+
+	/**
+	 * Idle timeout of the connection waiting for
+	 * the request. Zero means no timeout.
+	 */
+	protected long timeout(Connection c)
+	{
+		//?: {waiting for the first request}
+		if(c.number == 0)
+			return setup.getSoTimeout();
+
+		return setup.getKeepAliveTimeout();
+	}
+
+
+	/* protected: processing */
+
+	/**
+	 * Executed by the selector thread when
+	 * the request preamble is scanned.
+	 */
+	protected void handle(ServerPeer p, final Connection c)
+	{
+		try //~: switch to the blocking mode
+		{
+			c.channel.configureBlocking(true);
+		}
+		catch(Throwable e)
+		{
+			c.close();
+			return;
+		}
+
+		//~: target work task
+		final Runnable task = new Runnable()
+		{
+			public void run()
+			{
+				boolean keep = false;
+
+				try
+				{
+					keep = worker(c);
+				}
+				finally
+				{
+					try //?: {close the connection}
+					{
+						if(!keep)
+							c.close();
+					}
+					finally
+					{
+						//~: exclude task from the set
+						tasks.dec();
+					}
+				}
+			}
+		};
+
+		//~: count the task
+		tasks.inc();
+
+		try //~: allocate worker
+		{
+			allocate(p, task);
+		}
+		catch(Throwable e)
+		{
+			//~: release the parser
+			c.parser.close();
+			c.parser = null;
+
+			deny(c.channel.socket(), e);
+		}
+	}
+
+	/**
+	 * Serves the request scanned, and the following
+	 * pipelined requests, if any. Returns the persistent
+	 * connection to the selector. Throws nothing.
+	 */
+	protected boolean worker(Connection c)
+	{
+		final Socket s = c.channel.socket();
+		boolean   keep = false;
+		boolean   back = false; //<-- is returned
+		Support.PushbackInput in = null;
+
+		try
+		{
+			//~: socket timeout
+			if(setup.getSoTimeout() != 0)
+				s.setSoTimeout(setup.getSoTimeout());
+
+			//~: input of the connection
+			in = new Support.PushbackInput(s.getInputStream());
+
+			//~: take the parser
+			final Parser p = c.parser;
+			c.parser = null;
+
+			//~: serve the request scanned
+			keep = serve(s, in, p, ++c.number);
+
+			//c: serve the pipelined requests
+			while(keep && in.isBuffered())
+				keep = serve(s, in, null, ++c.number);
+
+			//?: {close the connection}
+			if(!keep)
+				return false;
+
+			//~: return to the selector
+			c.channel.configureBlocking(false);
+			returned.add(c);
+			back = true;
+
+			final Selector x = this.selector;
+			if(x != null)
+				x.wakeup();
+
+			//?: {selector is closed} close the returned
+			if((x == null) || !x.isOpen())
+				for(Connection r;((r = returned.poll()) != null);)
+					r.close();
+
+			return true;
+		}
+		catch(Throwable e)
+		{
+			return false;
+		}
+		finally
+		{
+			//?: {not returned} release the buffered bytes
+			if(!back && (in != null)) try
+			{
+				in.close();
+			}
+			catch(Throwable ignore)
+			{}
+
+			//?: {virtual thread exits} return the buffers
+			if(setup.isVirtual())
+				Support.flush();
+		}
+	}
+}
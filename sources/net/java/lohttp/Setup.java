@@ -2,10 +2,13 @@ package net.java.lohttp;
 
 /* Java */
 
+import java.io.File;
+import java.util.HashMap;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -40,11 +43,64 @@ public class Setup implements Cloneable
 	 */
 	private int soTimeout;
 
+	/**
+	 * Disables Nagle's algorithm on the connections.
+	 * The responses coalesce the writes themselves,
+	 * thus the delay only stalls small replies.
+	 *
+	 * Defaults to true.
+	 */
+	private boolean tcpNoDelay = true;
+
+	/**
+	 * Idle timeout in milliseconds of a persistent
+	 * (keep-alive) connection waiting for the next
+	 * request. Zero value disables the persistent
+	 * connections. Defaults to 5 seconds.
+	 */
+	private int keepAliveTimeout = 5000;
+
+	/**
+	 * The maximum number of requests served by
+	 * single persistent connection. Value 1 disables
+	 * the persistent connections. Defaults to 100.
+	 */
+	private int keepAliveMax = 100;
+
+	/**
+	 * The number of the threads accepting
+	 * the connections. Each acceptor takes
+	 * a thread of the pool. Defaults to 1.
+	 */
+	private int acceptors = 1;
+
+	/**
+	 * When there are multiple acceptors, each binds
+	 * own server socket with SO_REUSEPORT option
+	 * (Java 9), thus the system shards the incoming
+	 * connections. If the option is not supported,
+	 * the acceptors share the same socket.
+	 */
+	private boolean reusePort;
+
 	/**
 	 * The pool for incoming requests worker.
 	 */
 	private Executor pool;
 
+	/**
+	 * The number of pool threads kept hot waiting
+	 * for the incoming connections. Defaults to 1.
+	 */
+	private int hotThreads = 1;
+
+	/**
+	 * Tells that the pool starts own (virtual)
+	 * thread for each task, thus the server does
+	 * not pre-allocate the hot threads.
+	 */
+	private boolean virtual;
+
 	/**
 	 * The limit in bytes of HTTP preamble that includes
 	 * the query line with the parameters, the headers,
@@ -54,6 +110,104 @@ public class Setup implements Cloneable
 	 */
 	private int preambleLimit = 1024 * 128;
 
+	/**
+	 * In the lazy decode mode the headers and the query
+	 * parameters are decoded into the strings only when
+	 * requested by the handler. The preamble buffers
+	 * are kept till the request is completed.
+	 */
+	private boolean lazyDecode;
+
+	/**
+	 * Tells the responses to carry Date header
+	 * when the handler had not set it. The value
+	 * is cached and is updated once per second.
+	 *
+	 * Defaults to true.
+	 */
+	private boolean dateHeader = true;
+
+	/**
+	 * Level (1-9) of gzip or deflate compression of
+	 * the response bodies negotiated by the request
+	 * Accept-Encoding header. Zero disables it.
+	 *
+	 * Defaults to 0.
+	 */
+	private int compression;
+
+	/**
+	 * Bodies smaller than this are not compressed.
+	 * Defaults to 1 KiB.
+	 */
+	private int compressMin = 1024;
+
+	/**
+	 * Lowers the compression level when the system
+	 * load average per processor is high.
+	 *
+	 * Defaults to true.
+	 */
+	private boolean compressAdaptive = true;
+
+	/**
+	 * Maximum nesting of the objects and the arrays
+	 * of JSON document read from a request body.
+	 *
+	 * Defaults to 64.
+	 */
+	private int jsonDepth = 64;
+
+	/**
+	 * Maximum size in bytes of JSON document read
+	 * from a request body.
+	 *
+	 * Defaults to 16 MiB.
+	 */
+	private long jsonSize = 1024L * 1024 * 16;
+
+	/**
+	 * Multipart form part that is longer than this
+	 * size in bytes is moved from the memory to
+	 * a temporary file.
+	 *
+	 * Defaults to 64 KiB.
+	 */
+	private long multipartSpill = 1024L * 64;
+
+	/**
+	 * Total size in bytes of multipart form parts
+	 * of a request kept in the memory (the fields
+	 * and the small files). The following parts
+	 * are moved to temporary files.
+	 *
+	 * Defaults to 1 MiB.
+	 */
+	private long multipartMemory = 1024L * 1024;
+
+	/**
+	 * Directory of the temporary files of multipart
+	 * form parts. Defaults to null: the system one.
+	 */
+	private File multipartDir;
+
+	/**
+	 * Tells to inflate request body transparently
+	 * when it has gzip content encoding. Note that
+	 * the header is left as-is.
+	 *
+	 * Defaults to false.
+	 */
+	private boolean inflate;
+
+	/**
+	 * Maximum size in bytes of a request body decoded
+	 * from chunked transfer encoding, or inflated.
+	 *
+	 * Defaults to 64 MiB.
+	 */
+	private long bodyLimit = 1024L * 1024 * 64;
+
 	/**
 	 * Executed in the socket binding thread.
 	 *
@@ -71,6 +225,13 @@ public class Setup implements Cloneable
 	 */
 	private Callback execute;
 
+	/**
+	 * Factories of the requests by the HTTP method.
+	 * Not defined methods have the default ones:
+	 * GET request, or request with the body.
+	 */
+	private HashMap<String, Requests.Factory> factories;
+
 	/**
 	 * Indicates that the configuration is fixed by the server.
 	 * Cloned configuration is always not fixed.
@@ -89,6 +250,10 @@ public class Setup implements Cloneable
 			//!: un-fix
 			s.fixed = false;
 
+			//~: own factories
+			if(factories != null)
+				s.factories = new HashMap<String, Requests.Factory>(factories);
+
 			return s;
 		}
 		catch(Throwable e)
@@ -150,6 +315,69 @@ public class Setup implements Cloneable
 		this.soTimeout = soTimeout;
 	}
 
+	public boolean isTcpNoDelay()
+	{
+		return tcpNoDelay;
+	}
+
+	public Setup setTcpNoDelay(boolean tcpNoDelay)
+	{
+		EX.assertx(!fixed);
+		this.tcpNoDelay = tcpNoDelay;
+		return this;
+	}
+
+	public int getKeepAliveTimeout()
+	{
+		return keepAliveTimeout;
+	}
+
+	public Setup setKeepAliveTimeout(int ms)
+	{
+		EX.assertx(!fixed);
+		EX.assertx(ms >= 0);
+		this.keepAliveTimeout = ms;
+		return this;
+	}
+
+	public int getKeepAliveMax()
+	{
+		return keepAliveMax;
+	}
+
+	public Setup setKeepAliveMax(int n)
+	{
+		EX.assertx(!fixed);
+		EX.assertx(n > 0);
+		this.keepAliveMax = n;
+		return this;
+	}
+
+	public int getAcceptors()
+	{
+		return acceptors;
+	}
+
+	public Setup setAcceptors(int n)
+	{
+		EX.assertx(!fixed);
+		EX.assertx(n > 0);
+		this.acceptors = n;
+		return this;
+	}
+
+	public boolean isReusePort()
+	{
+		return reusePort;
+	}
+
+	public Setup setReusePort(boolean reusePort)
+	{
+		EX.assertx(!fixed);
+		this.reusePort = reusePort;
+		return this;
+	}
+
 	public Executor getPool()
 	{
 		return pool;
@@ -159,6 +387,25 @@ public class Setup implements Cloneable
 	{
 		EX.assertx(!fixed);
 		this.pool = EX.assertn(pool);
+		this.virtual = false;
+		return this;
+	}
+
+	public boolean isVirtual()
+	{
+		return virtual;
+	}
+
+	public int getHotThreads()
+	{
+		return hotThreads;
+	}
+
+	public Setup setHotThreads(int n)
+	{
+		EX.assertx(!fixed);
+		EX.assertx(n >= 0);
+		this.hotThreads = n;
 		return this;
 	}
 
@@ -174,6 +421,157 @@ public class Setup implements Cloneable
 		return this;
 	}
 
+	public boolean isLazyDecode()
+	{
+		return lazyDecode;
+	}
+
+	public Setup setLazyDecode(boolean lazyDecode)
+	{
+		EX.assertx(!fixed);
+		this.lazyDecode = lazyDecode;
+		return this;
+	}
+
+	public boolean isDateHeader()
+	{
+		return dateHeader;
+	}
+
+	public Setup setDateHeader(boolean dateHeader)
+	{
+		EX.assertx(!fixed);
+		this.dateHeader = dateHeader;
+		return this;
+	}
+
+	public int getCompression()
+	{
+		return compression;
+	}
+
+	public Setup setCompression(int level)
+	{
+		EX.assertx(!fixed);
+		EX.assertx((level >= 0) && (level <= 9));
+		this.compression = level;
+		return this;
+	}
+
+	public int getCompressMin()
+	{
+		return compressMin;
+	}
+
+	public Setup setCompressMin(int compressMin)
+	{
+		EX.assertx(!fixed);
+		EX.assertx(compressMin >= 0);
+		this.compressMin = compressMin;
+		return this;
+	}
+
+	public boolean isCompressAdaptive()
+	{
+		return compressAdaptive;
+	}
+
+	public Setup setCompressAdaptive(boolean compressAdaptive)
+	{
+		EX.assertx(!fixed);
+		this.compressAdaptive = compressAdaptive;
+		return this;
+	}
+
+	public int getJsonDepth()
+	{
+		return jsonDepth;
+	}
+
+	public Setup setJsonDepth(int jsonDepth)
+	{
+		EX.assertx(!fixed);
+		EX.assertx(jsonDepth > 0);
+		this.jsonDepth = jsonDepth;
+		return this;
+	}
+
+	public long getJsonSize()
+	{
+		return jsonSize;
+	}
+
+	public Setup setJsonSize(long jsonSize)
+	{
+		EX.assertx(!fixed);
+		EX.assertx(jsonSize > 0L);
+		this.jsonSize = jsonSize;
+		return this;
+	}
+
+	public long getMultipartSpill()
+	{
+		return multipartSpill;
+	}
+
+	public Setup setMultipartSpill(long multipartSpill)
+	{
+		EX.assertx(!fixed);
+		EX.assertx(multipartSpill >= 0L);
+		this.multipartSpill = multipartSpill;
+		return this;
+	}
+
+	public long getMultipartMemory()
+	{
+		return multipartMemory;
+	}
+
+	public Setup setMultipartMemory(long multipartMemory)
+	{
+		EX.assertx(!fixed);
+		EX.assertx(multipartMemory >= 0L);
+		this.multipartMemory = multipartMemory;
+		return this;
+	}
+
+	public File getMultipartDir()
+	{
+		return multipartDir;
+	}
+
+	public Setup setMultipartDir(File multipartDir)
+	{
+		EX.assertx(!fixed);
+		this.multipartDir = multipartDir;
+		return this;
+	}
+
+	public boolean isInflate()
+	{
+		return inflate;
+	}
+
+	public Setup setInflate(boolean inflate)
+	{
+		EX.assertx(!fixed);
+		this.inflate = inflate;
+		return this;
+	}
+
+	public long getBodyLimit()
+	{
+		return bodyLimit;
+	}
+
+	public Setup setBodyLimit(long bodyLimit)
+	{
+		EX.assertx(!fixed);
+		EX.assertx(bodyLimit > 0L);
+		this.bodyLimit = bodyLimit;
+		return this;
+	}
+
 	public Callback getDeny()
 	{
 		return deny;
@@ -198,6 +596,28 @@ public class Setup implements Cloneable
 		return this;
 	}
 
+	public Requests.Factory getFactory(String method)
+	{
+		return (factories == null)?(null):(factories.get(method));
+	}
+
+	/**
+	 * Assigns the factory of the requests having
+	 * the method given in the upper case.
+	 */
+	public Setup setFactory(String method, Requests.Factory factory)
+	{
+		EX.assertx(!fixed);
+		EX.asserts(method);
+		EX.assertn(factory);
+
+		if(factories == null)
+			factories = new HashMap<String, Requests.Factory>();
+
+		factories.put(method, factory);
+		return this;
+	}
+
 	public boolean isFixed()
 	{
 		return fixed;
@@ -216,14 +636,16 @@ public class Setup implements Cloneable
 	 * Sets fixed execution pool with the given
 	 * prefix of the threads. The minimum threads number
 	 * N must be at least 2, the maximum M is not lower.
-	 * The number of waiting tasks is denoted by W
-	 * that may not be zero.
+	 * The number of waiting tasks is denoted by W.
+	 * When it's zero, the tasks are handed over to
+	 * the threads directly, and new threads are
+	 * started up to M, then the tasks are rejected.
 	 */
 	public Setup setPool(int n, int m, int w, final String prefix)
 	{
 		EX.assertx(n >= 2);
 		EX.assertx(m >= n);
-		EX.assertx(w >  0);
+		EX.assertx(w >= 0);
 		EX.asserts(prefix);
 
 		//~: naming factory
@@ -239,7 +661,9 @@ public class Setup implements Cloneable
 		};
 
 		//~: tasks queue
-		BlockingQueue<Runnable> q = new ArrayBlockingQueue<Runnable>(w, true);
+		BlockingQueue<Runnable> q = (w == 0)?
+		  (new SynchronousQueue<Runnable>()):
+		  (new ArrayBlockingQueue<Runnable>(w, true));
 
 		//~: create the pool
 		this.setPool(new ThreadPoolExecutor(n, m,
@@ -248,4 +672,55 @@ public class Setup implements Cloneable
 
 		return this;
 	}
+
+	/**
+	 * Sets the executor that starts new virtual thread
+	 * with the given name prefix for each connection.
+	 * Requires Java 21, the classes are accessed via
+	 * the reflection to compile for older versions.
+	 */
+	public Setup setVirtualPool(String prefix)
+	{
+		EX.assertx(!fixed);
+		EX.asserts(prefix);
+		EX.assertx(isVirtualSupported(), "Virtual threads are not supported!");
+
+		try
+		{
+			//~: virtual threads builder
+			Object b = Thread.class.getMethod("ofVirtual").invoke(null);
+			Class<?> c = Class.forName("java.lang.Thread$Builder");
+
+			//~: naming factory
+			b = c.getMethod("name", String.class, long.class).invoke(b, prefix, 0L);
+			ThreadFactory tf = (ThreadFactory) c.getMethod("factory").invoke(b);
+
+			//~: thread per task executor
+			this.setPool((Executor) Executors.class.getMethod(
+			  "newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, tf));
+		}
+		catch(Throwable e)
+		{
+			throw EX.wrap(e);
+		}
+
+		this.virtual = true;
+		return this;
+	}
+
+	/**
+	 * Tells whether the runtime has virtual threads.
+	 */
+	public static boolean isVirtualSupported()
+	{
+		try
+		{
+			Thread.class.getMethod("ofVirtual");
+			return true;
+		}
+		catch(Throwable e)
+		{
+			return false;
+		}
+	}
 }
\ No newline at end of file
@@ -0,0 +1,1178 @@
+package net.java.lohttp;
+
+/* Java */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Lo* HTTP */
+
+import net.java.lohttp.Requests.Known;
+
+
+/**
+ * Callback that serves static content of GET
+ * requests from the source of the resources.
+ *
+ * Hot resources are kept in LRU cache bounded by
+ * the total size. Cached entry has the bytes, strong
+ * ETag, Last-Modified, and gzip variant of a text.
+ * Conditional requests matching the cached entry
+ * are answered with 304 not touching the source.
+ *
+ * Range requests are served from the cached bytes,
+ * or from the memory-mapped file of the resource.
+ *
+ * The cache is not checked against the source!
+ * Call {@link #clear()} when the content changes.
+ *
+ * @author anton.baukin@gmail.com
+ */
+public class Statics implements Callback
+{
+	public Statics(Source source, long cacheSize)
+	{
+		EX.assertx(cacheSize >= 0L);
+
+		this.source    = EX.assertn(source);
+		this.cacheSize = cacheSize;
+		this.entryMax  = cacheSize / 16;
+	}
+
+	public final Source source;
+
+	/**
+	 * Limit of the cached bytes total.
+	 */
+	public final long   cacheSize;
+
+
+	/* Source of Resources */
+
+	public static interface Source
+	{
+		/**
+		 * Returns the resource of the path that
+		 * starts with '/', or null when not found.
+		 */
+		Resource find(String path)
+		  throws IOException;
+	}
+
+	public static interface Resource
+	{
+		/**
+		 * Length in bytes, or -1 when not known.
+		 */
+		long        length();
+
+		/**
+		 * Timestamp of the last modification,
+		 * or 0 when not known.
+		 */
+		long        modified();
+
+		InputStream open()
+		  throws IOException;
+
+		/**
+		 * Channel of the file having the resource,
+		 * or null. The resource starts at the offset.
+		 */
+		FileChannel channel()
+		  throws IOException;
+
+		long        offset();
+	}
+
+	/**
+	 * Source of the files of the directory.
+	 */
+	public static Source directory(File root)
+	{
+		final File base = root.getAbsoluteFile();
+
+		return new Source()
+		{
+			public Resource find(String path)
+			{
+				//?: {escapes the root}
+				if(!valid(path))
+					return null;
+
+				final File f = new File(base, path.substring(1));
+				return (f.isFile())?(file(f)):(null);
+			}
+		};
+	}
+
+	/**
+	 * Source of the class loader resources
+	 * relative to the class and the prefix.
+	 */
+	public static Source classpath(final Class<?> c, final String prefix)
+	{
+		EX.assertn(c);
+
+		return new Source()
+		{
+			public Resource find(String path)
+			  throws IOException
+			{
+				if(!valid(path))
+					return null;
+
+				final URL u = c.getResource((prefix == null)?
+				  (path.substring(1)):(prefix + path));
+
+				//?: {not found}
+				if(u == null)
+					return null;
+
+				//?: {a file}
+				if("file".equals(u.getProtocol())) try
+				{
+					final File f = new File(u.toURI());
+					return (f.isFile())?(file(f)):(null);
+				}
+				catch(URISyntaxException e)
+				{
+					throw new IOException(e.getMessage());
+				}
+
+				return url(u);
+			}
+		};
+	}
+
+	public static Resource file(final File f)
+	{
+		return new Resource()
+		{
+			public long        length()
+			{
+				return f.length();
+			}
+
+			public long        modified()
+			{
+				return f.lastModified();
+			}
+
+			public InputStream open()
+			  throws IOException
+			{
+				return new FileInputStream(f);
+			}
+
+			public FileChannel channel()
+			  throws IOException
+			{
+				return new FileInputStream(f).getChannel();
+			}
+
+			public long        offset()
+			{
+				return 0L;
+			}
+		};
+	}
+
+	public static Resource url(URL u)
+	  throws IOException
+	{
+		final URLConnection c = u.openConnection();
+
+		return new Resource()
+		{
+			public long        length()
+			{
+				return c.getContentLength();
+			}
+
+			public long        modified()
+			{
+				return c.getLastModified();
+			}
+
+			public InputStream open()
+			  throws IOException
+			{
+				return c.getInputStream();
+			}
+
+			public FileChannel channel()
+			{
+				return null;
+			}
+
+			public long        offset()
+			{
+				return 0L;
+			}
+		};
+	}
+
+	/**
+	 * Tells the path starts with '/' and has
+	 * no parent references, or back slashes.
+	 */
+	public static boolean valid(String path)
+	{
+		return (path != null) && path.startsWith("/") &&
+		  !path.contains("/../") && !path.endsWith("/..") &&
+		  (path.indexOf('\\') == -1) && (path.indexOf('\0') == -1);
+	}
+
+
+	/* Settings */
+
+	/**
+	 * Resources larger than this are not cached.
+	 * Defaults to 1/16 of the cache size.
+	 */
+	public Statics setEntryMax(long entryMax)
+	{
+		EX.assertx((entryMax >= 0L) && (entryMax <= cacheSize));
+		this.entryMax = entryMax;
+		return this;
+	}
+
+	protected volatile long entryMax;
+
+	/**
+	 * Value of Cache-Control header, or null.
+	 * Defaults to no-cache that tells the clients
+	 * to revalidate the content with ETags.
+	 */
+	public Statics setCacheControl(String cacheControl)
+	{
+		this.cacheControl = cacheControl;
+		return this;
+	}
+
+	protected volatile String cacheControl = "no-cache";
+
+	/**
+	 * Name of the resource of a directory path.
+	 * Defaults to index.html.
+	 */
+	public Statics setIndex(String index)
+	{
+		this.index = EX.asserts(index);
+		return this;
+	}
+
+	protected volatile String index = "index.html";
+
+
+	/* Statistics */
+
+	public long   getHits()
+	{
+		return hits.get();
+	}
+
+	public long   getMisses()
+	{
+		return misses.get();
+	}
+
+	public double getHitRatio()
+	{
+		final long h = hits.get(), m = misses.get();
+		return (h + m == 0L)?(0.0):((double) h / (h + m));
+	}
+
+	/**
+	 * The number of the bytes cached.
+	 */
+	public long   getMemory()
+	{
+		synchronized(cache)
+		{
+			return memory;
+		}
+	}
+
+	public int    getEntries()
+	{
+		synchronized(cache)
+		{
+			return cache.size();
+		}
+	}
+
+	/**
+	 * Drops all the cached entries.
+	 */
+	public void   clear()
+	{
+		synchronized(cache)
+		{
+			cache.clear();
+			memory = 0L;
+		}
+	}
+
+	protected final AtomicLong hits   = new AtomicLong();
+
+	protected final AtomicLong misses = new AtomicLong();
+
+
+	/* Callback */
+
+	public void act(Object... args)
+	{
+		final Request  req = (Request) args[0];
+		Response       res = (Response) args[1];
+
+		//?: {HEAD} as GET with no body
+		if("HEAD".equals(req.getMethod()))
+			res = head(res);
+		else if(!"GET".equals(req.getMethod()))
+		{
+			res.setStatus(405);
+			res.addHeader("Allow", "GET, HEAD");
+			res.write(null);
+			return;
+		}
+
+		String path = req.getPath();
+		if((path == null) || path.isEmpty())
+			path = "/";
+
+		//?: {a directory}
+		if(path.endsWith("/"))
+			path += index;
+
+		try
+		{
+			serve(path, req, res);
+		}
+		catch(IOException e)
+		{
+			throw EX.wrap(e);
+		}
+	}
+
+
+	/**
+	 * Wraps the response to answer HEAD request:
+	 * the status and the headers are as of GET,
+	 * but the body is not written.
+	 */
+	protected static Response head(final Response res)
+	{
+		return new Response()
+		{
+			public int  getStatus()
+			{
+				return res.getStatus();
+			}
+
+			public void setStatus(int status)
+			{
+				res.setStatus(status);
+			}
+
+			public void addHeader(String name, String value)
+			{
+				res.addHeader(name, value);
+			}
+
+			public void write(Input body)
+			{
+				res.write(null);
+			}
+		};
+	}
+
+
+	/* Content Types */
+
+	/**
+	 * Returns the content type by the extension
+	 * of the path, or application/octet-stream.
+	 */
+	public static String contentType(String path)
+	{
+		final int i = path.lastIndexOf('.');
+		String    t = null;
+
+		if((i != -1) && (path.indexOf('/', i) == -1))
+			t = TYPES.get(path.substring(i + 1).toLowerCase(Locale.ROOT));
+
+		return (t != null)?(t):("application/octet-stream");
+	}
+
+	private static final Map<String, String> TYPES =
+	  new HashMap<String, String>(64);
+
+	static
+	{
+		final String U = ";charset=UTF-8";
+		final String[] types = {
+
+		  "html",  "text/html" + U,
+		  "htm",   "text/html" + U,
+		  "css",   "text/css" + U,
+		  "js",    "application/javascript" + U,
+		  "mjs",   "application/javascript" + U,
+		  "json",  "application/json" + U,
+		  "map",   "application/json" + U,
+		  "txt",   "text/plain" + U,
+		  "csv",   "text/csv" + U,
+		  "xml",   "application/xml" + U,
+		  "svg",   "image/svg+xml" + U,
+		  "png",   "image/png",
+		  "jpg",   "image/jpeg",
+		  "jpeg",  "image/jpeg",
+		  "gif",   "image/gif",
+		  "webp",  "image/webp",
+		  "ico",   "image/x-icon",
+		  "woff",  "font/woff",
+		  "woff2", "font/woff2",
+		  "ttf",   "font/ttf",
+		  "otf",   "font/otf",
+		  "eot",   "application/vnd.ms-fontobject",
+		  "wasm",  "application/wasm",
+		  "pdf",   "application/pdf",
+		  "zip",   "application/zip",
+		  "gz",    "application/gzip",
+		  "mp3",   "audio/mpeg",
+		  "mp4",   "video/mp4",
+		  "webm",  "video/webm"
+		};
+
+		for(int i = 0;(i < types.length);i += 2)
+			TYPES.put(types[i], types[i+1]);
+	}
+
+
+	/* protected: serving */
+
+	protected void serve(String path, Request req, Response res)
+	  throws IOException
+	{
+		Entry e = cached(path);
+
+		if(e != null)
+			hits.incrementAndGet();
+		else
+		{
+			misses.incrementAndGet();
+
+			//~: find the resource
+			final Resource r = source.find(path);
+
+			//?: {not found}
+			if(r == null)
+			{
+				res.setStatus(404);
+				res.write(null);
+				return;
+			}
+
+			//?: {too large to cache}
+			if((e = load(path, r)) == null)
+			{
+				stream(path, r, req, res);
+				return;
+			}
+
+			cache(e);
+		}
+
+		//?: {gzip variant is accepted}
+		final boolean gz = (e.gzip != null) && "gzip".equals(
+		  Responses.negotiate(req.getHeader(Known.ACCEPT_ENCODING)));
+
+		//~: the validators
+		if(e.lastModified != null)
+			res.addHeader("Last-Modified", e.lastModified);
+		if(cacheControl != null)
+			res.addHeader("Cache-Control", cacheControl);
+		res.addHeader("Accept-Ranges", "bytes");
+		if(e.gzip != null)
+			res.addHeader("Vary", "Accept-Encoding");
+
+		//?: {not modified} any of the variants
+		if(notModified(req, e.etag, e.gzipEtag, e.modified))
+		{
+			res.addHeader("ETag", (gz)?(e.gzipEtag):(e.etag));
+			res.setStatus(304);
+			res.write(null);
+			return;
+		}
+
+		//?: {byte ranges requested} of the identity bytes only
+		final long[] rs = ranges(req, e.bytes.length, e.etag, e.lastModified);
+		if(rs != null)
+		{
+			res.addHeader("ETag", e.etag);
+			ranges(res, ByteBuffer.wrap(e.bytes), e.contentType, rs);
+			return;
+		}
+
+		byte[] b = e.bytes;
+		res.addHeader("ETag", (gz)?(e.gzipEtag):(e.etag));
+		res.addHeader("Content-Type", e.contentType);
+
+		if(gz)
+		{
+			b = e.gzip;
+			res.addHeader("Content-Encoding", "gzip");
+		}
+
+		res.addHeader("Content-Length", Integer.toString(b.length));
+		res.write(input(b));
+	}
+
+	/**
+	 * Writes the resource not cached.
+	 */
+	protected void stream(String path, Resource r, Request req, Response res)
+	  throws IOException
+	{
+		final long   m = r.modified();
+		final String l = (m > 0L)?(Responses.date(m)):(null);
+
+		if(l != null)
+			res.addHeader("Last-Modified", l);
+		if(cacheControl != null)
+			res.addHeader("Cache-Control", cacheControl);
+
+		//?: {not modified}
+		if(notModified(req, null, null, m))
+		{
+			res.setStatus(304);
+			res.write(null);
+			return;
+		}
+
+		final String t = contentType(path);
+		final long   z = r.length();
+
+		//?: {ranges of the file}
+		final long[] rs = (z < 0L)?(null):(ranges(req, z, null, l));
+		if(rs != null)
+		{
+			final ByteBuffer b = mapped(path, r);
+
+			if(b != null)
+			{
+				res.addHeader("Accept-Ranges", "bytes");
+				ranges(res, b, t, rs);
+				return;
+			}
+		}
+
+		res.addHeader("Content-Type", t);
+
+		//?: {transfer the file}
+		if(res instanceof Responses.Transfer)
+		{
+			final FileChannel c = r.channel();
+
+			if(c != null) try
+			{
+				res.addHeader("Accept-Ranges", "bytes");
+				((Responses.Transfer)res).transfer(c, r.offset(), z);
+				return;
+			}
+			finally
+			{
+				c.close();
+			}
+		}
+
+		if(z >= 0L)
+			res.addHeader("Content-Length", Long.toString(z));
+
+		final InputStream i = r.open();
+
+		try
+		{
+			res.write(Support.input(i));
+		}
+		finally
+		{
+			i.close();
+		}
+	}
+
+
+	/* protected: byte ranges */
+
+	/**
+	 * Limit of the ranges in a request.
+	 * More ranges are ignored.
+	 */
+	public static final int RANGES_MAX = 16;
+
+	/**
+	 * Parses Range header into the pairs of the first
+	 * and the last positions of the ranges satisfiable.
+	 * Returns null when the header is to be ignored.
+	 */
+	public static long[] ranges(String range, long length)
+	{
+		if(range == null)
+			return null;
+
+		range = range.trim();
+		if(!range.regionMatches(true, 0, "bytes=", 0, 6))
+			return null;
+
+		final String[] xs = range.substring(6).split(",");
+		if(xs.length > RANGES_MAX)
+			return null;
+
+		long[] rs = new long[xs.length * 2];
+		int    n  = 0;
+
+		for(String x : xs) try
+		{
+			x = x.trim();
+
+			final int i = x.indexOf('-');
+			long s, e;
+
+			//?: {not a range}
+			if(i == -1)
+				return null;
+
+			//?: {suffix range}
+			if(i == 0)
+			{
+				final long l = Long.parseLong(x.substring(1).trim());
+
+				if(l < 0L)
+					return null;
+
+				//?: {empty suffix}
+				if(l == 0L)
+					continue;
+
+				s = Math.max(0L, length - l);
+				e = length - 1;
+			}
+			else
+			{
+				s = Long.parseLong(x.substring(0, i).trim());
+				e = length - 1;
+
+				if(s < 0L)
+					return null;
+
+				//?: {has the last position}
+				if(i != x.length() - 1)
+				{
+					final long l = Long.parseLong(x.substring(i + 1).trim());
+
+					if(l < s)
+						return null;
+
+					e = Math.min(e, l);
+				}
+			}
+
+			//?: {not satisfiable}
+			if(s >= length)
+				continue;
+
+			rs[n++] = s;
+			rs[n++] = e;
+		}
+		catch(NumberFormatException ignore)
+		{
+			return null;
+		}
+
+		if(n != rs.length)
+		{
+			final long[] x = new long[n];
+			System.arraycopy(rs, 0, x, 0, n);
+			rs = x;
+		}
+
+		return rs;
+	}
+
+	/**
+	 * Returns the ranges of the request, empty when not
+	 * satisfiable, or null to send the whole content.
+	 */
+	protected long[] ranges(Request req, long length, String etag, String lastModified)
+	{
+		final String ir = req.getHeader(Known.IF_RANGE);
+
+		//?: {the validator is not the current} strong comparison
+		if(ir != null)
+		{
+			final String x = ir.trim();
+
+			if(x.startsWith("\"") || x.startsWith("W/"))
+			{
+				if(!x.equals(etag))
+					return null;
+			}
+			else if(!x.equals(lastModified))
+				return null;
+		}
+
+		return ranges(req.getHeader(Known.RANGE), length);
+	}
+
+	/**
+	 * Writes the byte ranges of the content: single
+	 * range, multipart/byteranges, or 416 status.
+	 */
+	protected void ranges(Response res, ByteBuffer body, String type, long[] rs)
+	{
+		final long length = body.limit();
+
+		//?: {not satisfiable}
+		if(rs.length == 0)
+		{
+			res.setStatus(416);
+			res.addHeader("Content-Range", "bytes */" + length);
+			res.addHeader("Content-Length", "0");
+			res.write(null);
+			return;
+		}
+
+		res.setStatus(206);
+
+		//?: {single range}
+		if(rs.length == 2)
+		{
+			res.addHeader("Content-Type", type);
+			res.addHeader("Content-Range", "bytes " + rs[0] + "-" + rs[1] + "/" + length);
+			res.addHeader("Content-Length", Long.toString(rs[1] - rs[0] + 1));
+			res.write(input(body, rs[0], rs[1] - rs[0] + 1));
+			return;
+		}
+
+		//~: the heads of the parts
+		final String   b = boundary();
+		final byte[][] h = new byte[rs.length / 2][];
+		final byte[]   t = ascii("\r\n--" + b + "--\r\n");
+		long           l = t.length;
+
+		for(int i = 0;(i < rs.length);i += 2)
+		{
+			h[i/2] = ascii("\r\n--" + b + "\r\nContent-Type: " + type +
+			  "\r\nContent-Range: bytes " + rs[i] + "-" + rs[i+1] + "/" +
+			  length + "\r\n\r\n");
+
+			l += h[i/2].length + rs[i+1] - rs[i] + 1;
+		}
+
+		res.addHeader("Content-Type", "multipart/byteranges; boundary=" + b);
+		res.addHeader("Content-Length", Long.toString(l));
+
+		for(int i = 0;(i < rs.length);i += 2)
+		{
+			res.write(input(h[i/2]));
+			res.write(input(body, rs[i], rs[i+1] - rs[i] + 1));
+		}
+
+		res.write(input(t));
+	}
+
+	protected static String boundary()
+	{
+		return "lohttp-" + Long.toHexString(System.nanoTime()) +
+		  "-" + Long.toHexString(BOUNDARIES.incrementAndGet());
+	}
+
+	private static final AtomicLong BOUNDARIES = new AtomicLong();
+
+	private static byte[] ascii(String s)
+	{
+		try
+		{
+			return s.getBytes("ASCII");
+		}
+		catch(Throwable e)
+		{
+			throw EX.wrap(e);
+		}
+	}
+
+	/**
+	 * Maps the file of the resource into the memory.
+	 * Returns null when it has no channel, or it's
+	 * too large. The mappings are reused.
+	 */
+	protected ByteBuffer mapped(String path, Resource r)
+	  throws IOException
+	{
+		final long l = r.length(), m = r.modified();
+
+		if(l > Integer.MAX_VALUE)
+			return null;
+
+		synchronized(mappings)
+		{
+			final Mapped x = mappings.get(path);
+
+			//?: {mapped the same}
+			if((x != null) && (x.length == l) && (x.modified == m))
+				return x.buffer.duplicate();
+		}
+
+		final FileChannel c = r.channel();
+		if(c == null)
+			return null;
+
+		final MappedByteBuffer b;
+
+		try
+		{
+			b = c.map(FileChannel.MapMode.READ_ONLY, r.offset(), l);
+		}
+		finally
+		{
+			c.close(); //<-- mapping stays valid
+		}
+
+		synchronized(mappings)
+		{
+			mappings.put(path, new Mapped(l, m, b));
+		}
+
+		return b.duplicate();
+	}
+
+	/**
+	 * Recently mapped files in the access order.
+	 */
+	protected final LinkedHashMap<String, Mapped> mappings =
+	  new LinkedHashMap<String, Mapped>(16, 0.75f, true)
+	{
+		protected boolean removeEldestEntry(Map.Entry<String, Mapped> e)
+		{
+			return size() > MAPPINGS_MAX;
+		}
+	};
+
+	public static final int MAPPINGS_MAX = 16;
+
+	protected static final class Mapped
+	{
+		public Mapped(long length, long modified, MappedByteBuffer buffer)
+		{
+			this.length   = length;
+			this.modified = modified;
+			this.buffer   = buffer;
+		}
+
+		public final long length;
+
+		public final long modified;
+
+		public final MappedByteBuffer buffer;
+	}
+
+	/**
+	 * Checks If-None-Match, else If-Modified-Since
+	 * request headers against the resource. The tag
+	 * of the gzip variant (may be null) also matches.
+	 */
+	protected boolean notModified(Request req, String etag, String gzipEtag, long modified)
+	{
+		final String inm = req.getHeader(Known.IF_NONE_MATCH);
+
+		//?: {has entity tags} weak comparison
+		if(inm != null)
+		{
+			if(etag == null)
+				return false;
+
+			for(String x : inm.split(","))
+			{
+				x = x.trim();
+
+				if(x.startsWith("W/"))
+					x = x.substring(2);
+
+				if(x.equals("*") || x.equals(etag) || x.equals(gzipEtag))
+					return true;
+			}
+
+			return false;
+		}
+
+		final String ims = req.getHeader(Known.IF_MODIFIED);
+		if((ims == null) || (modified <= 0L))
+			return false;
+
+		//HINT: HTTP dates have the seconds precision.
+
+		final long t = Responses.date(ims);
+		return (t >= 0L) && (modified / 1000L <= t / 1000L);
+	}
+
+	/**
+	 * Loads the resource into the entry,
+	 * or returns null when it's too large.
+	 */
+	protected Entry load(String path, Resource r)
+	  throws IOException
+	{
+		final long max = entryMax;
+
+		//?: {known to be too large}
+		if(r.length() > max)
+			return null;
+
+		final Support.BytesStream bs = new Support.BytesStream();
+		final byte[]              bf = Support.BUFFERS.get();
+
+		try
+		{
+			final InputStream i = r.open();
+
+			try
+			{
+				for(int x;((x = i.read(bf)) > 0);)
+				{
+					bs.write(bf, 0, x);
+
+					if(bs.length() > max)
+						return null;
+				}
+			}
+			finally
+			{
+				i.close();
+			}
+
+			return new Entry(path, bs.bytes(), r.modified());
+		}
+		finally
+		{
+			Support.BUFFERS.free(bf);
+			bs.close();
+		}
+	}
+
+	protected Entry cached(String path)
+	{
+		synchronized(cache)
+		{
+			return cache.get(path);
+		}
+	}
+
+	/**
+	 * Puts the entry to the cache evicting the
+	 * least recently used above the size limit.
+	 */
+	protected void  cache(Entry e)
+	{
+		synchronized(cache)
+		{
+			final Entry x = cache.put(e.path, e);
+
+			if(x != null)
+				memory -= x.size();
+			memory += e.size();
+
+			//c: evict the eldest
+			final Iterator<Entry> i = cache.values().iterator();
+			while((memory > cacheSize) && i.hasNext())
+			{
+				final Entry o = i.next();
+
+				if(o != e)
+				{
+					i.remove();
+					memory -= o.size();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Entries in the access order.
+	 */
+	protected final LinkedHashMap<String, Entry> cache =
+	  new LinkedHashMap<String, Entry>(64, 0.75f, true);
+
+	/**
+	 * Size of the cached entries.
+	 */
+	protected long memory;
+
+
+	/* Cache Entry */
+
+	protected static final class Entry
+	{
+		public Entry(String path, byte[] bytes, long modified)
+		  throws IOException
+		{
+			this.path        = path;
+			this.bytes       = bytes;
+			this.modified    = modified;
+			this.contentType = contentType(path);
+			this.etag        = etag(bytes);
+
+			this.lastModified = (modified <= 0L)?(null):
+			  (Responses.date(modified));
+
+			this.gzip = ((bytes.length < 1024) ||
+			  !Responses.compressible(contentType))?(null):(gzip(bytes));
+
+			//HINT: strong validators differ by the encoding.
+
+			this.gzipEtag = (gzip == null)?(null):
+			  (etag.substring(0, etag.length() - 1) + "-gz\"");
+		}
+
+		public final String path;
+
+		public final String contentType;
+
+		/**
+		 * Strong ETag: SHA-1 of the bytes.
+		 */
+		public final String etag;
+
+		public final long   modified;
+
+		public final String lastModified;
+
+		public final byte[] bytes;
+
+		/**
+		 * Compressed bytes, or null.
+		 */
+		public final byte[] gzip;
+
+		/**
+		 * Strong ETag of the compressed bytes:
+		 * the one of the identity with -gz suffix.
+		 */
+		public final String gzipEtag;
+
+		public long size()
+		{
+			return bytes.length + ((gzip == null)?(0):(gzip.length));
+		}
+	}
+
+	protected static String etag(byte[] bytes)
+	{
+		final byte[] h;
+
+		try
+		{
+			h = MessageDigest.getInstance("SHA-1").digest(bytes);
+		}
+		catch(Throwable e)
+		{
+			throw EX.wrap(e);
+		}
+
+		final char[] s = new char[h.length * 2 + 2];
+		s[0] = s[s.length - 1] = '"';
+
+		for(int i = 0;(i < h.length);i++)
+		{
+			s[1 + i*2] = HEX[(h[i] >>> 4) & 0xF];
+			s[2 + i*2] = HEX[h[i] & 0xF];
+		}
+
+		return new String(s);
+	}
+
+	private static final char[] HEX =
+	  "0123456789abcdef".toCharArray();
+
+	/**
+	 * Returns gzip of the bytes, or null
+	 * when it's not smaller.
+	 */
+	protected static byte[] gzip(byte[] bytes)
+	  throws IOException
+	{
+		final Support.BytesStream bs = new Support.BytesStream();
+
+		try
+		{
+			final Support.DeflatingOutput d =
+			  new Support.DeflatingOutput(bs, true, 9);
+
+			d.write(bytes, 0, bytes.length);
+			d.finish();
+
+			return (bs.length() >= bytes.length)?(null):(bs.bytes());
+		}
+		finally
+		{
+			bs.close();
+		}
+	}
+
+	protected static Input input(ByteBuffer body, long offset, long length)
+	{
+		final ByteBuffer d = body.duplicate();
+
+		d.position((int) offset);
+		d.limit((int)(offset + length));
+
+		return new Input()
+		{
+			public int read(byte[] buf, int off, int len)
+			{
+				if(!d.hasRemaining())
+					return -1;
+
+				len = Math.min(len, d.remaining());
+				d.get(buf, off, len);
+
+				return len;
+			}
+		};
+	}
+
+	protected static Input input(final byte[] bytes)
+	{
+		return new Input()
+		{
+			public int read(byte[] buf, int off, int len)
+			{
+				if(position == bytes.length)
+					return -1;
+
+				len = Math.min(len, bytes.length - position);
+				System.arraycopy(bytes, position, buf, off, len);
+				position += len;
+
+				return len;
+			}
+
+			private int position;
+		};
+	}
+}
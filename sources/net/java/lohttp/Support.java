@@ -2,21 +2,27 @@ package net.java.lohttp;
 
 /* Java */
 
-import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.LinkedList;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 
 /**
@@ -28,6 +34,12 @@ public class Support
 {
 	/* Streaming Helpers */
 
+	/**
+	 * Pumps the bytes starting with a small buffer.
+	 * Each read that fills the buffer whole takes
+	 * the buffer of the next size class, thus bulk
+	 * transfers go in 64 KiB blocks.
+	 */
 	public static long  pump(InputStream i, OutputStream o)
 	  throws IOException
 	{
@@ -37,13 +49,19 @@ public class Support
 		try
 		{
 			for(int x;((x = i.read(b)) > 0);s += x)
+			{
 				o.write(b, 0, x);
 
+				//?: {filled the whole buffer}
+				if(x == b.length)
+					b = grow(b);
+			}
+
 			return s;
 		}
 		finally
 		{
-			Support.BUFFERS.free(b);
+			Support.free(b);
 		}
 	}
 
@@ -56,13 +74,19 @@ public class Support
 		try
 		{
 			for(int x;((x = i.read(b, 0, b.length)) > 0);s += x)
+			{
 				o.write(b, 0, x);
 
+				//?: {filled the whole buffer}
+				if(x == b.length)
+					b = grow(b);
+			}
+
 			return s;
 		}
 		finally
 		{
-			Support.BUFFERS.free(b);
+			Support.free(b);
 		}
 	}
 
@@ -85,76 +109,512 @@ public class Support
 	}
 
 
+	/**
+	 * Input of the file region by the positional
+	 * reads not changing the channel position.
+	 */
+	public static Input input(final FileChannel file, long offset, long length)
+	{
+		EX.assertx((offset >= 0L) && (length >= 0L));
+		final long[] range = { offset, offset + length };
+
+		return new Input()
+		{
+			public int read(byte[] buf, int off, int len)
+			{
+				final long r = range[1] - range[0];
+				if(r <= 0L)
+					return -1;
+
+				try
+				{
+					final int x = file.read(ByteBuffer.wrap(buf, off,
+					  (int) Math.min(len, r)), range[0]);
+
+					if(x > 0)
+						range[0] += x;
+
+					return x;
+				}
+				catch(Throwable e)
+				{
+					throw EX.wrap(e);
+				}
+			}
+		};
+	}
+
+
 	/* Shared Pool of Buffers */
 
+	/**
+	 * Pool of 512 byte arrays: for the preambles,
+	 * the streams, and the general copying.
+	 */
 	public static final ByteBuffers BUFFERS =
-	  new ByteBuffers();
+	  new ByteBuffers(512, 1024);
+
+	/**
+	 * Pool of 8 KiB arrays to coalesce the
+	 * response preamble and the body writes.
+	 */
+	public static final ByteBuffers OUTPUTS =
+	  new ByteBuffers(8192, 256);
+
+	/**
+	 * Pool of 64 KiB arrays for the bulk transfers:
+	 * large uploads, and the file responses.
+	 */
+	public static final ByteBuffers BULKS =
+	  new ByteBuffers(65536, 64);
+
+	/**
+	 * Returns the pool of the smallest size class
+	 * having the buffers of the size given, or
+	 * the largest class.
+	 */
+	public static ByteBuffers buffers(long size)
+	{
+		if(size <= BUFFERS.size)
+			return BUFFERS;
+
+		if(size <= OUTPUTS.size)
+			return OUTPUTS;
+
+		return BULKS;
+	}
+
+	/**
+	 * Returns the buffer to the pool of it's size
+	 * class. Buffers of else sizes are left to GC.
+	 */
+	public static void  free(byte[] buf)
+	{
+		if(buf == null)
+			return;
+
+		if(buf.length == BUFFERS.size)
+			BUFFERS.free(buf);
+		else if(buf.length == OUTPUTS.size)
+			OUTPUTS.free(buf);
+		else if(buf.length == BULKS.size)
+			BULKS.free(buf);
+	}
+
+	public static void  free(Collection<byte[]> bufs)
+	{
+		if(bufs != null)
+			for(byte[] buf : bufs)
+				free(buf);
+	}
+
+	/**
+	 * Returns the magazines of the current thread
+	 * of all the size classes to the depots. Call it
+	 * before a short-lived thread (a virtual one)
+	 * exits, else the buffers are lost for reuse.
+	 */
+	public static void  flush()
+	{
+		BUFFERS.flush();
+		OUTPUTS.flush();
+		BULKS.flush();
+	}
+
+	/**
+	 * Frees the buffer given and returns one
+	 * of the next size class. The largest
+	 * one is returned as-is.
+	 */
+	public static byte[] grow(byte[] buf)
+	{
+		if(buf.length >= BULKS.size)
+			return buf;
+
+		final byte[] b = buffers(buf.length + 1).get();
+		free(buf);
+
+		return b;
+	}
 
 	/**
-	 * Weak buffer of 512 byte arrays.
-	 * Effective with mutual threads.
+	 * Pool of the byte arrays of the same size.
+	 *
+	 * Each thread has two small magazines of the
+	 * buffers, thus most of the calls touch no shared
+	 * state. Full magazines are exchanged with the
+	 * global depot having bounded number of slots
+	 * updated lock-free. When the depot is full,
+	 * the magazine is dropped (trimmed) to GC.
+	 * Partial magazines are joined with the ones
+	 * of the depot not to take the slots.
+	 *
+	 * Note that the depot capacity does not bound
+	 * the buffers held in the magazines of the
+	 * threads: up to two magazines per thread.
+	 * They are lost when the thread exits, unless
+	 * {@link #flush()} is called before that.
+	 *
+	 * The buffers may be freed by else thread.
 	 */
 	public static final class ByteBuffers
 	{
+		/**
+		 * Creates the pool of the buffers of the size,
+		 * and the depot capacity in the buffers.
+		 */
+		public ByteBuffers(int size, int depot)
+		{
+			EX.assertx((size > 0) && (depot >= 0));
+
+			this.size     = size;
+			this.magazine = Math.max(2, Math.min(16, 32768 / size));
+			this.depot    = new AtomicReferenceArray<Magazine>(
+			  (depot + magazine - 1) / magazine);
+		}
+
+		public final int size;
+
+		/**
+		 * The number of the buffers in a magazine.
+		 */
+		public final int magazine;
+
 		public byte[] get()
 		{
-			final WeakReference<Queue<byte[]>> wr = this.pool.get();
-			final Queue<byte[]> q = (wr == null)?(null):(wr.get());
+			final Local l = locals.get();
+
+			//?: {loaded is empty} swap with the previous
+			if(l.loaded.count == 0)
+			{
+				if(l.previous.count != 0)
+					l.swap();
+				else
+				{
+					//~: take full one from the depot
+					final Magazine m = take();
+
+					//?: {depot is empty}
+					if(m == null)
+					{
+						misses.incrementAndGet();
+						return new byte[size];
+					}
+
+					l.loaded = m;
+				}
+			}
+
+			//~: count the hits
+			if(++l.hits == 256)
+			{
+				hits.addAndGet(l.hits);
+				l.hits = 0;
+			}
+
+			return l.loaded.pop();
+		}
+
+		public void   free(byte[] buf)
+		{
+			EX.assertx((buf != null) && (buf.length == size));
+			final Local l = locals.get();
 
-			//?: {queue does not exist}
-			if(q == null)
-				return new byte[512];
+			//?: {loaded is full}
+			if(l.loaded.count == magazine)
+			{
+				//?: {previous is full} put it to the depot
+				if(l.previous.count == magazine)
+				{
+					put(l.previous);
+					l.previous = new Magazine(magazine);
+				}
 
-			//~: poll the quueue
-			final byte[] b = q.poll();
+				l.swap();
+			}
 
-			//~: return | create
-			return (b != null)?(b):(new byte[512]);
+			l.loaded.push(buf);
 		}
 
 		public void   free(Collection<byte[]> bufs)
 		{
-			//?: {nothing to do}
-			if((bufs == null) || bufs.isEmpty())
-				return;
+			if(bufs != null)
+				for(byte[] buf : bufs)
+					if((buf != null) && (buf.length == size))
+						free(buf);
+		}
+
+		/**
+		 * Puts the buffers of the current thread to the
+		 * depot (the partial magazines are joined) and
+		 * forgets the magazines of the thread.
+		 */
+		public void   flush()
+		{
+			final Local l = locals.get();
+			locals.remove();
+
+			//~: join the previous into the loaded
+			while((l.previous.count != 0) && (l.loaded.count != magazine))
+				l.loaded.push(l.previous.pop());
+
+			store(l.loaded);
+			store(l.previous);
 
-			//~: existing pool
-			final WeakReference<Queue<byte[]>> wr = this.pool.get();
-			final Queue<byte[]> q = (wr == null)?(null):(wr.get());
+			if(l.hits != 0)
+				hits.addAndGet(l.hits);
+		}
+
+		/**
+		 * Drops the full magazines of the depot to
+		 * keep the number of the buffers given.
+		 * Magazines of the threads are not affected.
+		 */
+		public void   trim(int keep)
+		{
+			int n = 0;
 
-			if(q != null) //?: {queue does exist}
+			for(int i = 0;(i < depot.length());i++)
 			{
-				//~: add valid buffers
-				for(byte[] buf : bufs)
-					if((buf != null) && (buf.length == 512))
-						q.offer(buf);
+				final Magazine m = depot.get(i);
 
-				return;
+				if(m == null)
+					continue;
+
+				//?: {keep this one}
+				if(n + m.count <= keep)
+				{
+					n += m.count;
+					continue;
+				}
+
+				if(depot.compareAndSet(i, m, null))
+				{
+					stored.decrementAndGet();
+					trims.addAndGet(m.count);
+				}
+			}
+		}
+
+
+		/* Statistics */
+
+		/**
+		 * The number of the buffers reused.
+		 * Updated by the threads in batches.
+		 */
+		public long   getHits()
+		{
+			return hits.get();
+		}
+
+		/**
+		 * The number of the buffers allocated.
+		 */
+		public long   getMisses()
+		{
+			return misses.get();
+		}
+
+		/**
+		 * The number of the buffers dropped
+		 * as the depot was full, or trimmed.
+		 */
+		public long   getTrims()
+		{
+			return trims.get();
+		}
+
+		/**
+		 * The number of the buffers in the depot.
+		 * Flushed magazines may be partial, thus
+		 * the slots are scanned.
+		 */
+		public int    getDepot()
+		{
+			int n = 0;
+
+			for(int i = 0;(i < depot.length());i++)
+			{
+				final Magazine m = depot.get(i);
+
+				if(m != null)
+					n += m.count;
 			}
 
-			//~: create own pool
-			final Queue<byte[]> q2 = new ConcurrentLinkedQueue<byte[]>();
-			final WeakReference<Queue<byte[]>> wr2 =
-			  new WeakReference<Queue<byte[]>>(q2);
+			return n;
+		}
 
-			//?: {swapped it not to the field} waste the buffers
-			if(!this.pool.compareAndSet(wr, wr2))
-				return;
 
-			//~: add valid buffers
-			for(byte[] buf : bufs)
-				if((buf != null) && (buf.length == 512))
-					q2.offer(buf);
+		/* private: magazines */
+
+		private static final class Magazine
+		{
+			public Magazine(int n)
+			{
+				this.bufs = new byte[n][];
+			}
+
+			public final byte[][] bufs;
+
+			public int count;
+
+			public byte[] pop()
+			{
+				final byte[] b = bufs[--count];
+				bufs[count] = null;
+				return b;
+			}
+
+			public void   push(byte[] b)
+			{
+				bufs[count++] = b;
+			}
 		}
 
-		public void   free(byte[] buf)
+		/**
+		 * Magazines of a thread.
+		 */
+		private static final class Local
+		{
+			public Local(int n)
+			{
+				this.loaded   = new Magazine(n);
+				this.previous = new Magazine(n);
+			}
+
+			public Magazine loaded;
+
+			public Magazine previous;
+
+			/**
+			 * Hits not yet added to the total.
+			 */
+			public int      hits;
+
+			public void     swap()
+			{
+				final Magazine x = loaded;
+				loaded   = previous;
+				previous = x;
+			}
+		}
+
+		private final ThreadLocal<Local> locals = new ThreadLocal<Local>()
+		{
+			protected Local initialValue()
+			{
+				return new Local(magazine);
+			}
+		};
+
+		/**
+		 * Slots of the full magazines.
+		 */
+		private final AtomicReferenceArray<Magazine> depot;
+
+		/**
+		 * Approximate number of the magazines stored.
+		 */
+		private final AtomicInteger stored = new AtomicInteger();
+
+		private final AtomicLong hits   = new AtomicLong();
+		private final AtomicLong misses = new AtomicLong();
+		private final AtomicLong trims  = new AtomicLong();
+
+		/**
+		 * Index hint of the depot scans.
+		 */
+		private final AtomicInteger cursor = new AtomicInteger();
+
+		private Magazine take()
+		{
+			final int n = depot.length();
+
+			//?: {depot seems empty}
+			if(stored.get() <= 0)
+				return null;
+
+			for(int i = 0, j = cursor.get();(i < n);i++, j++)
+			{
+				final int    k = (j & 0x7FFFFFFF) % n;
+				final Magazine m = depot.get(k);
+
+				if((m != null) && depot.compareAndSet(k, m, null))
+				{
+					stored.decrementAndGet();
+					cursor.set(k);
+					return m;
+				}
+			}
+
+			return null;
+		}
+
+		private void     put(Magazine m)
 		{
-			EX.assertx((buf != null) && (buf.length == 512));
-			this.free(Collections.singleton(buf));
+			final int n = depot.length();
+
+			//?: {depot seems not full}
+			if(stored.get() < n)
+				for(int i = 0, j = cursor.get();(i < n);i++, j--)
+				{
+					final int k = (j & 0x7FFFFFFF) % n;
+
+					if(depot.compareAndSet(k, null, m))
+					{
+						stored.incrementAndGet();
+						cursor.set(k);
+						return;
+					}
+				}
+
+			//~: drop the magazine
+			trims.addAndGet(m.count);
 		}
 
-		private final AtomicReference<WeakReference<Queue<byte[]>>>
-			pool = new AtomicReference<WeakReference<Queue<byte[]>>>();
+		/**
+		 * Puts the full magazine to the depot, and
+		 * joins the partial one with the partial
+		 * magazines of the depot.
+		 */
+		private void     store(Magazine m)
+		{
+			final int n = depot.length();
+
+			for(int k = 0;(k < n) && (m.count != 0);k++)
+			{
+				//?: {is full}
+				if(m.count == magazine)
+					break;
+
+				final Magazine x = depot.get(k);
+
+				//?: {not a partial one}
+				if((x == null) || (x.count == magazine))
+					continue;
+
+				//?: {taken by else thread}
+				if(!depot.compareAndSet(k, x, null))
+					continue;
+
+				stored.decrementAndGet();
+
+				//~: fill the magazine from the taken
+				while((x.count != 0) && (m.count != magazine))
+					m.push(x.pop());
+
+				//?: {had filled it} store the rest
+				if(m.count == magazine)
+				{
+					put(m);
+					m = x;
+				}
+			}
+
+			if(m.count != 0)
+				put(m);
+		}
 	}
 
 
@@ -258,13 +718,9 @@ public class Support
 			EX.assertx(length >= 0L);
 			EX.assertn(take);
 
-			//HINT: all the buffers have fixed size 512.
-
-			int b = (int)(offset / 512);
-			int o = (int)(offset % 512);
-
-			//?: {no overflow}
-			EX.assertx(512L * b + o == offset);
+			final long l = locate(offset);
+			final int  b = (int)(l >>> 32);
+			final int  o = (int) l;
 
 			//c: for all buffers on the right
 			for(int i = b;(i < buffers.size());i++)
@@ -298,17 +754,28 @@ public class Support
 		public void        write(InputStream stream)
 		  throws IOException
 		{
-			byte[] buf = BUFFERS.get();
-			int    sz;
+			if(buffers == null)
+				throw new IOException("ByteStream is closed!");
 
-			try
-			{
-				while((sz = stream.read(buf)) > 0)
-					write(buf, 0, sz);
-			}
-			finally
+			//c: read directly into the buffers
+			while(true)
 			{
-				BUFFERS.free(buf);
+				byte[] x = buffers.isEmpty()?(null):
+				  buffers.get(buffers.size() - 1);
+
+				//?: {has no free space}
+				if((x == null) || (position == x.length))
+				{
+					buffers.add(x = segment().get());
+					position = 0;
+				}
+
+				final int sz = stream.read(x, position, x.length - position);
+				if(sz <= 0)
+					break;
+
+				position += sz;
+				length   += sz;
 			}
 		}
 
@@ -339,15 +806,8 @@ public class Support
 			EX.assertx(offset >= 0L);
 			EX.assertx(length >= 0L);
 
-			//HINT: all the buffers have fixed size 512.
-
-			int b = (int)(offset / 512);
-			int o = (int)(offset % 512);
-
-			//?: {no overflow}
-			EX.assertx(512L * b + o == offset);
-
-			return new Stream(b, o, length);
+			final long l = locate(offset);
+			return new Stream((int)(l >>> 32), (int) l, length);
 		}
 
 		public boolean     isNotCloseNext()
@@ -402,10 +862,8 @@ public class Support
 				//?: {no a buffer}
 				if(buffers.isEmpty())
 				{
-					byte[] xb = BUFFERS.get();
-					EX.assertx(xb.length == 512);
-
-					buffers.add(xb);
+					buffers.add(segment().get());
+					position = 0;
 					continue;
 				}
 
@@ -415,10 +873,7 @@ public class Support
 				//?: {has no free space in the current buffer}
 				if(s == 0)
 				{
-					byte[] xb = BUFFERS.get();
-					EX.assertx(xb.length == 512);
-
-					buffers.add(xb);
+					buffers.add(segment().get());
 					position = 0;
 					continue;
 				}
@@ -432,13 +887,79 @@ public class Support
 			}
 		}
 
+		/**
+		 * Moves the bytes starting from the offset to the
+		 * head of the pushback input. The buffers are not
+		 * copied and are returned to the pool when read.
+		 *
+		 * This stream is truncated to the buffers before
+		 * the one with the offset. If that buffer is shared
+		 * (its bytes before the offset are still needed),
+		 * it stays here, and the bytes after are copied
+		 * into a pooled buffer.
+		 */
+		public void move(long offset, PushbackInput to, boolean shared)
+		  throws IOException
+		{
+			if(buffers == null)
+				throw new IOException("ByteStream is closed!");
+
+			//?: {no bytes after the offset}
+			if(offset >= length)
+				return;
+
+			final int  n = buffers.size();
+			final long l = locate(offset);
+			final int  k = (int)(l >>> 32);
+			final int  o = (int) l;
+
+			//?: {has no bytes before}
+			if(o == 0)
+				shared = false;
+
+			//c: from the last buffer to the offset
+			for(int i = n - 1;(i >= k);i--)
+			{
+				final byte[] b = buffers.get(i);
+				final int    e = (i == n - 1)?(position):(b.length);
+				final int    f = (i == k)?(o):(0);
+
+				if(!shared || (i != k))
+				{
+					to.backPooled(b, f, e - f);
+					continue;
+				}
+
+				//~: copy the tail of the shared buffer
+				final byte[] x = buffers(e - f).get();
+				System.arraycopy(b, f, x, 0, e - f);
+				to.backPooled(x, 0, e - f);
+			}
+
+			//~: truncate the buffers
+			final int keep = (shared)?(k + 1):(k);
+			while(buffers.size() > keep)
+				buffers.remove(buffers.size() - 1);
+
+			if(shared)
+			{
+				position = o;
+				length   = offset;
+			}
+			else
+			{
+				position = (k == 0)?(0):(buffers.get(k - 1).length);
+				length   = offset - o;
+			}
+		}
+
 		public void erase()
 		  throws IOException
 		{
 			if(buffers == null)
 				throw new IOException("ByteStream is closed!");
 
-			BUFFERS.free(buffers);
+			Support.free(buffers);
 			buffers.clear();
 
 			length = position = 0;
@@ -462,7 +983,7 @@ public class Support
 				return;
 			}
 
-			BUFFERS.free(buffers);
+			Support.free(buffers);
 			buffers = null;
 		}
 
@@ -575,6 +1096,51 @@ public class Support
 
 		/* private: list of buffers */
 
+		/**
+		 * Pool of the next buffer. The streams start
+		 * with 512 bytes, and take larger classes as
+		 * they grow, thus the buffers of a stream
+		 * are of the mixed sizes.
+		 */
+		private ByteBuffers segment()
+		{
+			if(length < 4096L)
+				return BUFFERS;
+
+			if(length < 65536L)
+				return OUTPUTS;
+
+			return BULKS;
+		}
+
+		/**
+		 * Finds the buffer with the offset given.
+		 * Returns it's index in the high int, and
+		 * the offset within in the low one. Offset
+		 * over the end refers the end position.
+		 */
+		private long locate(long offset)
+		{
+			final int n = buffers.size();
+
+			for(int i = 0;(i < n);i++)
+			{
+				final int l = buffers.get(i).length;
+
+				//?: {the last buffer}
+				if(i + 1 == n)
+					return ((long) i << 32) | Math.min(offset, position);
+
+				//?: {in this buffer}
+				if(offset < l)
+					return ((long) i << 32) | offset;
+
+				offset -= l;
+			}
+
+			return 0L;
+		}
+
 		private ArrayList<byte[]> buffers =
 		  new ArrayList<byte[]>(16);
 
@@ -590,12 +1156,244 @@ public class Support
 	}
 
 
+	/* UTF-8 Decoding */
+
+	/**
+	 * Decodes UTF-8 bytes into a string. Malformed
+	 * sequences are replaced with U+FFFD. The chars
+	 * buffer is used when it's long enough, else
+	 * a temporary one is allocated.
+	 */
+	public static String utf8(byte[] b, int off, int len, char[] cs)
+	{
+		if((cs == null) || (cs.length < len))
+			cs = new char[len];
+
+		final int e = off + len;
+		int       n = 0;
+
+		for(int i = off;(i < e);)
+		{
+			int c = b[i++] & 0xFF;
+
+			//?: {ASCII}
+			if(c < 0x80)
+			{
+				cs[n++] = (char) c;
+				continue;
+			}
+
+			int k, m; //<-- following bytes, min code point
+
+			if((c & 0xE0) == 0xC0)
+			{
+				k = 1; m = 0x80; c &= 0x1F;
+			}
+			else if((c & 0xF0) == 0xE0)
+			{
+				k = 2; m = 0x800; c &= 0x0F;
+			}
+			else if((c & 0xF8) == 0xF0)
+			{
+				k = 3; m = 0x10000; c &= 0x07;
+			}
+			else //<-- not a leading byte
+			{
+				cs[n++] = '\uFFFD';
+				continue;
+			}
+
+			//c: the continuation bytes
+			int j = 0;
+			for(;(j < k) && (i + j < e);j++)
+			{
+				final int x = b[i + j] & 0xFF;
+
+				if((x & 0xC0) != 0x80)
+					break;
+
+				c = (c << 6) | (x & 0x3F);
+			}
+
+			i += j;
+
+			//?: {malformed, overlong, or a surrogate}
+			if((j < k) || (c < m) || (c > 0x10FFFF) || (c >= 0xD800 && c <= 0xDFFF))
+			{
+				cs[n++] = '\uFFFD';
+				continue;
+			}
+
+			if(c < 0x10000)
+				cs[n++] = (char) c;
+			else //~: surrogate pair
+			{
+				c -= 0x10000;
+				cs[n++] = (char)(0xD800 + (c >>> 10));
+				cs[n++] = (char)(0xDC00 + (c & 0x3FF));
+			}
+		}
+
+		return new String(cs, 0, n);
+	}
+
+
+	/* UTF-8 Encoding */
+
+	/**
+	 * Encodes the characters of the array from the
+	 * index (till the end index) into UTF-8 bytes of
+	 * the buffer region. Stops when the next character
+	 * does not fit the region. A surrogate not in the
+	 * pair is replaced with '?' as String.getBytes().
+	 *
+	 * Returns the index of the next character in the
+	 * high int, and the end offset of the bytes written
+	 * in the low one.
+	 */
+	public static long utf8(char[] cs, int i, int end, byte[] b, int off, int len)
+	{
+		final int e = off + len;
+		int       o = off;
+
+		while(i < end)
+		{
+			int c = cs[i];
+
+			//?: {ASCII} scan the run, then copy it
+			if(c < 0x80)
+			{
+				final int m = i + Math.min(end - i, e - o);
+				if(i == m) break;
+
+				//c: copy ASCII blocks of 8 chars
+				int k = i;
+				while(k + 8 <= m)
+				{
+					if((cs[k] | cs[k + 1] | cs[k + 2] | cs[k + 3] |
+					  cs[k + 4] | cs[k + 5] | cs[k + 6] | cs[k + 7]) >= 0x80)
+						break;
+
+					b[o    ] = (byte) cs[k    ];
+					b[o + 1] = (byte) cs[k + 1];
+					b[o + 2] = (byte) cs[k + 2];
+					b[o + 3] = (byte) cs[k + 3];
+					b[o + 4] = (byte) cs[k + 4];
+					b[o + 5] = (byte) cs[k + 5];
+					b[o + 6] = (byte) cs[k + 6];
+					b[o + 7] = (byte) cs[k + 7];
+					k += 8; o += 8;
+				}
+
+				//c: the tail of the run
+				while((k < m) && ((c = cs[k]) < 0x80))
+				{
+					b[o++] = (byte) c;
+					k++;
+				}
+
+				i = k;
+				continue;
+			}
+
+			//?: {two bytes} as Cyrillic, run them
+			if(c < 0x800)
+			{
+				final int m = i + Math.min(end - i, (e - o) >> 1);
+				if(i == m) break;
+
+				do
+				{
+					b[o    ] = (byte)(0xC0 | (c >>> 6));
+					b[o + 1] = (byte)(0x80 | (c & 0x3F));
+					o += 2;
+				}
+				while((++i < m) && ((c = cs[i]) >= 0x80) && (c < 0x800));
+
+				continue;
+			}
+
+			//?: {not a surrogate}
+			if((c < 0xD800) || (c > 0xDFFF))
+			{
+				if(e - o < 3) break;
+				b[o++] = (byte)(0xE0 | (c >>> 12));
+				b[o++] = (byte)(0x80 | ((c >>> 6) & 0x3F));
+				b[o++] = (byte)(0x80 | (c & 0x3F));
+				i++;
+				continue;
+			}
+
+			final int x = (i + 1 < end)?(cs[i + 1]):(0);
+
+			//?: {not a high-low pair}
+			if((c > 0xDBFF) || (x < 0xDC00) || (x > 0xDFFF))
+			{
+				if(o == e) break;
+				b[o++] = '?';
+				i++;
+				continue;
+			}
+
+			if(e - o < 4) break;
+			c = 0x10000 + ((c - 0xD800) << 10) + (x - 0xDC00);
+
+			b[o++] = (byte)(0xF0 | (c >>> 18));
+			b[o++] = (byte)(0x80 | ((c >>> 12) & 0x3F));
+			b[o++] = (byte)(0x80 | ((c >>> 6) & 0x3F));
+			b[o++] = (byte)(0x80 | (c & 0x3F));
+			i += 2;
+		}
+
+		return ((long) i << 32) | o;
+	}
+
+	/**
+	 * Copies the characters of the sequence into the
+	 * array. Strings and the builders are copied
+	 * in bulk, else sequences char-by-char.
+	 */
+	public static void chars(CharSequence s, int i, int end, char[] cs, int off)
+	{
+		if(s instanceof String)
+			((String) s).getChars(i, end, cs, off);
+		else if(s instanceof StringBuilder)
+			((StringBuilder) s).getChars(i, end, cs, off);
+		else if(s instanceof StringBuffer)
+			((StringBuffer) s).getChars(i, end, cs, off);
+		else
+			while(i < end)
+				cs[off++] = s.charAt(i++);
+	}
+
+	/**
+	 * Returns the length of the chunk of the sequence
+	 * starting from the index not greater than the
+	 * limit, not splitting a surrogate pair.
+	 */
+	public static int   chunk(CharSequence s, int i, int limit)
+	{
+		final int l = s.length() - i;
+
+		//?: {the rest fits}
+		if(l <= limit)
+			return l;
+
+		//c: not end with a high surrogate
+		int n = limit;
+		while((n < l) && Character.isHighSurrogate(s.charAt(i + n - 1)))
+			n++;
+
+		return n;
+	}
+
+
 	/* Characters Bytes */
 
 	/**
-	 * Takes a character sequence, splits it in
-	 * multiple small buffers (on demand) and
-	 * provides them as input stream.
+	 * Takes a character sequence and encodes it
+	 * as UTF-8 input stream directly into the
+	 * buffers of the reads.
 	 *
 	 * Replaces String.getBytes("UTF-8") not
 	 * producing large byte buffers.
@@ -604,7 +1402,7 @@ public class Support
 	{
 		public CharBytes(CharSequence string)
 		{
-			this(256, string);
+			this(1024, string);
 		}
 
 		public CharBytes(int buffer, CharSequence string)
@@ -612,15 +1410,6 @@ public class Support
 			this.buffer = buffer;
 			this.string = EX.assertn(string);
 			EX.assertx(buffer > 0);
-
-			try
-			{
-				this.o = new OutputStreamWriter(w, "UTF-8");
-			}
-			catch(Exception e)
-			{
-				throw EX.wrap(e);
-			}
 		}
 
 		public final CharSequence string;
@@ -631,52 +1420,57 @@ public class Support
 		public int   read()
 		  throws IOException
 		{
-			if((b == null) || (j == b.length))
-			{
-				b = next();
-
-				if(b == null)
-					return -1;
-			}
+			if((p == n) && !pend())
+				return -1;
 
-			return b[j++] & 0xFF;
+			return b[p++] & 0xFF;
 		}
 
 		public int   read(byte[] buf, int o, int l)
 		  throws IOException
 		{
-			int s = 0;
+			final int ob = o;
 
 			while(l > 0)
 			{
-				if((b == null) || (j == b.length))
+				//?: {has bytes of a character split}
+				if(p < n)
 				{
-					b = next();
-
-					if(b == null)
-						break;
+					buf[o++] = b[p++];
+					l--;
+					continue;
 				}
 
-				//~: the remaining length
-				int x = Math.min(l, b.length - j);
+				//?: {no characters}
+				if((ci == cn) && !chunk())
+					break;
 
-				System.arraycopy(b, j, buf, o, x);
-				j += x; o += x; l -= x; s += x;
-			}
+				final long r = utf8(cs, ci, cn, buf, o, l);
+				final int  e = (int) r;
+
+				ci = (int)(r >>> 32);
+
+				//?: {the character does not fit} split it
+				if(e == o)
+				{
+					pend();
+					continue;
+				}
 
-			if(s > 0)
-				return s;
+				l -= e - o;
+				o  = e;
+			}
 
-			if((b == null) || (j == b.length))
-				b = next();
+			if(o > ob)
+				return o - ob;
 
-			return (b == null)?(-1):(0);
+			return ((ci < cn) || (i < string.length()) || (p < n))?(0):(-1);
 		}
 
 		public void  close()
 		{
-			j = string.length();
-			b = null;
+			i  = string.length();
+			ci = cn = p = n = 0;
 		}
 
 		public Input input()
@@ -698,98 +1492,74 @@ public class Support
 		}
 
 
-		/* private: local buffer */
+		/* private: encoding state */
 
 		/**
-		 * Converts the following sequence of characters
-		 * with support for surrogate pairs.
+		 * Copies the next chunk of the characters.
+		 * Returns false at the string end.
 		 */
-		private byte[] next()
-		  throws IOException
+		private boolean chunk()
 		{
-			final int sl = string.length();
+			if(i >= string.length())
+				return false;
 
-			//?: {no characters}
-			if(i >= sl)
-				return null;
+			final int l = Support.chunk(string, i, buffer);
+
+			if((cs == null) || (cs.length < l))
+				cs = new char[l];
+
+			chars(string, i, i + l, cs, 0);
+			i += l; ci = 0; cn = l;
+
+			return true;
+		}
 
-			//~: length to copy
-			int l = Math.min(buffer, sl - i);
+		/**
+		 * Encodes the next character into the local
+		 * bytes. Returns false at the string end.
+		 */
+		private boolean pend()
+		{
+			if((ci == cn) && !chunk())
+				return false;
 
-			//~: substring of the interest
-			String x = string.subSequence(i, i + l).toString();
+			final long r = utf8(cs, ci, cn, b, 0, 4);
 
-			//~: write it
-			o.write(x);
-			i += l;
-			o.flush();
+			ci = (int)(r >>> 32);
+			n  = (int) r;
+			p  = 0;
 
-			j = 0; //<-- start the new buffer
-			return w.reset();
+			return true;
 		}
 
 		/**
-		 * Current index in the string.
+		 * Index in the string of the next chunk.
 		 */
 		private int i;
 
 		/**
-		 * Current index in the buffer.
+		 * Characters of the current chunk, the
+		 * position and the end within.
 		 */
-		private int j;
+		private char[] cs;
+		private int    ci, cn;
 
 		/**
-		 * Current buffer.
+		 * Bytes of a character not fit the read
+		 * buffer, or of a single byte read.
 		 */
-		private byte[] b;
+		private final byte[] b = new byte[4];
 
 		/**
-		 * Approximated size of the bytes buffer.
-		 * Used primary for the testing.
+		 * Position and the end of the local bytes.
 		 */
-		private final int buffer;
+		private int p, n;
 
 		/**
-		 * Wrapper of the encoding stream
+		 * Number of the characters in a chunk.
+		 * Small values are for the testing.
 		 */
-		private final WrappingBytes w = new WrappingBytes();
-
-		private final OutputStreamWriter o;
-
-
-		/* Wrapping Bytes */
-
-		private class WrappingBytes extends OutputStream
-		{
-			public void   write(int b)
-			  throws IOException
-			{
-				bos.write(b);
-				length++;
-			}
-
-			public void   write(byte[] b, int off, int len)
-			  throws IOException
-			{
-				bos.write(b, off, len);
-				length += len;
-			}
-
-			public byte[] reset()
-			{
-				byte[] a = bos.toByteArray();
-
-				bos = new ByteArrayOutputStream(buffer * 2);
-				length = 0;
-
-				return a;
-			}
-
-			private ByteArrayOutputStream bos =
-			  new ByteArrayOutputStream(buffer * 2);
-
-			private int length;
-		}
+		private final int buffer;
 	}
 
 
@@ -855,87 +1625,1176 @@ public class Support
 	}
 
 
-	/* Composite Input Stream */
+	/* Chunked Input Stream */
 
-	public static class CompositeInput extends InputStream
+	/**
+	 * Decodes the body of chunked transfer encoding.
+	 * The size lines are read from the pooled buffers
+	 * of the pushback input, the data go directly to
+	 * the array of the caller. The stream never reads
+	 * over the last chunk and the trailer: the bytes
+	 * of the next request stay in the pushback input.
+	 */
+	public static final class ChunkedInput extends InputStream
 	{
-		public CompositeInput(InputStream... inputs)
+		public ChunkedInput(PushbackInput input, long limit)
 		{
-			this.inputs = inputs;
+			this.input = EX.assertn(input);
+			this.limit = limit;
+
+			EX.assertx(limit >= 0L);
 		}
 
-		protected final InputStream[] inputs;
+		public final PushbackInput input;
 
 
 		/* Input Stream */
 
-		public int read()
+		public int  read()
 		  throws IOException
 		{
-			while(index < inputs.length)
-			{
-				int b = inputs[index].read();
-
-				if(b == -1)
-					index++;
-				else
-					return b;
-			}
-
-			return -1;
+			return (read(one, 0, 1) <= 0)?(-1):(one[0] & 0xFF);
 		}
 
-		public int read(byte[] b, int off, int len)
+		public int  read(byte[] b, int off, int len)
 		  throws IOException
 		{
-			int s = 0;
-
 			//?: {wrong request}
 			if(len == 0) return 0;
 			if(len < 0) throw new IOException("Illegal array length!");
 
-			//c: input operations
-			while((index < inputs.length) && (len > 0))
-			{
-				int x = inputs[index].read(b, off, len);
+			//?: {the chunk is over}
+			if((chunk == 0L) && !next())
+				return -1;
 
-				if(x <= 0)
-				{
-					index++;
-					continue;
-				}
+			if(len > chunk)
+				len = (int) chunk;
 
-				//~: advance the buffer
-				s += x; off += x; len -= x;
-			}
+			final int s = input.read(b, off, len);
 
-			return (s == 0)?(-1):(s);
+			if(s <= 0)
+				throw new EOFException("Chunked body is not terminated!");
+
+			chunk -= s;
+			return s;
 		}
 
-		protected int index;
+		public int  available()
+		  throws IOException
+		{
+			return (int) Math.min(chunk, input.available());
+		}
 
 		public void close()
 		  throws IOException
 		{
-			Throwable error = null;
+			input.close();
+		}
 
-			for(InputStream i : inputs) try
-			{
-				i.close();
-			}
-			catch(Throwable e)
-			{
-				error = EX.sup(error, e);
-			}
 
-			if(error instanceof IOException)
-				throw (IOException) error;
-			else if(error != null)
-				throw EX.wrap(error);
+		/* private: chunks */
+
+		private final long    limit;
+		private long          total;
+		private long          chunk;
+		private boolean       started;
+		private boolean       done;
+		private final byte[]  one  = new byte[1];
+		private final StringBuilder line = new StringBuilder(16);
+
+		/**
+		 * Reads the next chunk size. Returns false
+		 * when the last chunk and the trailer are read.
+		 */
+		private boolean next()
+		  throws IOException
+		{
+			if(done)
+				return false;
+
+			//?: {not the first chunk} CRLF of the data
+			if(started && (line() != 0))
+				throw new IOException("Malformed chunk end!");
+			started = true;
+
+			//~: hexadecimal size, extensions are ignored
+			final int n = line();
+			long size = 0L;
+			int  i    = 0;
+
+			for(;(i < n);i++)
+			{
+				final int d = Character.digit(line.charAt(i), 16);
+
+				if(d < 0)
+					break;
+
+				if(size > (Long.MAX_VALUE >> 4))
+					throw new IOException("Chunk size is too large!");
+
+				size = (size << 4) | d;
+			}
+
+			if((i == 0) || ((i < n) && (line.charAt(i) != ';') &&
+			  (line.charAt(i) != ' ') && (line.charAt(i) != '\t')))
+				throw new IOException("Malformed chunk size!");
+
+			//?: {the last chunk} skip the trailer
+			if(size == 0L)
+			{
+				while(line() != 0);
+
+				done = true;
+				return false;
+			}
+
+			if((total += size) > limit)
+				throw new IOException("Chunked body is over the limit!");
+
+			chunk = size;
+			return true;
+		}
+
+		/**
+		 * Reads the line without CRLF (LF only is
+		 * also accepted). Returns the length.
+		 */
+		private int     line()
+		  throws IOException
+		{
+			line.setLength(0);
+
+			while(true)
+			{
+				//HINT: fill() reads the pooled buffer, thus
+				// single byte reads do not touch the socket.
+
+				if(!input.fill())
+					throw new EOFException("Chunked body is not terminated!");
+
+				final int c = input.read();
+
+				if(c == '\n')
+					break;
+
+				if(line.length() == LINE)
+					throw new IOException("Chunk line is too long!");
+
+				line.append((char) c);
+			}
+
+			//~: remove CR
+			final int n = line.length();
+			if((n != 0) && (line.charAt(n - 1) == '\r'))
+				line.setLength(n - 1);
+
+			return line.length();
+		}
+
+		private static final int LINE = 1024;
+	}
+
+
+	/* Inflating Input Stream */
+
+	/**
+	 * Inflates gzip encoded input stream. Compressed
+	 * bytes are read into a pooled buffer. The native
+	 * memory of the inflater is freed on the release.
+	 * Concatenated gzip members are read till the
+	 * input end. The size of the bytes inflated
+	 * is limited.
+	 */
+	public static final class InflatingInput extends InputStream
+	{
+		public InflatingInput(InputStream input, long limit)
+		{
+			this.input = EX.assertn(input);
+			this.limit = limit;
+
+			EX.assertx(limit >= 0L);
+		}
+
+		public final InputStream input;
+
+		/**
+		 * Returns the buffer to the pool, and ends
+		 * the inflater. The stream is over after
+		 * this call.
+		 */
+		public void release()
+		{
+			final byte[]   b = this.buf;
+			final Inflater i = this.inflater;
+
+			buf      = null;
+			inflater = null;
+			done     = true;
+
+			if(b != null)
+				OUTPUTS.free(b);
+
+			if(i != null)
+				i.end();
+		}
+
+
+		/* Input Stream */
+
+		public int  read()
+		  throws IOException
+		{
+			return (read(one, 0, 1) <= 0)?(-1):(one[0] & 0xFF);
+		}
+
+		public int  read(byte[] b, int off, int len)
+		  throws IOException
+		{
+			//?: {wrong request}
+			if(len == 0) return 0;
+			if(len < 0) throw new IOException("Illegal array length!");
+
+			if(done)
+				return -1;
+
+			//?: {the first read}
+			if(buf == null)
+			{
+				buf      = OUTPUTS.get();
+				inflater = new Inflater(true);
+				header();
+			}
+
+			try
+			{
+				while(true)
+				{
+					final int s = inflater.inflate(b, off, len);
+
+					if(s > 0)
+					{
+						crc.update(b, off, s);
+
+						if((total += s) > limit)
+							throw new IOException("Inflated body is over the limit!");
+
+						return s;
+					}
+
+					//?: {member end}
+					if(inflater.finished())
+					{
+						p = e - inflater.getRemaining();
+
+						if(trailer())
+							continue;
+
+						release();
+						return -1;
+					}
+
+					if(inflater.needsDictionary())
+						throw new IOException("Malformed gzip body!");
+
+					//?: {feed more bytes}
+					if(inflater.needsInput())
+					{
+						if((p == e) && !more())
+							throw new EOFException("Gzip body is truncated!");
+
+						inflater.setInput(buf, p, e - p);
+						p = e;
+					}
+				}
+			}
+			catch(DataFormatException x)
+			{
+				release();
+				throw new IOException("Malformed gzip body: " + x.getMessage());
+			}
+			catch(IOException x)
+			{
+				release();
+				throw x;
+			}
+		}
+
+		public void close()
+		  throws IOException
+		{
+			try
+			{
+				release();
+			}
+			finally
+			{
+				input.close();
+			}
+		}
+
+
+		/* private: gzip members */
+
+		private final long   limit;
+		private long         total;
+		private boolean      done;
+		private Inflater     inflater;
+		private final CRC32  crc = new CRC32();
+		private final byte[] one = new byte[1];
+
+		/**
+		 * Pooled buffer, position, and the end.
+		 */
+		private byte[]       buf;
+		private int          p, e;
+
+		private boolean more()
+		  throws IOException
+		{
+			final int s = input.read(buf, 0, buf.length);
+
+			p = 0;
+			e = Math.max(s, 0);
+
+			return (s > 0);
+		}
+
+		private int     u()
+		  throws IOException
+		{
+			if((p == e) && !more())
+				throw new EOFException("Gzip body is truncated!");
+
+			return buf[p++] & 0xFF;
+		}
+
+		private void    header()
+		  throws IOException
+		{
+			if((u() != 0x1f) || (u() != 0x8b) || (u() != 8))
+				throw new IOException("Malformed gzip header!");
+
+			final int f = u();
+
+			//~: time, extra flags, OS
+			for(int i = 0;(i < 6);i++)
+				u();
+
+			//?: {FEXTRA}
+			if((f & 4) != 0)
+				for(int i = u() | (u() << 8);(i > 0);i--)
+					u();
+
+			//?: {FNAME}
+			if((f & 8) != 0)
+				while(u() != 0);
+
+			//?: {FCOMMENT}
+			if((f & 16) != 0)
+				while(u() != 0);
+
+			//?: {FHCRC}
+			if((f & 2) != 0)
+			{
+				u();
+				u();
+			}
+
+			crc.reset();
+			inflater.reset();
+		}
+
+		/**
+		 * Checks the trailer of the member. Returns
+		 * true when the next one is started.
+		 */
+		private boolean trailer()
+		  throws IOException
+		{
+			final int c = u() | (u() << 8) | (u() << 16) | (u() << 24);
+			final int z = u() | (u() << 8) | (u() << 16) | (u() << 24);
+
+			if(c != (int) crc.getValue())
+				throw new IOException("Gzip body CRC mismatch!");
+
+			if(z != (int) inflater.getBytesWritten())
+				throw new IOException("Gzip body size mismatch!");
+
+			//?: {the input is over}
+			if((p == e) && !more())
+				return false;
+
+			header();
+			return true;
+		}
+	}
+
+
+	/* Composite Input Stream */
+
+	public static class CompositeInput extends InputStream
+	{
+		public CompositeInput(InputStream... inputs)
+		{
+			this.inputs = inputs;
+		}
+
+		protected final InputStream[] inputs;
+
+
+		/* Input Stream */
+
+		public int read()
+		  throws IOException
+		{
+			while(index < inputs.length)
+			{
+				int b = inputs[index].read();
+
+				if(b == -1)
+					index++;
+				else
+					return b;
+			}
+
+			return -1;
+		}
+
+		public int read(byte[] b, int off, int len)
+		  throws IOException
+		{
+			int s = 0;
+
+			//?: {wrong request}
+			if(len == 0) return 0;
+			if(len < 0) throw new IOException("Illegal array length!");
+
+			//c: input operations
+			while((index < inputs.length) && (len > 0))
+			{
+				int x = inputs[index].read(b, off, len);
+
+				if(x <= 0)
+				{
+					index++;
+					continue;
+				}
+
+				//~: advance the buffer
+				s += x; off += x; len -= x;
+			}
+
+			return (s == 0)?(-1):(s);
+		}
+
+		protected int index;
+
+		public void close()
+		  throws IOException
+		{
+			Throwable error = null;
+
+			for(InputStream i : inputs) try
+			{
+				i.close();
+			}
+			catch(Throwable e)
+			{
+				error = EX.sup(error, e);
+			}
+
+			if(error instanceof IOException)
+				throw (IOException) error;
+			else if(error != null)
+				throw EX.wrap(error);
+		}
+	}
+
+
+	/* Pushback Input Stream */
+
+	/**
+	 * Input stream of a persistent connection.
+	 * Allows to return the bytes read over the
+	 * request back to the head of the stream,
+	 * thus the next request takes them first.
+	 */
+	public static final class PushbackInput extends InputStream
+	{
+		public PushbackInput(InputStream input)
+		{
+			this.input = EX.assertn(input);
+		}
+
+		public final InputStream input;
+
+
+		/* Pushback */
+
+		/**
+		 * Returns the bytes to the head of the stream.
+		 * The array is not copied and must not be
+		 * altered by the caller further.
+		 */
+		public void    back(byte[] b, int off, int len)
+		{
+			EX.assertn(b);
+			EX.assertx((off >= 0) && (len >= 0) && (off + len <= b.length));
+
+			if(len != 0)
+				heads.addFirst(new Head(b, off, off + len, false));
+		}
+
+		/**
+		 * Returns the pooled buffer to the head of the
+		 * stream. The buffer is freed to the pool when
+		 * all the bytes are read, or the stream closed.
+		 */
+		public void    backPooled(byte[] b, int off, int len)
+		{
+			EX.assertn(b);
+			EX.assertx((off >= 0) && (len >= 0) && (off + len <= b.length));
+
+			if(len != 0)
+				heads.addFirst(new Head(b, off, off + len, true));
+			else
+				Support.free(b);
+		}
+
+		/**
+		 * Tells whether there are bytes returned back.
+		 */
+		public boolean isBuffered()
+		{
+			return !heads.isEmpty();
+		}
+
+		/**
+		 * Blocks till the underlying stream has input.
+		 * The bytes read are placed to the head in
+		 * a pooled buffer. Returns false when the
+		 * stream is over, or true at once when
+		 * some bytes are already returned back.
+		 */
+		public boolean fill()
+		  throws IOException
+		{
+			if(!heads.isEmpty())
+				return true;
+
+			final byte[] b = BUFFERS.get();
+			int          s = -1;
+
+			try
+			{
+				s = input.read(b);
+			}
+			finally
+			{
+				if(s <= 0)
+					BUFFERS.free(b);
+			}
+
+			if(s <= 0)
+				return false;
+
+			heads.addFirst(new Head(b, 0, s, true));
+			return true;
+		}
+
+
+		/* Input Stream */
+
+		public int  read()
+		  throws IOException
+		{
+			if(heads.isEmpty())
+				return input.read();
+
+			final Head h = heads.getFirst();
+			final int  b = h.buf[h.pos++] & 0xFF;
+
+			if(h.pos == h.end)
+				release();
+
+			return b;
+		}
+
+		public int  read(byte[] b, int off, int len)
+		  throws IOException
+		{
+			//?: {wrong request}
+			if(len == 0) return 0;
+			if(len < 0) throw new IOException("Illegal array length!");
+
+			if(heads.isEmpty())
+				return input.read(b, off, len);
+
+			//~: read from the head only
+			final Head h = heads.getFirst();
+			final int  s = Math.min(len, h.end - h.pos);
+
+			System.arraycopy(h.buf, h.pos, b, off, s);
+			h.pos += s;
+
+			if(h.pos == h.end)
+				release();
+
+			return s;
+		}
+
+		public int  available()
+		  throws IOException
+		{
+			if(heads.isEmpty())
+				return input.available();
+
+			return heads.getFirst().end - heads.getFirst().pos;
+		}
+
+		public void close()
+		  throws IOException
+		{
+			while(!heads.isEmpty())
+				release();
+
+			input.close();
+		}
+
+
+		/* private: returned bytes */
+
+		private void release()
+		{
+			final Head h = heads.removeFirst();
+
+			if(h.pooled)
+				Support.free(h.buf);
+		}
+
+		private final LinkedList<Head> heads =
+		  new LinkedList<Head>();
+
+		private static final class Head
+		{
+			public Head(byte[] buf, int pos, int end, boolean pooled)
+			{
+				this.buf    = buf;
+				this.pos    = pos;
+				this.end    = end;
+				this.pooled = pooled;
+			}
+
+			public final byte[]  buf;
+			public int           pos;
+			public final int     end;
+			public final boolean pooled;
+		}
+	}
+
+
+	/* Chunked Output Stream */
+
+	/**
+	 * Writes the bytes in HTTP/1.1 chunked transfer
+	 * encoding. Each write makes a chunk. Call
+	 * {@link #finish()} to write the last chunk.
+	 */
+	public static final class ChunkedOutput extends OutputStream
+	{
+		public ChunkedOutput(OutputStream output)
+		{
+			this.output = EX.assertn(output);
+		}
+
+		public final OutputStream output;
+
+
+		/* Chunked Output */
+
+		/**
+		 * Writes the last (empty) chunk with
+		 * no trailers. Has effect only once.
+		 */
+		public void    finish()
+		  throws IOException
+		{
+			if(finished)
+				return;
+
+			finished = true;
+			output.write(LAST);
+		}
+
+		public boolean isFinished()
+		{
+			return finished;
+		}
+
+
+		/* Output Stream */
+
+		public void write(int b)
+		  throws IOException
+		{
+			if(byte1 == null)
+				byte1 = new byte[1];
+			byte1[0] = (byte) b;
+
+			this.write(byte1, 0, 1);
+		}
+
+		public void write(byte[] b, int off, int len)
+		  throws IOException
+		{
+			if(finished)
+				throw new IOException("Chunked output is finished!");
+
+			//HINT: empty chunk would end the body.
+
+			if(len == 0)
+				return;
+
+			//~: chunk size in hex
+			int i = head.length - 2;
+			for(int x = len;(x != 0);x >>>= 4)
+				head[--i] = HEX[x & 0xF];
+
+			output.write(head, i, head.length - i);
+			output.write(b, off, len);
+			output.write(LAST, 3, 2);
+		}
+
+		public void flush()
+		  throws IOException
+		{
+			output.flush();
+		}
+
+		public void close()
+		  throws IOException
+		{
+			try
+			{
+				finish();
+			}
+			finally
+			{
+				output.close();
+			}
+		}
+
+
+		/* private: chunked state */
+
+		private static final byte[] LAST =
+		  { '0', '\r', '\n', '\r', '\n' };
+
+		private static final byte[] HEX =
+		  { '0', '1', '2', '3', '4', '5', '6', '7',
+		    '8', '9', 'a', 'b', 'c', 'd', 'e', 'f' };
+
+		/**
+		 * Chunk size line: 8 hex digits and CRLF.
+		 */
+		private final byte[] head =
+		  { 0, 0, 0, 0, 0, 0, 0, 0, '\r', '\n' };
+
+		private boolean finished;
+		private byte[]  byte1;
+	}
+
+
+
+	/* Coalescing Output */
+
+	/**
+	 * Gathers the small writes into a pooled buffer
+	 * taken on the first write. The buffer is written
+	 * out at once when it is full, or flushed. Writes
+	 * larger than the buffer go directly.
+	 */
+	public static final class BufferedOutput extends OutputStream
+	{
+		public BufferedOutput(OutputStream output)
+		{
+			this.output = EX.assertn(output);
+		}
+
+		public final OutputStream output;
+
+
+		/* Buffered Output */
+
+		/**
+		 * The number of bytes not yet written.
+		 */
+		public int  buffered()
+		{
+			return size;
+		}
+
+		/**
+		 * Reads the file region and writes it out.
+		 * Small region is read into the buffer, else
+		 * the buffer is written, and the region goes
+		 * via a pooled bulk buffer.
+		 */
+		public void transfer(FileChannel file, long offset, long length)
+		  throws IOException
+		{
+			if(buf == null)
+				buf = OUTPUTS.get();
+
+			//?: {fits the buffer}
+			if(length <= buf.length - size)
+			{
+				read(file, offset, buf, size, (int) length);
+				size += (int) length;
+				return;
+			}
+
+			drain();
+
+			final byte[] b = BULKS.get();
+
+			try
+			{
+				while(length > 0L)
+				{
+					final int x = (int) Math.min(length, b.length);
+
+					read(file, offset, b, 0, x);
+					output.write(b, 0, x);
+
+					offset += x;
+					length -= x;
+				}
+			}
+			finally
+			{
+				BULKS.free(b);
+			}
+		}
+
+		/**
+		 * Returns the buffer to the pool.
+		 * Buffered bytes are discarded!
+		 */
+		public void release()
+		{
+			final byte[] b = this.buf;
+
+			buf  = null;
+			size = 0;
+
+			if(b != null)
+				OUTPUTS.free(b);
+		}
+
+
+		/* Output Stream */
+
+		public void write(int b)
+		  throws IOException
+		{
+			if(buf == null)
+				buf = OUTPUTS.get();
+			else if(size == buf.length)
+				drain();
+
+			buf[size++] = (byte) b;
+		}
+
+		public void write(byte[] b, int off, int len)
+		  throws IOException
+		{
+			if(buf == null)
+				buf = OUTPUTS.get();
+
+			//?: {fits the buffer}
+			if(size + len <= buf.length)
+			{
+				System.arraycopy(b, off, buf, size, len);
+				size += len;
+				return;
+			}
+
+			//~: fill the buffer and write it
+			final int x = buf.length - size;
+			System.arraycopy(b, off, buf, size, x);
+			size = buf.length;
+			drain();
+
+			off += x;
+			len -= x;
+
+			//?: {write large directly}
+			if(len >= buf.length)
+				output.write(b, off, len);
+			else
+			{
+				System.arraycopy(b, off, buf, 0, len);
+				size = len;
+			}
+		}
+
+		public void flush()
+		  throws IOException
+		{
+			drain();
+			output.flush();
+		}
+
+		public void close()
+		  throws IOException
+		{
+			try
+			{
+				flush();
+			}
+			finally
+			{
+				release();
+				output.close();
+			}
+		}
+
+
+		/* private: buffer */
+
+		private byte[] buf;
+		private int    size;
+
+		/**
+		 * Reads the file region fully.
+		 */
+		private static void read(FileChannel file, long offset, byte[] b, int off, int len)
+		  throws IOException
+		{
+			for(int e = off + len;(off < e);)
+			{
+				final int x = file.read(ByteBuffer.wrap(b, off, e - off), offset);
+
+				if(x <= 0)
+					throw new EOFException("File region is not available!");
+
+				off    += x;
+				offset += x;
+			}
+		}
+
+		private void   drain()
+		  throws IOException
+		{
+			if(size == 0)
+				return;
+
+			final int x = size;
+			size = 0;
+			output.write(buf, 0, x);
 		}
 	}
 
 
+	/* Deflating Output */
+
+	/**
+	 * Compresses the bytes written with the deflater
+	 * of the current thread in gzip, or zlib (HTTP
+	 * deflate) format. The compressed bytes are
+	 * written by the pooled buffers when full.
+	 */
+	public static final class DeflatingOutput extends OutputStream
+	{
+		public DeflatingOutput(OutputStream output, boolean gzip, int level)
+		{
+			this.output   = EX.assertn(output);
+			this.deflater = deflater(gzip, level);
+			this.crc      = (gzip)?(new CRC32()):(null);
+			this.buf      = OUTPUTS.get();
+
+			//?: {write gzip header}
+			if(gzip)
+			{
+				System.arraycopy(GZIP, 0, buf, 0, GZIP.length);
+				size = GZIP.length;
+			}
+		}
+
+		public final OutputStream output;
+
+		/**
+		 * Deflaters are reused by the threads.
+		 */
+		public static Deflater deflater(boolean gzip, int level)
+		{
+			final ThreadLocal<Deflater> tl = (gzip)?(GZIPS):(ZLIBS);
+			Deflater d = tl.get();
+
+			//?: {create for this thread}
+			if(d == null)
+				tl.set(d = new Deflater(level, gzip));
+			else
+			{
+				d.reset();
+				d.setLevel(level);
+			}
+
+			return d;
+		}
+
+
+		/* Deflating Output */
+
+		/**
+		 * Writes the rest of the compressed bytes
+		 * and the trailer, and returns the buffer
+		 * to the pool. Has effect only once.
+		 */
+		public void finish()
+		  throws IOException
+		{
+			if(buf == null)
+				return;
+
+			try
+			{
+				deflater.finish();
+				while(!deflater.finished())
+					deflate();
+
+				//?: {write gzip trailer}
+				if(crc != null)
+				{
+					int2le((int) crc.getValue());
+					int2le(deflater.getTotalIn());
+				}
+
+				drain();
+			}
+			finally
+			{
+				release();
+			}
+		}
+
+		/**
+		 * Returns the buffer to the pool.
+		 */
+		public void release()
+		{
+			final byte[] b = this.buf;
+			buf = null;
+
+			if(b != null)
+				OUTPUTS.free(b);
+		}
+
+
+		/* Output Stream */
+
+		public void write(int b)
+		  throws IOException
+		{
+			this.write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		public void write(byte[] b, int off, int len)
+		  throws IOException
+		{
+			if(buf == null)
+				throw new IOException("Deflating output is finished!");
+
+			if(len == 0)
+				return;
+
+			if(crc != null)
+				crc.update(b, off, len);
+
+			deflater.setInput(b, off, len);
+			while(!deflater.needsInput())
+				deflate();
+		}
+
+		/**
+		 * Writes the compressed bytes available.
+		 * Deflater may still keep some of them.
+		 */
+		public void flush()
+		  throws IOException
+		{
+			drain();
+			output.flush();
+		}
+
+		public void close()
+		  throws IOException
+		{
+			try
+			{
+				finish();
+			}
+			finally
+			{
+				output.close();
+			}
+		}
+
+
+		/* private: deflating */
+
+		private static final ThreadLocal<Deflater> GZIPS =
+		  new ThreadLocal<Deflater>();
+
+		private static final ThreadLocal<Deflater> ZLIBS =
+		  new ThreadLocal<Deflater>();
+
+		/**
+		 * Gzip header: magic, deflate method,
+		 * no flags, no time, unknown OS.
+		 */
+		private static final byte[] GZIP =
+		  { 0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+		private final Deflater deflater;
+		private final CRC32    crc;
+		private byte[]         buf;
+		private int            size;
+
+		private void deflate()
+		  throws IOException
+		{
+			if(size == buf.length)
+				drain();
+
+			size += deflater.deflate(buf, size, buf.length - size);
+		}
+
+		private void drain()
+		  throws IOException
+		{
+			if(size == 0)
+				return;
+
+			final int x = size;
+			size = 0;
+			output.write(buf, 0, x);
+		}
+
+		private void int2le(int x)
+		  throws IOException
+		{
+			if(size + 4 > buf.length)
+				drain();
+
+			buf[size++] = (byte)(x);
+			buf[size++] = (byte)(x >>> 8);
+			buf[size++] = (byte)(x >>> 16);
+			buf[size++] = (byte)(x >>> 24);
+		}
+	}
+
 
 	/* Thread Allocator */
 
@@ -1060,6 +2919,270 @@ public class Support
 	}
 
 
+	/* Reservoir of Hot Threads */
+
+	/**
+	 * Keeps up to the depth of pool threads waiting
+	 * for the tasks. Idle worker spins briefly, then
+	 * parks on own slot. Tasks are handed over with
+	 * no allocations, and the worker returns itself
+	 * to the reservoir after the task is done.
+	 */
+	public static final class Reservoir
+	{
+		public Reservoir(Executor pool, int depth)
+		{
+			this(pool, depth, new AtomicInteger());
+		}
+
+		/**
+		 * Creates the reservoir sharing the counter
+		 * of the pending tasks with the reservoirs
+		 * of the same pool.
+		 */
+		public Reservoir(Executor pool, int depth, AtomicInteger pending)
+		{
+			EX.assertx(depth >= 0);
+
+			this.pool    = EX.assertn(pool);
+			this.slots   = new AtomicReferenceArray<Worker>(depth);
+			this.pending = EX.assertn(pending);
+		}
+
+		public final Executor pool;
+
+
+		/* Reservoir */
+
+		/**
+		 * Hands the task to an idle worker, or executes
+		 * a new worker with it in the pool. Throws the
+		 * pool rejection, or illegal state when closed.
+		 */
+		public void    run(Runnable task)
+		{
+			EX.assertn(task);
+
+			//?: {reservoir is closed}
+			if(closed)
+				throw new IllegalStateException();
+
+			//?: {has no hot threads at all}
+			if(slots.length() == 0)
+			{
+				pool.execute(task);
+				return;
+			}
+
+			//?: {took an idle worker}
+			if(take(task))
+				return;
+
+			//~: announce the task
+			pending.incrementAndGet();
+
+			//?: {a worker came meanwhile}
+			if(take(task))
+			{
+				pending.decrementAndGet();
+				return;
+			}
+
+			try //~: start a new worker
+			{
+				pool.execute(new Worker(task));
+			}
+			catch(RuntimeException e)
+			{
+				pending.decrementAndGet();
+				throw e;
+			}
+		}
+
+		/**
+		 * Executes workers in the pool to fill
+		 * the free slots. Rejections are ignored.
+		 */
+		public void    fill()
+		{
+			for(int i = 0;(i < slots.length());i++)
+				if(!closed && (slots.get(i) == null)) try
+				{
+					pool.execute(new Worker(null));
+				}
+				catch(Throwable ignore)
+				{
+					return;
+				}
+		}
+
+		/**
+		 * Closes the reservoir and releases the idle
+		 * workers returning the threads to the pool.
+		 */
+		public void    close()
+		{
+			closed = true;
+
+			for(int i = 0;(i < slots.length());i++)
+			{
+				final Worker w = slots.get(i);
+
+				if((w != null) && slots.compareAndSet(i, w, null))
+					w.wake(Allocator.Nothing);
+			}
+		}
+
+		/**
+		 * Opens the reservoir closed and fills it.
+		 */
+		public void    open()
+		{
+			closed = false;
+			fill();
+		}
+
+		public boolean isClosed()
+		{
+			return closed;
+		}
+
+		/**
+		 * Number of the checks of idle worker before
+		 * it parks. Hot worker takes the task without
+		 * the unpark latency.
+		 */
+		public static final int SPINS = 128;
+
+
+		/* private: workers */
+
+		private final AtomicReferenceArray<Worker> slots;
+
+		private volatile boolean closed;
+
+		/**
+		 * Number of the tasks not yet started. While
+		 * a task waits in the pool queue, the workers
+		 * do not park, but return the threads to the
+		 * pool, else they could starve it.
+		 */
+		private final AtomicInteger pending;
+
+		/**
+		 * Hands the task to an idle worker.
+		 */
+		private boolean take(Runnable task)
+		{
+			for(int i = 0;(i < slots.length());i++)
+			{
+				final Worker w = slots.get(i);
+
+				if((w != null) && slots.compareAndSet(i, w, null))
+				{
+					w.wake(task);
+					return true;
+				}
+			}
+
+			return false;
+		}
+
+		/**
+		 * Places the worker to a free slot.
+		 */
+		private boolean offer(Worker w)
+		{
+			if(closed || (pending.get() != 0))
+				return false;
+
+			for(int i = 0;(i < slots.length());i++)
+				if(slots.compareAndSet(i, null, w))
+				{
+					//?: {closed | task queued meanwhile} take it back
+					if((closed || (pending.get() != 0)) &&
+					   slots.compareAndSet(i, w, null))
+						return false;
+
+					return true;
+				}
+
+			return false;
+		}
+
+		private final class Worker implements Runnable
+		{
+			public Worker(Runnable task)
+			{
+				this.task = task;
+			}
+
+			/**
+			 * For thread pool only!
+			 */
+			public void run()
+			{
+				this.thread = Thread.currentThread();
+				Runnable t  = this.task;
+				this.task   = null;
+
+				//?: {started the task queued}
+				if(t != null)
+					pending.decrementAndGet();
+
+				while(true)
+				{
+					if(t != null) try
+					{
+						t.run();
+					}
+					catch(Throwable ignore)
+					{}
+
+					//?: {no free slot} return the thread
+					if(!offer(this))
+						return;
+
+					t = await();
+
+					//?: {released}
+					if(t == Allocator.Nothing)
+						return;
+				}
+			}
+
+			public void wake(Runnable task)
+			{
+				this.task = task;
+				LockSupport.unpark(thread);
+			}
+
+			private Runnable await()
+			{
+				Runnable t;
+
+				//c: spin first
+				for(int i = 0;(i < SPINS);i++)
+					if((t = this.task) != null)
+					{
+						this.task = null;
+						return t;
+					}
+
+				//c: then park
+				while((t = this.task) == null)
+					LockSupport.park(this);
+
+				this.task = null;
+				return t;
+			}
+
+			private volatile Runnable task;
+			private volatile Thread   thread;
+		}
+	}
+
+
 	/* Barrier Synchronization Primitive */
 
 	/**
@@ -0,0 +1,234 @@
+package net.java.lohttp;
+
+/* Java */
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * Benchmarks of UTF-8 encoding of the strings:
+ * String.getBytes(), the former CharBytes over
+ * the stream writer, and the current encoder.
+ * Not a test, but direct entry point of Java.
+ *
+ * @author anton.baukin@gmail.com
+ */
+public class BenchCharBytes
+{
+	/* Benchmarks */
+
+	public void benchEncoding()
+	  throws Exception
+	{
+		final String[] names = { "ascii", "cyrillic", "emoji" };
+		final String[] texts = {
+		  text("The quick brown fox jumps over the lazy dog. "),
+		  text("Съешь же ещё этих мягких французских булок. "),
+		  text("Emoji 😀🚀🎉 are 👍! ")
+		};
+
+		for(int round = 0;(round < 3);round++)
+			for(int i = 0;(i < texts.length);i++)
+			{
+				final String s = texts[i];
+
+				encode(names[i] + " getBytes", s, new Encode()
+				{
+					public long encode(String s)
+					{
+						return s.getBytes(StandardCharsets.UTF_8).length;
+					}
+				});
+
+				encode(names[i] + " former", s, new Encode()
+				{
+					public long encode(String s)
+					  throws IOException
+					{
+						return drain(new FormerCharBytes(s));
+					}
+				});
+
+				encode(names[i] + " CharBytes", s, new Encode()
+				{
+					public long encode(String s)
+					  throws IOException
+					{
+						return drain(new Support.CharBytes(s));
+					}
+				});
+			}
+	}
+
+	interface Encode
+	{
+		long encode(String s)
+		  throws IOException;
+	}
+
+	private void encode(String mode, String s, Encode e)
+	  throws Exception
+	{
+		final long   bytes = s.getBytes(StandardCharsets.UTF_8).length;
+		long         check = 0L;
+
+		//~: warm up
+		for(int i = 0;(i < ENCODES / 10);i++)
+			check += e.encode(s);
+
+		final long ts = System.nanoTime();
+		for(int i = 0;(i < ENCODES);i++)
+			check += e.encode(s);
+		final long td = System.nanoTime() - ts;
+
+		EX.assertx(check == bytes * (ENCODES + ENCODES / 10));
+
+		print(mode, ": ", td / ENCODES, " ns per ", s.length(),
+		  " chars, ", (bytes * ENCODES * 1000L) / td, " MB/s");
+	}
+
+	static final int ENCODES = 50000;
+
+	/**
+	 * Reads the stream into a pooled buffer
+	 * as the response does. Returns the length.
+	 */
+	static long drain(InputStream i)
+	  throws IOException
+	{
+		final byte[] b = Support.BUFFERS.get();
+		long         s = 0L;
+
+		try
+		{
+			for(int x;((x = i.read(b, 0, b.length)) > 0);)
+				s += x;
+
+			return s;
+		}
+		finally
+		{
+			Support.BUFFERS.free(b);
+		}
+	}
+
+	static String text(String phrase)
+	{
+		StringBuilder s = new StringBuilder(4096);
+		while(s.length() < 4000)
+			s.append(phrase);
+		return s.toString();
+	}
+
+	/**
+	 * Former CharBytes: encodes the sub-sequences
+	 * via the writer into a bytes array stream.
+	 */
+	static final class FormerCharBytes extends InputStream
+	{
+		public FormerCharBytes(CharSequence string)
+		{
+			this.string = string;
+			this.o = new OutputStreamWriter(w, StandardCharsets.UTF_8);
+		}
+
+		public final CharSequence string;
+
+		public int read()
+		  throws IOException
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		public int read(byte[] buf, int o, int l)
+		  throws IOException
+		{
+			int s = 0;
+
+			while(l > 0)
+			{
+				if((b == null) || (j == b.length))
+				{
+					b = next();
+
+					if(b == null)
+						break;
+				}
+
+				int x = Math.min(l, b.length - j);
+
+				System.arraycopy(b, j, buf, o, x);
+				j += x; o += x; l -= x; s += x;
+			}
+
+			return (s > 0)?(s):(-1);
+		}
+
+		private byte[] next()
+		  throws IOException
+		{
+			final int sl = string.length();
+
+			if(i >= sl)
+				return null;
+
+			int l = Math.min(256, sl - i);
+
+			o.write(string.subSequence(i, i + l).toString());
+			i += l;
+			o.flush();
+
+			j = 0;
+			return w.reset();
+		}
+
+		private int    i;
+		private int    j;
+		private byte[] b;
+
+		private final WrappingBytes      w = new WrappingBytes();
+		private final OutputStreamWriter o;
+
+		private static class WrappingBytes extends OutputStream
+		{
+			public void   write(int b)
+			{
+				bos.write(b);
+			}
+
+			public void   write(byte[] b, int off, int len)
+			{
+				bos.write(b, off, len);
+			}
+
+			public byte[] reset()
+			{
+				byte[] a = bos.toByteArray();
+				bos = new ByteArrayOutputStream(512);
+				return a;
+			}
+
+			private ByteArrayOutputStream bos =
+			  new ByteArrayOutputStream(512);
+		}
+	}
+
+
+	/* Enter Point & Helpers */
+
+	public static void main(String[] argv)
+	  throws Exception
+	{
+		new BenchCharBytes().benchEncoding();
+	}
+
+	static void print(Object... msg)
+	{
+		System.out.println(EX.cat(msg));
+	}
+}
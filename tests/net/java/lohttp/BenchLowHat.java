@@ -0,0 +1,352 @@
+package net.java.lohttp;
+
+/* Java */
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.IntStream;
+
+
+/**
+ * Benchmarks of {@link LowHat} execution modes.
+ * Not a test, but direct entry point of Java.
+ *
+ * @author anton.baukin@gmail.com
+ */
+public class BenchLowHat
+{
+	/* Benchmarks */
+
+	/**
+	 * Issues requests of new connections from the
+	 * concurrent clients comparing the pooled and
+	 * the virtual threads execution modes.
+	 */
+	public void benchModes()
+	  throws Exception
+	{
+		//~: pooled mode
+		bench("pooled", new Setup().setPool(2, 4, 16, "LowHat-"));
+
+		//?: {has no virtual threads}
+		if(!Setup.isVirtualSupported())
+		{
+			print("virtual: not supported by this Java");
+			return;
+		}
+
+		//~: virtual mode
+		bench("virtual", new Setup().setVirtualPool("LowHat-"));
+	}
+
+	/**
+	 * Compares the request upgrade of the scanned
+	 * one via the reflection and via the factory.
+	 */
+	public void benchUpgrade()
+	  throws Exception
+	{
+		final Setup setup = new Setup();
+
+		for(int i = 0;(i < 3);i++)
+		{
+			upgrade("reflection", setup, s ->
+			  s.upgrade(Requests.Got.class));
+
+			upgrade("factory", setup, s ->
+			  s.upgrade(Requests.Got.FACTORY));
+		}
+	}
+
+	interface Upgrade
+	{
+		Requests.Basic upgrade(Requests.Scanner s);
+	}
+
+	private void upgrade(String mode, Setup setup, Upgrade u)
+	  throws Exception
+	{
+		long total = 0L;
+
+		for(int i = 0;(i < UPGRADES);i++)
+		{
+			Requests.Scanner s = new Requests.Scanner(setup,
+			  new ByteArrayInputStream(PREAMBLE));
+
+			long ts = System.nanoTime();
+			Requests.Basic r = u.upgrade(s);
+			total += System.nanoTime() - ts;
+
+			EX.assertx("GET".equals(r.getMethod()));
+		}
+
+		print(mode, ": ", total / UPGRADES, " ns per upgrade");
+	}
+
+	static final int UPGRADES = 200000;
+
+	static final byte[] PREAMBLE = (
+	  "GET /index.html?a=1 HTTP/1.1\r\nHost: localhost\r\n" +
+	  "Accept: */*\r\nUser-Agent: bench\r\n\r\n"
+	).getBytes();
+
+	/**
+	 * Measures the latency of the task hand-over
+	 * from the accepting thread to a pool thread:
+	 * the former allocators with the latches, and
+	 * the reservoir of the hot threads.
+	 */
+	public void benchHandoff()
+	  throws Exception
+	{
+		for(int i = 0;(i < 3);i++)
+		{
+			handoff("allocator", new AllocatorHandoff());
+			handoff("reservoir", new ReservoirHandoff());
+		}
+	}
+
+	private void handoff(String mode, Handoff h)
+	  throws Exception
+	{
+		final AtomicLong started = new AtomicLong();
+		long             total   = 0L;
+
+		//~: task marks the start
+		Runnable task = () -> started.set(System.nanoTime());
+
+		try
+		{
+			for(int i = 0;(i < HANDOFFS);i++)
+			{
+				started.set(0L);
+
+				long ts = System.nanoTime();
+				h.run(task);
+
+				//~: wait for the start
+				while(started.get() == 0L)
+					Thread.yield();
+
+				total += started.get() - ts;
+			}
+		}
+		finally
+		{
+			h.close();
+		}
+
+		print(mode, ": ", total / HANDOFFS, " ns accept-to-handler");
+	}
+
+	static final int HANDOFFS = 20000;
+
+	interface Handoff
+	{
+		void run(Runnable task);
+
+		void close();
+	}
+
+	/**
+	 * Former LowHat.allocate(): single cached
+	 * allocator, and new pre-allocated after.
+	 */
+	static class AllocatorHandoff implements Handoff
+	{
+		final Setup setup = new Setup().setPool(2, 4, 16, "Bench-");
+
+		final AtomicReference<Support.Allocator> allocated =
+		  new AtomicReference<>();
+
+		public void run(Runnable task)
+		{
+			Support.Allocator xa = allocated.get();
+
+			if((xa != null) && xa.run(task))
+				allocated.compareAndSet(xa, null);
+			else
+			{
+				Support.Allocator na = new Support.Allocator();
+				setup.getPool().execute(na);
+				EX.assertx(na.run(task));
+			}
+
+			//~: pre-allocate
+			Support.Allocator a = new Support.Allocator();
+			setup.getPool().execute(a);
+
+			if(!allocated.compareAndSet(null, a))
+				a.release();
+		}
+
+		public void close()
+		{
+			Support.Allocator xa = allocated.getAndSet(null);
+			if(xa != null) xa.release();
+			((ExecutorService) setup.getPool()).shutdown();
+		}
+	}
+
+	static class ReservoirHandoff implements Handoff
+	{
+		final Setup setup = new Setup().setPool(2, 4, 16, "Bench-");
+
+		final Support.Reservoir hot =
+		  new Support.Reservoir(setup.getPool(), setup.getHotThreads());
+
+		{
+			hot.fill();
+		}
+
+		public void run(Runnable task)
+		{
+			hot.run(task);
+		}
+
+		public void close()
+		{
+			hot.close();
+			((ExecutorService) setup.getPool()).shutdown();
+		}
+	}
+
+	private void bench(String mode, Setup setup)
+	  throws Exception
+	{
+		LowHat server = new LowHat();
+
+		//~: handler that blocks a bit
+		setup.setExecute(args ->
+		{
+			await(1L);
+
+			Response res = (Response) args[1];
+			res.addHeader("Content-Length", "2");
+			res.write(new Support.CharBytes("OK").input());
+		});
+
+		server.start(setup, null);
+
+		try
+		{
+			//~: warm up
+			clients(setup, 8, 100);
+
+			//~: measure
+			AtomicLong[] r = clients(setup, CLIENTS, REQUESTS);
+
+			print(mode, ": ", r[0].get(), " ok, ", r[1].get(), " denied, ",
+			  r[2].get() / (CLIENTS * REQUESTS), " mcs per request");
+		}
+		finally
+		{
+			server.hangup(args -> server.close());
+			((ExecutorService) setup.getPool()).shutdown();
+		}
+	}
+
+	/**
+	 * Returns the number of success responses,
+	 * denied (503), and total time in microseconds.
+	 */
+	private AtomicLong[] clients(Setup setup, int n, int m)
+	  throws Exception
+	{
+		AtomicLong[] r = { new AtomicLong(), new AtomicLong(), new AtomicLong() };
+		Thread[]     t = new Thread[n];
+
+		IntStream.range(0, n).forEach(i -> t[i] = new Thread(() ->
+		{
+			for(int j = 0;(j < m);j++) try
+			{
+				long ts = System.nanoTime();
+				int   s = touch(setup);
+
+				r[2].addAndGet((System.nanoTime() - ts) / 1000L);
+
+				if(s == 200)
+					r[0].incrementAndGet();
+				else if(s == 503)
+					r[1].incrementAndGet();
+			}
+			catch(Throwable e)
+			{
+				throw EX.wrap(e);
+			}
+		}));
+
+		for(Thread x : t) x.start();
+		for(Thread x : t) x.join();
+
+		return r;
+	}
+
+	/**
+	 * Issues GET request on a new connection.
+	 * Returns the response status code.
+	 */
+	static int touch(Setup setup)
+	  throws Exception
+	{
+		try(Socket s = new Socket(setup.getAddress(), setup.getPort()))
+		{
+			OutputStream o = s.getOutputStream();
+			o.write(TOUCH);
+
+			//~: read the whole response
+			InputStream  i = s.getInputStream();
+			byte[]       b = new byte[512];
+			int          l = 0;
+
+			for(int x;((x = i.read(b, l, b.length - l)) > 0);)
+				if((l += x) == b.length) break;
+
+			//?: {not a status line}
+			if(l < 12) return 0;
+
+			return Integer.parseInt(new String(b, 9, 3, "ASCII"));
+		}
+	}
+
+	static final byte[] TOUCH = (
+	  "GET / HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n"
+	).getBytes();
+
+	static final int CLIENTS = 64;
+
+	static final int REQUESTS = 200;
+
+
+	/* Enter Point & Helpers */
+
+	public static void main(String[] argv)
+	  throws Exception
+	{
+		new BenchLowHat().benchUpgrade();
+		new BenchLowHat().benchHandoff();
+		new BenchLowHat().benchModes();
+	}
+
+	static void print(Object... msg)
+	{
+		System.out.println(EX.cat(msg));
+	}
+
+	static void await(long ms)
+	{
+		try
+		{
+			Thread.sleep(ms);
+		}
+		catch(Throwable e)
+		{
+			throw EX.wrap(e);
+		}
+	}
+}
@@ -0,0 +1,379 @@
+package net.java.lohttp;
+
+/* Java */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+
+/**
+ * Tests streaming JSON writer and reader.
+ *
+ * @author anton.baukin@gmail.com
+ */
+public class TestJson
+{
+	public void testWriter()
+	  throws Exception
+	{
+		//~: document of all the kinds
+		ByteArrayOutputStream o = new ByteArrayOutputStream();
+		Json.Writer           w = new Json.Writer(o);
+
+		w.object().
+		  name("s").value("a\"b\\c\n\t\u0001ж😀\u2028").
+		  name("n").value(-123L).
+		  name("m").value(Long.MIN_VALUE).
+		  name("d").value(0.5).
+		  name("i").value(2.0).
+		  name("b").value(true).
+		  name("z").nul().
+		  name("a").array().
+		    value(1L).array().end().object().end().value((String) null).
+		  end().
+		  name("e").object().end().
+		end().close();
+
+		EX.assertx(o.toString("UTF-8").equals("{\"s\":\"a\\\"b\\\\c\\n\\t\\u0001ж😀" +
+		  "\\u2028\",\"n\":-123,\"m\":-9223372036854775808,\"d\":0.5,\"i\":2," +
+		  "\"b\":true,\"z\":null,\"a\":[1,[],{},null],\"e\":{}}"), o.toString("UTF-8"));
+
+		//~: random strings over the buffer bounds
+		Random   gen = new Random();
+		String[] CPs = { "a", "ж", "\"", "\\", "\n", "\u0000", "\uD83D\uDE00" };
+
+		for(int cycle = 0;(cycle < 256);cycle++)
+		{
+			StringBuilder x = new StringBuilder("[");
+
+			o = new ByteArrayOutputStream();
+			w = new Json.Writer(o).array();
+
+			for(int k = gen.nextInt(8);(k >= 0);k--)
+			{
+				StringBuilder s = new StringBuilder();
+				for(int i = gen.nextInt(1024);(i > 0);i--)
+					s.append(CPs[gen.nextInt(CPs.length)]);
+
+				w.value(s);
+
+				if(x.length() > 1) x.append(',');
+				x.append('"').append(escape(s.toString())).append('"');
+			}
+
+			w.end().close();
+			x.append(']');
+
+			EX.assertx(o.toString("UTF-8").equals(x.toString()));
+		}
+
+		//~: wrong structure
+		try
+		{
+			new Json.Writer(new ByteArrayOutputStream()).object().value(1L);
+			throw EX.ass();
+		}
+		catch(AssertionError e)
+		{
+			EX.assertx(e.getMessage().contains("no name"));
+		}
+	}
+
+	public void testWriteResponse()
+	  throws Exception
+	{
+		//~: small document has the length
+		ByteArrayOutputStream o = new ByteArrayOutputStream();
+		Responses.Headed      h = new Responses.Headed(o);
+
+		h.setKeepAlive(true, true);
+		h.addHeader("Content-Type", Json.CONTENT_TYPE);
+
+		new Json.Writer(h).object().name("success").value(true).end().close();
+		EX.assertx(h.complete());
+
+		EX.assertx(o.toString("UTF-8").equals("HTTP/1.1 200 OK\r\n" +
+		  "Content-Type: application/json;charset=UTF-8\r\n" +
+		  "Content-Length: 16\r\n\r\n{\"success\":true}"));
+
+		//~: large document is streamed in chunks
+		o = new ByteArrayOutputStream();
+		h = new Responses.Headed(o);
+		h.setKeepAlive(true, true);
+
+		Json.Writer   w = new Json.Writer(h).array();
+		StringBuilder x = new StringBuilder("[");
+
+		for(int i = 0;(i < 100000);i++)
+		{
+			w.value(i);
+			x.append((i == 0)?(""):(",")).append(i);
+		}
+
+		w.end().close();
+		x.append(']');
+		EX.assertx(h.complete());
+
+		String r = o.toString("ISO-8859-1");
+		String p = TestResponses.preamble(r.getBytes("ISO-8859-1"));
+
+		EX.assertx("chunked".equals(TestResponses.header(p, "Transfer-Encoding")));
+		EX.assertx(TestResponses.unchunk(r.substring(p.length())).equals(x.toString()));
+
+		//~: flush makes the chunk at once
+		o = new ByteArrayOutputStream();
+		h = new Responses.Headed(o);
+		h.setKeepAlive(true, true);
+
+		w = new Json.Writer(h).array().value("first");
+		w.flush();
+		EX.assertx(o.toString("ASCII").endsWith("\r\n\r\n8\r\n[\"first\"\r\n"));
+
+		w.value("second").end().close();
+		EX.assertx(h.complete());
+		EX.assertx(o.toString("ASCII").endsWith("\r\na\r\n,\"second\"]\r\n0\r\n\r\n"));
+	}
+
+
+	public void testReader()
+	  throws Exception
+	{
+		String d = " {\"s\" : \"a\\\"b\\\\c\\n\\u0436\\ud83d\\ude00ж\", \"n\":-123," +
+		  "\"m\":-9223372036854775808,\"d\":0.5e1,\"b\":true,\"f\":false," +
+		  "\"z\":null,\"a\":[1,[],{},null],\"e\":{}} \n";
+
+		Json.Reader r = reader(d, 1);
+
+		EX.assertx(r.next() == Json.Reader.OBJECT);
+		EX.assertx(r.next() == Json.Reader.NAME && r.is("s"));
+		EX.assertx(r.next() == Json.Reader.STRING);
+		EX.assertx(r.string().equals("a\"b\\c\nж😀ж"));
+		EX.assertx(r.next() == Json.Reader.NAME && r.string().equals("n"));
+		EX.assertx(r.next() == Json.Reader.NUMBER && r.longValue() == -123L);
+		EX.assertx(r.next() == Json.Reader.NAME && r.is("m"));
+		EX.assertx(r.next() == Json.Reader.NUMBER && r.longValue() == Long.MIN_VALUE);
+		EX.assertx(r.next() == Json.Reader.NAME && r.is("d"));
+		EX.assertx(r.next() == Json.Reader.NUMBER && r.doubleValue() == 5.0);
+		EX.assertx(r.next() == Json.Reader.NAME && !r.is("x"));
+		EX.assertx(r.next() == Json.Reader.TRUE);
+		EX.assertx(r.next() == Json.Reader.NAME);
+		EX.assertx(r.next() == Json.Reader.FALSE);
+		EX.assertx(r.next() == Json.Reader.NAME);
+		EX.assertx(r.next() == Json.Reader.NULL);
+		EX.assertx(r.next() == Json.Reader.NAME && r.is("a"));
+		EX.assertx(r.next() == Json.Reader.ARRAY && r.depth() == 2);
+		EX.assertx(r.next() == Json.Reader.NUMBER);
+		EX.assertx(r.next() == Json.Reader.ARRAY);
+		EX.assertx(r.next() == Json.Reader.END_ARRAY);
+		EX.assertx(r.next() == Json.Reader.OBJECT);
+		EX.assertx(r.next() == Json.Reader.END_OBJECT);
+		EX.assertx(r.next() == Json.Reader.NULL);
+		EX.assertx(r.next() == Json.Reader.END_ARRAY);
+		EX.assertx(r.next() == Json.Reader.NAME && r.is("e"));
+		r.skip();
+		EX.assertx(r.next() == Json.Reader.END_OBJECT && r.depth() == 0);
+		EX.assertx(r.next() == Json.Reader.END);
+		EX.assertx(r.offset() == d.getBytes("UTF-8").length);
+		r.close();
+
+		//~: skip the nested values
+		r = reader("[{\"a\":[1,{\"b\":[]}]},2]", 3);
+		EX.assertx(r.next() == Json.Reader.ARRAY);
+		EX.assertx(r.next() == Json.Reader.OBJECT);
+		r.skip();
+		EX.assertx(r.next() == Json.Reader.NUMBER && r.longValue() == 2L);
+
+		//~: round trips of random documents
+		Random gen = new Random();
+
+		for(int cycle = 0;(cycle < 256);cycle++)
+		{
+			ByteArrayOutputStream o = new ByteArrayOutputStream();
+			Json.Writer           w = new Json.Writer(o);
+
+			random(gen, w, 0);
+			w.close();
+
+			String x = o.toString("UTF-8");
+			r = reader(x, 1 + gen.nextInt(700));
+
+			o = new ByteArrayOutputStream();
+			w = new Json.Writer(o);
+			copy(r, w);
+			w.close();
+			r.close();
+
+			EX.assertx(o.toString("UTF-8").equals(x), x, "\n", o.toString("UTF-8"));
+		}
+
+		//~: malformed documents
+		for(String m : new String[] {
+		  "", "[", "]", "[1,]", "{\"a\"}", "{\"a\":}", "{1:2}", "[01]",
+		  "[1.]", "[-]", "[1e]", "[tru]", "[\"a]", "[\"\n\"]", "[1] 2",
+		  "{\"a\":1,}", "[1 2]", "nul", "[9223372036854775808]"
+		})
+			try
+			{
+				r = reader(m, 1);
+				while(r.next() != Json.Reader.END)
+					if(r.event() == Json.Reader.NUMBER)
+						r.longValue();
+
+				throw EX.ass(m);
+			}
+			catch(Json.Malformed e)
+			{
+				//~: expected
+			}
+
+		//~: limits of the depth and size
+		try
+		{
+			r = new Json.Reader(new ByteArrayInputStream("[[[1]]]".getBytes()), 2, 1000L);
+			while(r.next() != Json.Reader.END);
+			throw EX.ass();
+		}
+		catch(Json.Malformed e)
+		{
+			EX.assertx(e.getMessage().contains("nesting"));
+		}
+
+		byte[] ws = new byte[2000];
+		Arrays.fill(ws, (byte) ' ');
+
+		try
+		{
+			r = new Json.Reader(new ByteArrayInputStream(ws), 2, 1000L);
+			r.next();
+			throw EX.ass();
+		}
+		catch(Json.Malformed e)
+		{
+			EX.assertx(e.getMessage().contains("exceeds"));
+		}
+
+		//~: body of the request with the setup limits
+		byte[] b = "POST / HTTP/1.1\r\nContent-Length: 7\r\n\r\n[[[1]]]".getBytes();
+		Setup  s = new Setup().setJsonDepth(3);
+
+		r = new Json.Reader((Post) new Requests.Scanner(s,
+		  new ByteArrayInputStream(b)).upgrade(Requests.Bodied.FACTORY));
+
+		while(r.next() != Json.Reader.END);
+		r.close();
+	}
+
+
+	/* Helpers */
+
+	/**
+	 * Reader of the text taking at most
+	 * the number of bytes in a read.
+	 */
+	static Json.Reader reader(String s, final int n)
+	  throws Exception
+	{
+		return new Json.Reader(new ByteArrayInputStream(s.getBytes("UTF-8"))
+		{
+			public synchronized int read(byte[] b, int off, int len)
+			{
+				return super.read(b, off, Math.min(n, len));
+			}
+		}, 64, 1L << 20);
+	}
+
+	static void random(Random gen, Json.Writer w, int depth)
+	{
+		int k = (depth > 4)?(2 + gen.nextInt(5)):(gen.nextInt(7));
+
+		switch(k)
+		{
+			case 0: case 1:
+				boolean obj = (k == 0);
+				if(obj) w.object(); else w.array();
+
+				for(int i = gen.nextInt(6);(i > 0);i--)
+				{
+					if(obj)
+						w.name(string(gen));
+					random(gen, w, depth + 1);
+				}
+
+				w.end();
+				return;
+
+			case 2: w.value(string(gen)); return;
+			case 3: w.value(gen.nextLong()); return;
+			case 4: w.value(gen.nextDouble() * 1e6); return;
+			case 5: w.value(gen.nextBoolean()); return;
+			default: w.nul();
+		}
+	}
+
+	static String string(Random gen)
+	{
+		String[]      CPs = { "a", "b", "ж", "\"", "\\", "\n", "\u0001", "\uD83D\uDE00" };
+		StringBuilder s   = new StringBuilder();
+
+		for(int i = gen.nextInt((gen.nextInt(8) == 0)?(2000):(16));(i > 0);i--)
+			s.append(CPs[gen.nextInt(CPs.length)]);
+
+		return s.toString();
+	}
+
+	/**
+	 * Writes the events of the reader.
+	 */
+	static void copy(Json.Reader r, Json.Writer w)
+	  throws Exception
+	{
+		for(int e;((e = r.next()) != Json.Reader.END);)
+			switch(e)
+			{
+				case Json.Reader.OBJECT:     w.object(); break;
+				case Json.Reader.ARRAY:      w.array(); break;
+				case Json.Reader.END_OBJECT:
+				case Json.Reader.END_ARRAY:  w.end(); break;
+				case Json.Reader.NAME:       w.name(r.string()); break;
+				case Json.Reader.STRING:     w.value(r.string()); break;
+				case Json.Reader.TRUE:       w.value(true); break;
+				case Json.Reader.FALSE:      w.value(false); break;
+				case Json.Reader.NULL:       w.nul(); break;
+
+				case Json.Reader.NUMBER:
+					if(r.string().indexOf('.') == -1)
+						w.value(r.longValue());
+					else
+						w.value(r.doubleValue());
+			}
+	}
+
+	/* Helpers */
+
+	static String escape(String s)
+	{
+		StringBuilder r = new StringBuilder(s.length());
+
+		for(char c : s.toCharArray())
+			if(c == '"') r.append("\\\"");
+			else if(c == '\\') r.append("\\\\");
+			else if(c == '\n') r.append("\\n");
+			else if(c < 0x20) r.append(String.format("\\u%04x", (int) c));
+			else r.append(c);
+
+		return r.toString();
+	}
+
+
+	/* public: test entry point */
+
+	public static void main(String[] argv)
+	  throws Exception
+	{
+		new TestJson().testWriter();
+		new TestJson().testWriteResponse();
+		new TestJson().testReader();
+	}
+}
@@ -2,14 +2,24 @@ package net.java.lohttp;
 
 /* Java */
 
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
 import java.net.HttpURLConnection;
+import java.net.Socket;
 import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.IntStream;
+import java.util.zip.GZIPOutputStream;
 
 
 /**
@@ -24,7 +34,7 @@ public class TestLowHat
 	public void testStartStop()
 	  throws Exception
 	{
-		LowHat server = new LowHat();
+		LowHat server = server();
 
 		//~: start the server
 		server.start(setup, (args) -> print("testing start-stop"));
@@ -47,7 +57,7 @@ public class TestLowHat
 	public void testPauseResume()
 	  throws Exception
 	{
-		LowHat server = new LowHat();
+		LowHat server = server();
 
 		//~: tune the power
 		setup.setBacklog(50);
@@ -124,8 +134,9 @@ public class TestLowHat
 	}
 
 	public void testMassiveTouch()
+	  throws Exception
 	{
-		LowHat server = new LowHat();
+		LowHat server = server();
 
 		//~: tune the power
 		setup.setBacklog(50);
@@ -157,10 +168,52 @@ public class TestLowHat
 		stop(server);
 	}
 
+	public void testAcceptors()
+	  throws Exception
+	{
+		LowHat server = server();
+
+		//~: sharded acceptors
+		setup.setBacklog(50);
+		setup.setAcceptors(4);
+		setup.setReusePort(true);
+		setup.setPool(20, 40, 16, "LowHat-");
+
+		//~: start the server
+		server.start(setup, (args) -> print("testing acceptors"));
+
+		AtomicInteger n = new AtomicInteger();
+
+		try
+		{
+			//~: test requests
+			Thread[] ts = spawn(20, (task) ->
+			{
+				for(int i = 0;(i < 50);i++)
+				{
+					int s = touch();
+					EX.assertx(501 == s, "Got status ", s);
+					n.incrementAndGet();
+				}
+			});
+
+			for(Thread t : ts)
+				t.join();
+
+			EX.assertx(n.get() == 20 * 50);
+			print("touched ", n.get(), ", sharded: ", server.sharded);
+		}
+		finally
+		{
+			//~: stop the server
+			stop(server);
+		}
+	}
+
 	public void testGetPost()
 	  throws Exception
 	{
-		LowHat server = new LowHat();
+		LowHat server = server();
 
 		//~: request handler
 		setup.setExecute(DO);
@@ -186,23 +239,402 @@ public class TestLowHat
 		}
 	}
 
+	public void testLazyDecode()
+	  throws Exception
+	{
+		LowHat server = server();
+
+		//~: request handler
+		setup.setExecute(DO);
+		setup.setLazyDecode(true);
+
+		//~: start the server
+		server.start(setup, (args) -> print("testing lazy decode"));
+
+		try
+		{
+			for(int i = 0;(i < 10);i++)
+			{
+				//~: execute random get
+				EX.assertx(get());
+
+				//~: execute random post
+				EX.assertx(post());
+			}
+		}
+		finally
+		{
+			//~: stop the server
+			stop(server);
+		}
+	}
+
+	public void testKeepAlive()
+	  throws Exception
+	{
+		LowHat server = server();
+
+		//~: collect the sockets
+		Set<Object> sockets = ConcurrentHashMap.newKeySet();
+		setup.setExecute(args ->
+		{
+			sockets.add(args[2]);
+			DO.act(args);
+		});
+
+		//~: start the server
+		server.start(setup, (args) -> print("testing keep-alive"));
+
+		try
+		{
+			//~: sequential requests on the same connection
+			for(int i = 0;(i < 10);i++)
+				EX.assertx(new TestKeep().request());
+
+			//?: {connection was reused}
+			EX.assertx(sockets.size() < 10, "Sockets: ", sockets.size());
+
+			//~: pipelined requests on a raw socket
+			try(Socket s = new Socket(setup.getAddress(), setup.getPort()))
+			{
+				s.getOutputStream().write((
+				  "GET /a?a=1 HTTP/1.1\r\nHost: x\r\n\r\n" +
+				  "POST /b HTTP/1.1\r\nHost: x\r\n" +
+				  "Content-Type: application/x-www-form-urlencoded\r\n" +
+				  "Content-Length: 3\r\n\r\nb=2" +
+				  "POST /d HTTP/1.1\r\nHost: x\r\n" +
+				  "Content-Type: application/x-www-form-urlencoded\r\n" +
+				  "Transfer-Encoding: chunked\r\n\r\n" +
+				  "2\r\nd=\r\n1;x=y\r\n4\r\n0\r\nX-Trailer: 1\r\n\r\n" +
+				  "GET /c?c=3 HTTP/1.1\r\nHost: x\r\nConnection: close\r\n\r\n"
+				).getBytes("UTF-8"));
+
+				//~: read till the close
+				String r; try(Support.BytesStream b = new Support.BytesStream())
+				{
+					b.write(s.getInputStream());
+					r = new String(b.bytes(), "UTF-8");
+				}
+
+				//?: {got all the responses}
+				EX.assertx(r.split("HTTP/1.1 200 OK").length == 5, r);
+				EX.assertx(r.contains("Response: 1\r\n"), r);
+				EX.assertx(r.contains("Response: 2\r\n"), r);
+				EX.assertx(r.contains("Response: 3\r\n"), r);
+				EX.assertx(r.contains("Response: 4\r\n"), r);
+				EX.assertx(r.contains("Connection: close\r\n"), r);
+			}
+
+			//~: not drained, or ambiguous bodies close the connection
+			String[] closing = {
+			  "GET /e?e=5 HTTP/1.1\r\nHost: x\r\n" +
+			  "Transfer-Encoding: chunked\r\n\r\n" +
+			  "17\r\nGET /f?f=6 HTTP/1.1\r\n\r\n\r\n0\r\n\r\n",
+
+			  "POST /e HTTP/1.1\r\nHost: x\r\n" +
+			  "Content-Type: application/x-www-form-urlencoded\r\n" +
+			  "Content-Length: 3\r\nTransfer-Encoding: chunked\r\n\r\n" +
+			  "3\r\ne=5\r\n0\r\n\r\n"
+			};
+
+			for(String x : closing)
+				try(Socket s = new Socket(setup.getAddress(), setup.getPort()))
+				{
+					s.getOutputStream().write((x +
+					  "GET /g?f=6 HTTP/1.1\r\nHost: x\r\n\r\n").getBytes("UTF-8"));
+
+					//~: read till the close
+					String r; try(Support.BytesStream b = new Support.BytesStream())
+					{
+						b.write(s.getInputStream());
+						r = new String(b.bytes(), "UTF-8");
+					}
+
+					//?: {only the first response}
+					EX.assertx(r.split("HTTP/1.1 ").length == 2, r);
+					EX.assertx(r.contains("Response: 5\r\n"), r);
+					EX.assertx(r.contains("Connection: close\r\n"), r);
+				}
+		}
+		finally
+		{
+			//~: stop the server
+			stop(server);
+		}
+	}
+
+	public void testDrain()
+	  throws Exception
+	{
+		LowHat server = server();
+
+		//~: answers not reading the body
+		setup.setInflate(true);
+		setup.setExecute(args ->
+			((Response) args[1]).write(new Support.CharBytes("0").input()));
+
+		//~: body inflated over the drain limit
+		ByteArrayOutputStream g = new ByteArrayOutputStream();
+		try(GZIPOutputStream o = new GZIPOutputStream(g))
+		{
+			o.write(new byte[1024 * 1024]);
+		}
+
+		byte[] z = g.toByteArray();
+
+		//~: start the server
+		server.start(setup, (args) -> print("testing drain"));
+
+		try(Socket s = new Socket(setup.getAddress(), setup.getPort()))
+		{
+			s.getOutputStream().write(("POST /z HTTP/1.1\r\nHost: x\r\n" +
+			  "Content-Encoding: gzip\r\nContent-Length: " + z.length +
+			  "\r\n\r\n").getBytes("UTF-8"));
+			s.getOutputStream().write(z);
+			s.getOutputStream().write(("GET /a HTTP/1.1\r\nHost: x\r\n" +
+			  "Connection: close\r\n\r\n").getBytes("UTF-8"));
+
+			//~: read till the close
+			String r; try(Support.BytesStream b = new Support.BytesStream())
+			{
+				b.write(s.getInputStream());
+				r = new String(b.bytes(), "UTF-8");
+			}
+
+			//?: {the connection was kept}
+			EX.assertx(r.split("HTTP/1.1 200 OK").length == 3, r);
+		}
+		finally
+		{
+			//~: stop the server
+			stop(server);
+		}
+	}
+
+	public void testError()
+	  throws Exception
+	{
+		LowHat server = server();
+
+		//~: fails after the write
+		setup.setExecute(args ->
+		{
+			DO.act(args);
+
+			Request req = (Request) args[0];
+			EX.assertx(req.getParam("z") == null);
+		});
+
+		//~: start the server
+		server.start(setup, (args) -> print("testing handler error"));
+
+		try
+		{
+			//~: buffered body is replaced
+			URL u = new URL("http", setup.getAddress(), setup.getPort(), "/?a=1&z=1");
+			HttpURLConnection co = (HttpURLConnection) u.openConnection();
+			EX.assertx(co.getResponseCode() == 500);
+			co.disconnect();
+
+			//~: the next request succeeds
+			u = new URL("http", setup.getAddress(), setup.getPort(), "/?a=1");
+			co = (HttpURLConnection) u.openConnection();
+			EX.assertx(co.getResponseCode() == 200);
+			co.disconnect();
+		}
+		finally
+		{
+			//~: stop the server
+			stop(server);
+		}
+	}
+
+	public void testIdle()
+	  throws Exception
+	{
+		LowHat server = server();
+
+		//~: default pool and keep-alive
+		setup.setExecute(DO);
+
+		//~: start the server
+		server.start(setup, (args) -> print("testing idle connections"));
+
+		Socket[] idle = new Socket[8];
+		try
+		{
+			//~: leave the connections idle
+			for(int i = 0;(i < idle.length);i++)
+			{
+				idle[i] = new Socket(setup.getAddress(), setup.getPort());
+				idle[i].getOutputStream().write(("GET /?a=" + i +
+				  " HTTP/1.1\r\nHost: x\r\n\r\n").getBytes("UTF-8"));
+
+				String r = head(idle[i].getInputStream());
+				EX.assertx(r.contains("Response: " + i + "\r\n"), r);
+			}
+
+			//~: one more connection
+			long ts = System.currentTimeMillis();
+			try(Socket s = new Socket(setup.getAddress(), setup.getPort()))
+			{
+				s.getOutputStream().write(("GET /?a=9 HTTP/1.1\r\n" +
+				  "Host: x\r\nConnection: close\r\n\r\n").getBytes("UTF-8"));
+
+				String r = head(s.getInputStream());
+				EX.assertx(r.contains("Response: 9\r\n"), r);
+			}
+
+			//?: {had not waited for the idle ones}
+			ts = System.currentTimeMillis() - ts;
+			EX.assertx(ts < setup.getKeepAliveTimeout() / 2, "Waited: ", ts);
+		}
+		finally
+		{
+			for(Socket s : idle)
+				if(s != null)
+					s.close();
+
+			//~: stop the server
+			stop(server);
+		}
+	}
+
+	public void testTransfer()
+	  throws Exception
+	{
+		LowHat server = server();
+
+		//~: random file
+		byte[] data = new byte[300000];
+		seeder.nextBytes(data);
+
+		Path f = Files.createTempFile("lohttp-", ".bin");
+		Files.write(f, data);
+
+		//~: transfer the region of the path
+		setup.setExecute(args ->
+		{
+			Get req = (Get) args[0];
+			int off = Integer.parseInt(req.getParam("o"));
+			int len = Integer.parseInt(req.getParam("l"));
+
+			try(FileChannel c = FileChannel.open(f))
+			{
+				((Responses.Transfer) args[1]).transfer(c, off, len);
+			}
+			catch(Throwable e)
+			{
+				throw EX.wrap(e);
+			}
+		});
+
+		//~: start the server
+		server.start(setup, (args) -> print("testing file transfer"));
+
+		try
+		{
+			for(int i = 0;(i < 20);i++)
+			{
+				int o = seeder.nextInt(data.length);
+				int l = (i % 2 == 0)?(seeder.nextInt(100)):
+				  (seeder.nextInt(data.length - o));
+
+				URL u = new URL("http", setup.getAddress(), setup.getPort(),
+				  "/?o=" + o + "&l=" + l);
+
+				HttpURLConnection co = (HttpURLConnection) u.openConnection();
+				EX.assertx(co.getResponseCode() == 200);
+				EX.assertx(co.getContentLengthLong() == l);
+
+				try(InputStream x = co.getInputStream())
+				{
+					try(Support.BytesStream b = new Support.BytesStream())
+					{
+						b.write(x);
+						EX.assertx(Arrays.equals(b.bytes(),
+						  Arrays.copyOfRange(data, o, o + l)));
+					}
+				}
+			}
+		}
+		finally
+		{
+			//~: stop the server
+			stop(server);
+			Files.delete(f);
+		}
+	}
+
+	/**
+	 * GET request that reads the body
+	 * leaving the connection alive.
+	 */
+	protected class TestKeep extends TestGet
+	{
+		public boolean request()
+		  throws Exception
+		{
+			HttpURLConnection co = (HttpURLConnection) url().openConnection();
+
+			//~: init the connection
+			init(co);
+
+			//?: {server had failed}
+			if(co.getResponseCode() != 200)
+				return false;
+
+			//~: response body
+			try(InputStream i = co.getInputStream())
+			{
+				try(Support.BytesStream b = new Support.BytesStream())
+				{
+					b.write(i);
+					String r = new String(b.bytes(), "UTF-8");
+					EX.assertx(Integer.toString(result).equals(r));
+				}
+			}
+
+			return true;
+		}
+	}
+
 
 	/* Enter Point & Helpers */
 
 	public static void  main(String[] argv)
 	  throws Exception
 	{
-		run("testStartStop", 0L);
-		run("testPauseResume", 0L);
-		run("testMassiveTouch", 0L);
-		run("testGetPost", 0L);
+		for(Class<? extends LowHat> hat : HATS)
+		{
+			run(hat, "testStartStop", 0L);
+			run(hat, "testPauseResume", 0L);
+			run(hat, "testMassiveTouch", 0L);
+			run(hat, "testGetPost", 0L);
+			run(hat, "testKeepAlive", 0L);
+			run(hat, "testIdle", 0L);
+			run(hat, "testError", 0L);
+			run(hat, "testDrain", 0L);
+			run(hat, "testLazyDecode", 0L);
+			run(hat, "testAcceptors", 0L);
+			run(hat, "testTransfer", 0L);
+		}
 	}
 
-	private static void run(String method, long seed)
+	/**
+	 * Server implementations tested.
+	 */
+	@SuppressWarnings("unchecked")
+	private static final Class<? extends LowHat>[] HATS =
+	  new Class[] { LowHat.class, SelectHat.class };
+
+	private static void run(Class<? extends LowHat> hat, String method, long seed)
 	  throws Exception
 	{
 		TestLowHat test = new TestLowHat();
 
+		test.hat = hat;
+
 		test.seeder = (seed == 0L)?(new Random()):(new Random(seed));
 		test.gen.set(test.seeder);
 
@@ -220,9 +652,35 @@ public class TestLowHat
 	private String method;
 	private Setup  setup;
 
+	private Class<? extends LowHat> hat;
+
+	private LowHat server()
+	  throws Exception
+	{
+		return hat.getConstructor().newInstance();
+	}
+
 	private void print(Object... msg)
 	{
-		System.out.println(EX.cat(method, ": ", msg));
+		System.out.println(EX.cat(hat.getSimpleName(), ".", method, ": ", msg));
+	}
+
+	/**
+	 * Reads the response headers.
+	 */
+	private static String head(InputStream i)
+	  throws Exception
+	{
+		StringBuilder s = new StringBuilder(128);
+
+		while(s.indexOf("\r\n\r\n") == -1)
+		{
+			int b = i.read();
+			EX.assertx(b != -1, "Closed: ", s);
+			s.append((char) b);
+		}
+
+		return s.toString();
 	}
 
 	private static void await(long ms)
@@ -0,0 +1,681 @@
+package net.java.lohttp;
+
+/* Java */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+/* lo*-http: requests */
+
+import net.java.lohttp.Requests.Known;
+import net.java.lohttp.Requests.Pair;
+import net.java.lohttp.Requests.Parser;
+
+
+/**
+ * Tests parsing of the requests.
+ *
+ * @author anton.baukin@gmail.com
+ */
+public class TestRequests
+{
+	public void testParser()
+	  throws Exception
+	{
+		Random gen = new Random();
+
+		//c: feed the preambles by random chunks
+		for(int cycle = 0;(cycle < 1024);cycle++)
+		{
+			String s = PREAMBLES[gen.nextInt(PREAMBLES.length)];
+			byte[] b = (s + "BODY").getBytes("UTF-8");
+
+			try(Parser p = new Parser(null, 8192))
+			{
+				int x = -1;
+
+				for(int o = 0;(x == -1) && (o < b.length);)
+				{
+					int l = Math.min(1 + gen.nextInt(8), b.length - o);
+					x = p.feed(b, o, l);
+					o += l;
+				}
+
+				EX.assertx(x == 0);
+				EX.assertx(p.first() == 0 && p.headers() == 0);
+				EX.assertx(p.whole.e == s.getBytes("UTF-8").length);
+
+				//?: {first line}
+				EX.assertx("GET".equals(str(p, p.method)));
+				EX.assertx("/a/b".equals(str(p, p.path)));
+				EX.assertx("HTTP/1.1".equals(str(p, p.protocol)));
+				EX.assertx(s.contains("?") == (p.params != null));
+
+				if(p.params != null)
+					EX.assertx("x=1&y=%20".equals(str(p, p.params)));
+
+				//?: {headers}
+				EX.assertx(p.headers.length == 4);
+				EX.assertx("Host".equals(str(p, p.headers[0])));
+				EX.assertx("localhost".equals(str(p, p.headers[1])));
+				EX.assertx("X-Test".equals(str(p, p.headers[2])));
+				EX.assertx("a: b".equals(str(p, p.headers[3])));
+			}
+		}
+
+		//c: invalid preambles
+		for(String s : INVALID) try(Parser p = new Parser(null, 8192))
+		{
+			byte[] b = s.getBytes("UTF-8");
+			EX.assertx(p.feed(b, 0, b.length) == 1, "Accepted: ", s);
+		}
+
+		//~: limit reached
+		try(Parser p = new Parser(null, 16))
+		{
+			byte[] b = PREAMBLES[0].getBytes("UTF-8");
+			EX.assertx(p.feed(b, 0, 20) == 2);
+		}
+	}
+
+	public void testLazyDecode()
+	  throws Exception
+	{
+		String s = "GET /a?x=1&y=%D0%B6&x=2&%7A=3&e HTTP/1.1\r\n" +
+		  "Host: localhost\r\nX-Test: 1\r\nx-test: \u0436\r\n\r\n";
+
+		for(boolean lazy : new boolean[] { true, false })
+		{
+			Setup    setup = new Setup().setLazyDecode(lazy);
+			Requests.Basic r = new Requests.Scanner(setup,
+			  new ByteArrayInputStream(s.getBytes("UTF-8"))).
+			  upgrade(Requests.Got.class);
+
+			EX.assertx(lazy == (r.preamble != null));
+
+			//?: {parameters}
+			EX.assertx("1".equals(r.getParam("x")));
+			EX.assertx("\u0436".equals(r.getParam("y")));
+			EX.assertx("3".equals(r.getParam("z")));
+			EX.assertx("".equals(r.getParam("e")));
+			EX.assertx(r.getParam("w") == null);
+			EX.assertx(r.takeParams("x", v -> {}) == 2);
+
+			//?: {headers}
+			EX.assertx("localhost".equals(r.getHeader("HOST")));
+			EX.assertx("1".equals(r.getHeader("x-test")));
+			EX.assertx(r.takeHeaders("X-Test", v -> {}) == 2);
+			EX.assertx(r.getHeader("Accept") == null);
+
+			//?: {all the names in the order}
+			EX.assertx(Arrays.equals(r.getParams(),
+			  new String[] { "x", "y", "z", "e" }));
+			EX.assertx(Arrays.equals(r.getHeaders(),
+			  new String[] { "host", "x-test" }));
+
+			//~: complete the request
+			r.close();
+
+			//?: {decoded values are available}
+			EX.assertx("localhost".equals(r.getHeader("Host")));
+			EX.assertx(r.preamble == null);
+		}
+
+		//~: parameter names are case-sensitive in both modes
+		s = "GET /a?Id=1&id=2&a+b=3&a%62=4 HTTP/1.1\r\nHost: localhost\r\n\r\n";
+
+		for(boolean lazy : new boolean[] { true, false })
+		{
+			Setup    setup = new Setup().setLazyDecode(lazy);
+			Requests.Basic r = new Requests.Scanner(setup,
+			  new ByteArrayInputStream(s.getBytes("UTF-8"))).
+			  upgrade(Requests.Got.class);
+
+			EX.assertx("1".equals(r.getParam("Id")));
+			EX.assertx("2".equals(r.getParam("id")));
+			EX.assertx(r.getParam("ID") == null);
+			EX.assertx(r.takeParams("id", v -> {}) == 1);
+
+			EX.assertx("3".equals(r.getParam("a b")));
+			EX.assertx("4".equals(r.getParam("ab")));
+			EX.assertx(r.getParam("a+b") == null);
+			EX.assertx(r.getParam("a%62") == null);
+
+			r.close();
+		}
+	}
+
+	public void testKnownHeaders()
+	  throws Exception
+	{
+		//?: {the table is perfect}
+		for(int i = 0;(i < Known.NAMES.length);i++)
+		{
+			EX.assertx(Known.ordinal(Known.NAMES[i]) == i);
+			EX.assertx(Known.ordinal(new String(Known.NAMES[i])) == i);
+		}
+
+		EX.assertx(Known.ordinal("Host") == -1);
+		EX.assertx(Known.ordinal("x-unknown") == -1);
+
+		String s = "GET / HTTP/1.1\r\nHOST: localhost\r\nX-Unknown: 1\r\n" +
+		  "Content-length: 0\r\nconnection: close\r\nConnection: x\r\n\r\n";
+
+		for(boolean lazy : new boolean[] { true, false })
+		{
+			Setup    setup = new Setup().setLazyDecode(lazy);
+			Requests.Basic r = new Requests.Scanner(setup,
+			  new ByteArrayInputStream(s.getBytes("UTF-8"))).
+			  upgrade(Requests.Got.class);
+
+			EX.assertx("localhost".equals(r.getHeader(Known.HOST)));
+			EX.assertx("localhost".equals(r.getHeader("Host")));
+			EX.assertx("1".equals(r.getHeader("x-unknown")));
+			EX.assertx("0".equals(r.getHeader("Content-Length")));
+			EX.assertx(r.takeHeaders(Known.CONNECTION, v -> {}) == 2);
+			EX.assertx(r.getHeader(Known.COOKIE) == null);
+
+			//?: {the names are the constants}
+			String[] hs = r.getHeaders();
+			EX.assertx(hs.length == 4);
+			EX.assertx(hs[0] == Known.HOST);
+			EX.assertx(hs[2] == Known.CONTENT_LENGTH);
+			EX.assertx(hs[3] == Known.CONNECTION);
+
+			r.close();
+		}
+	}
+
+	public void testUrlDecoder()
+	  throws Exception
+	{
+		Random gen = new Random();
+
+		//~: strings with simple and complex characters
+		String[] CPs = new String[] {
+		  "a", "Z", " ", "=", "&", "+", "%", "\u0436", "\u0928\u093F\u4E9C", "\uD800\uDC83"
+		};
+
+		for(int cycle = 0;(cycle < 1024);cycle++)
+		{
+			List<String> src = new ArrayList<>();
+			StringBuilder  q = new StringBuilder();
+
+			//~: random pairs encoded
+			for(int n = gen.nextInt(8);(n > 0);n--)
+			{
+				String[] nv = new String[2];
+
+				for(int j = 0;(j < 2);j++)
+				{
+					StringBuilder x = new StringBuilder();
+					for(int l = 1 + gen.nextInt(8);(l > 0);l--)
+						x.append(CPs[gen.nextInt(CPs.length)]);
+					nv[j] = x.toString();
+				}
+
+				src.add(nv[0]);
+				src.add(nv[1]);
+
+				if(q.length() != 0) q.append('&');
+				q.append(URLEncoder.encode(nv[0], "UTF-8")).append('=').
+				  append(URLEncoder.encode(nv[1], "UTF-8"));
+			}
+
+			//~: decode by random chunks
+			List<String>    res = new ArrayList<>();
+			Requests.UrlDecoder d = new Requests.UrlDecoder((n, v) -> {
+				res.add(n);
+				res.add(v);
+			});
+
+			byte[] b = q.toString().getBytes("UTF-8");
+			for(int o = 0;(o < b.length);)
+			{
+				int l = Math.min(1 + gen.nextInt(8), b.length - o);
+				d.take(b, o, l);
+				o += l;
+			}
+
+			d.finish();
+			EX.assertx(src.equals(res));
+		}
+
+		//~: special cases
+		Map<String, Object> ps = new LinkedHashMap<>();
+		byte[] b = "a=%zz&b=%4&c&&d=%e2%82%ac%ff=".getBytes("UTF-8");
+		Requests.params(new ByteArrayInputStream(b), Requests.params(ps));
+
+		EX.assertx("%zz".equals(ps.get("a")));
+		EX.assertx("%4".equals(ps.get("b")));
+		EX.assertx("".equals(ps.get("c")));
+		EX.assertx("\u20AC\uFFFD=".equals(ps.get("d")));
+		EX.assertx(ps.size() == 4);
+
+		b = "a+b%3D%26".getBytes("UTF-8");
+		EX.assertx("a b=&".equals(Requests.UrlDecoder.decode(b, 0, b.length)));
+	}
+
+	public void testFactory()
+	  throws Exception
+	{
+		Setup setup = new Setup().setFactory("PUT", (s, i) ->
+		  new Requests.Bodied(s, i)
+		  {
+			  public String getPath()
+			  {
+				  return "put:" + super.getPath();
+			  }
+		  });
+
+		//?: {clone has own factories}
+		Setup clone = setup.clone().setFactory("PUT", Requests.Bodied.FACTORY);
+		EX.assertx(setup.getFactory("PUT") != clone.getFactory("PUT"));
+		EX.assertx(setup.getFactory("POST") == null);
+
+		byte[] b = "PUT /a HTTP/1.1\r\nContent-Length: 1\r\n\r\nX".getBytes("UTF-8");
+		Requests.Basic r = new Requests.Scanner(setup, new ByteArrayInputStream(b)).
+		  upgrade(setup.getFactory("PUT"));
+
+		EX.assertx("put:/a".equals(r.getPath()));
+		EX.assertx(((Post)r).input().read() == 'X');
+		EX.assertx(((Post)r).input().read() == -1);
+	}
+
+	public void testOverRead()
+	  throws Exception
+	{
+		Random gen = new Random();
+
+		for(int cycle = 0;(cycle < 256);cycle++)
+		{
+			//~: random body
+			byte[] body = new byte[gen.nextInt(4096)];
+			gen.nextBytes(body);
+
+			//~: random preamble with the body
+			StringBuilder x = new StringBuilder(
+			  "POST / HTTP/1.1\r\nContent-Length: " + body.length + "\r\n");
+			for(int i = gen.nextInt(64);(i > 0);i--)
+				x.append("X-").append(i).append(": ").append(i * 1000).append("\r\n");
+			x.append("\r\n");
+
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			bos.write(x.toString().getBytes("UTF-8"));
+			bos.write(body);
+			bos.write("NEXT".getBytes("UTF-8"));
+
+			//~: feed all the bytes at once
+			byte[]   b = bos.toByteArray();
+			Parser   p = new Parser(null, 8192);
+			EX.assertx(p.feed(b, 0, b.length) == 0);
+
+			boolean lazy = gen.nextBoolean();
+			Setup  setup = new Setup().setLazyDecode(lazy);
+			Support.PushbackInput in = new Support.PushbackInput(
+			  new ByteArrayInputStream(new byte[0]));
+
+			Requests.Basic r = new Requests.Scanner(setup, p, in).
+			  upgrade(Requests.Bodied.FACTORY);
+
+			//?: {the body is read}
+			ByteArrayOutputStream res = new ByteArrayOutputStream();
+			Support.pump(((Post)r).input(), res);
+			EX.assertx(Arrays.equals(body, res.toByteArray()));
+
+			//?: {the headers are still available}
+			EX.assertx(Integer.toString(body.length).equals(
+			  r.getHeader(Known.CONTENT_LENGTH)));
+
+			if(r.getHeader("X-1") != null)
+				EX.assertx("1000".equals(r.getHeader("X-1")));
+
+			r.close();
+
+			//?: {the next bytes follow}
+			ByteArrayOutputStream next = new ByteArrayOutputStream();
+			Support.pump(in, next);
+			EX.assertx("NEXT".equals(new String(next.toByteArray(), "UTF-8")));
+			EX.assertx(!in.isBuffered());
+		}
+	}
+
+	public void testMultipart()
+	  throws Exception
+	{
+		Random gen = new Random();
+		String  bd = "----lohttp0boundary";
+
+		//~: parse random parts by random reads
+		for(int cycle = 0;(cycle < 256);cycle++)
+		{
+			List<byte[]>          bodies = new ArrayList<byte[]>();
+			ByteArrayOutputStream bos    = new ByteArrayOutputStream();
+
+			bos.write("preamble\r\n".getBytes("UTF-8"));
+			for(int i = gen.nextInt(8);(i >= 0);i--)
+			{
+				byte[] body = new byte[gen.nextInt(cycle * 64 + 1)];
+				byte[] d    = ("\r\n--" + bd).getBytes("UTF-8");
+
+				do
+				{
+					gen.nextBytes(body);
+
+					//~: the delimiter prefixes inside
+					for(int j = gen.nextInt(4);(j > 0) && (body.length > d.length);j--)
+					{
+						int k = gen.nextInt(body.length - d.length);
+						System.arraycopy(d, 0, body, k, 1 + gen.nextInt(d.length - 1));
+					}
+				}
+				while(new String(body, "ISO-8859-1").contains(
+				  new String(d, "ISO-8859-1"))); //<-- prefixes may join
+
+				bodies.add(body);
+				bos.write(("--" + bd + " \r\nContent-Disposition: form-data; " +
+				  "name=\"f" + i + "\"; filename=\"a b.bin\"\r\n\r\n").getBytes("UTF-8"));
+				bos.write(body);
+				bos.write("\r\n".getBytes("UTF-8"));
+			}
+			bos.write(("--" + bd + "--\r\nepilogue").getBytes("UTF-8"));
+
+			final byte[] b = bos.toByteArray();
+			Multipart mp = new Multipart(new ByteArrayInputStream(b)
+			{
+				public synchronized int read(byte[] x, int o, int l)
+				{
+					return super.read(x, o, Math.min(l, 1 + gen.nextInt(97)));
+				}
+			}, bd);
+
+			for(int i = 0;(i < bodies.size());i++)
+			{
+				Multipart.Part p = mp.next();
+
+				EX.assertn(p);
+				EX.assertx(("f" + (bodies.size() - 1 - i)).equals(p.name));
+				EX.assertx("a b.bin".equals(p.filename));
+
+				//?: {skip some parts}
+				if(gen.nextInt(4) == 0)
+					continue;
+
+				ByteArrayOutputStream res = new ByteArrayOutputStream();
+				Support.pump(p.input(), res);
+				EX.assertx(Arrays.equals(bodies.get(i), res.toByteArray()));
+			}
+
+			EX.assertx(mp.next() == null);
+			mp.close();
+		}
+
+		//~: decode the form
+		String b = "--" + bd + "\r\n" +
+		  "Content-Disposition: form-data; name=\"a\"\r\n\r\n1\r\n" +
+		  "--" + bd + "\r\n" +
+		  "Content-Disposition: form-data; name=\"\u0436\"\r\n" +
+		  "Content-Type: text/plain;charset=UTF-8\r\n\r\n\u0436\u0436\r\n" +
+		  "--" + bd + "\r\n" +
+		  "Content-Disposition: form-data; name=\"a\"\r\n\r\n2\r\n" +
+		  "--" + bd + "\r\n" +
+		  "Content-Disposition: form-data; name=\"long\"\r\n\r\n" +
+		  new String(new char[200]).replace('\0', 'x') + "\r\n" +
+		  "--" + bd + "\r\n" +
+		  "Content-Disposition: form-data; name=\"file\"; filename=\"x.txt\"\r\n" +
+		  "Content-Type: text/plain\r\n\r\nfile\r\n" +
+		  "--" + bd + "--\r\n";
+
+		byte[] body = b.getBytes("UTF-8");
+		String    x = "POST /?a=0 HTTP/1.1\r\nContent-Length: " + body.length +
+		  "\r\nContent-Type: multipart/form-data; boundary=" + bd + "\r\n\r\n";
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		bos.write(x.getBytes("UTF-8"));
+		bos.write(body);
+
+		Setup setup = new Setup().setMultipartSpill(100);
+		Requests.Bodied r = (Requests.Bodied) new Requests.Scanner(setup,
+		  new ByteArrayInputStream(bos.toByteArray())).
+		  upgrade(Requests.Bodied.FACTORY);
+
+		EX.assertx(r.decode());
+		List<String> as = new ArrayList<String>();
+		EX.assertx(r.takeParams("a", as::add) == 3);
+		EX.assertx(Arrays.asList("0", "1", "2").equals(as));
+		EX.assertx("\u0436\u0436".equals(r.getParam("\u0436")));
+		EX.assertx(r.getParam("long") == null);
+
+		//?: {long field and the file are stored}
+		List<Multipart.Part> ps = r.getParts();
+		EX.assertx(ps.size() == 2);
+
+		EX.assertx("long".equals(ps.get(0).name));
+		EX.assertx(ps.get(0).length() == 200);
+		java.io.File f = EX.assertn(ps.get(0).file());
+		EX.assertx(f.length() == 200);
+
+		EX.assertx("x.txt".equals(ps.get(1).filename));
+		EX.assertx("text/plain".equals(ps.get(1).getContentType()));
+		EX.assertx(ps.get(1).file() == null);
+		EX.assertx("file".equals(ps.get(1).string()));
+
+		//?: {the file is deleted}
+		r.close();
+		EX.assertx(!f.exists());
+
+		//~: the memory of the fields is limited
+		b = "";
+		for(int i = 0;(i < 3);i++)
+			b += "--" + bd + "\r\nContent-Disposition: form-data; name=\"f\"\r\n\r\n" +
+			  new String(new char[50]).replace('\0', (char)('a' + i)) + "\r\n";
+		b += "--" + bd + "--\r\n";
+
+		x = "POST / HTTP/1.1\r\nContent-Length: " + b.length() +
+		  "\r\nContent-Type: multipart/form-data; boundary=" + bd + "\r\n\r\n";
+
+		setup = new Setup().setMultipartMemory(120);
+		r = (Requests.Bodied) new Requests.Scanner(setup,
+		  new ByteArrayInputStream((x + b).getBytes("UTF-8"))).
+		  upgrade(Requests.Bodied.FACTORY);
+
+		EX.assertx(r.decode());
+		EX.assertx(r.takeParams("f", v -> {}) == 2);
+		EX.assertx(r.getParts().size() == 1);
+		EX.assertx((f = r.getParts().get(0).file()) != null);
+		EX.assertx(f.length() == 50);
+		r.close();
+		EX.assertx(!f.exists());
+
+		//~: header parameters regardless of the locale
+		java.util.Locale locale = java.util.Locale.getDefault();
+		java.util.Locale.setDefault(new java.util.Locale("tr", "TR"));
+
+		try
+		{
+			String cd = "form-data; NAME=\"a\"; FILENAME=\"\u0130\u0130.txt\"";
+
+			EX.assertx("a".equals(Multipart.parameter(cd, "name")));
+			EX.assertx("\u0130\u0130.txt".equals(Multipart.parameter(cd, "filename")));
+			EX.assertx(bd.equals(Multipart.boundary(
+			  "MULTIPART/FORM-DATA; BOUNDARY=" + bd)));
+			EX.assertx(Multipart.parameter("form-data; f\u0131lename=\"x\"", "filename") == null);
+		}
+		finally
+		{
+			java.util.Locale.setDefault(locale);
+		}
+	}
+
+	public void testChunked()
+	  throws Exception
+	{
+		Random gen = new Random();
+
+		for(int cycle = 0;(cycle < 256);cycle++)
+		{
+			byte[] body = new byte[gen.nextInt(cycle * 256 + 1)];
+			gen.nextBytes(body);
+
+			//?: {gzip encoding}
+			boolean gzip = gen.nextBoolean();
+			byte[]  data = body;
+
+			if(gzip)
+			{
+				ByteArrayOutputStream z = new ByteArrayOutputStream();
+				try(GZIPOutputStream o = new GZIPOutputStream(z))
+				{
+					o.write(body);
+				}
+
+				data = z.toByteArray();
+			}
+
+			//~: random chunks
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			bos.write(("POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n" +
+			  ((gzip)?("Content-Encoding: gzip\r\n"):("")) +
+			  "Content-Length: 1\r\n\r\n").getBytes("UTF-8"));
+
+			for(int i = 0;(i < data.length);)
+			{
+				int n = Math.min(data.length - i, 1 + gen.nextInt(4096));
+				bos.write((Integer.toHexString(n) +
+				  ((gen.nextBoolean())?(";x=y"):("")) + "\r\n").getBytes("UTF-8"));
+				bos.write(data, i, n);
+				bos.write("\r\n".getBytes("UTF-8"));
+				i += n;
+			}
+
+			bos.write("0\r\nX-Trailer: 1\r\n\r\nNEXT".getBytes("UTF-8"));
+
+			//~: read by random portions
+			Support.PushbackInput in = new Support.PushbackInput(
+			  new ByteArrayInputStream(bos.toByteArray())
+			  {
+				  public synchronized int read(byte[] x, int o, int l)
+				  {
+					  return super.read(x, o, Math.min(l, 1 + gen.nextInt(700)));
+				  }
+			  });
+
+			Setup setup = new Setup().setInflate(true);
+			Requests.Basic r = new Requests.Scanner(setup, in).
+			  upgrade(Requests.Bodied.FACTORY);
+
+			//?: {the body is decoded}
+			ByteArrayOutputStream res = new ByteArrayOutputStream();
+			Support.pump(((Post)r).input(), res);
+			EX.assertx(Arrays.equals(body, res.toByteArray()));
+			r.close();
+
+			//?: {the next bytes follow}
+			ByteArrayOutputStream next = new ByteArrayOutputStream();
+			Support.pump(in, next);
+			EX.assertx("NEXT".equals(new String(next.toByteArray(), "UTF-8")));
+		}
+
+		//~: the limits and malformed chunks
+		String[] bodies = {
+		  "5\r\nabcde\r\n6\r\nfghijk\r\n0\r\n\r\n",
+		  "5\r\nabcde\r\nx\r\n0\r\n\r\n",
+		  "5\r\nabcdef\r\n0\r\n\r\n",
+		  "5\r\nabc"
+		};
+
+		for(String b : bodies)
+		{
+			Setup setup = new Setup().setBodyLimit(10);
+			Requests.Basic r = new Requests.Scanner(setup, new ByteArrayInputStream(
+			  ("POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n" + b).
+			  getBytes("UTF-8"))).upgrade(Requests.Bodied.FACTORY);
+
+			boolean failed = false; try
+			{
+				Support.pump(((Post)r).input(), new ByteArrayOutputStream());
+			}
+			catch(java.io.IOException e)
+			{
+				failed = true;
+			}
+
+			EX.assertx(failed, b);
+		}
+
+		//~: inflated size limit
+		ByteArrayOutputStream z = new ByteArrayOutputStream();
+		try(GZIPOutputStream o = new GZIPOutputStream(z))
+		{
+			o.write(new byte[100000]);
+		}
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		bos.write(("POST / HTTP/1.1\r\nContent-Encoding: gzip\r\n" +
+		  "Content-Length: " + z.size() + "\r\n\r\n").getBytes("UTF-8"));
+		z.writeTo(bos);
+
+		Setup setup = new Setup().setInflate(true).setBodyLimit(99999);
+		Requests.Basic r = new Requests.Scanner(setup, new ByteArrayInputStream(
+		  bos.toByteArray())).upgrade(Requests.Bodied.FACTORY);
+
+		boolean failed = false; try
+		{
+			Support.pump(((Post)r).input(), new ByteArrayOutputStream());
+		}
+		catch(java.io.IOException e)
+		{
+			failed = (e.getMessage().contains("limit"));
+		}
+
+		EX.assertx(failed);
+		r.close();
+	}
+
+	static final String[] PREAMBLES = {
+	  "GET /a/b HTTP/1.1\r\nHost: localhost\r\nX-Test:  a: b\r\n\r\n",
+	  "GET  /a/b?x=1&y=%20  HTTP/1.1\r\nHost: localhost\r\nX-Test: a: b\r\n\r\n",
+	  "GET /a/b?x=1&y=%20 HTTP/1.1\nHost: localhost\nX-Test: a: b\n\n"
+	};
+
+	static final String[] INVALID = {
+	  "\r\n\r\n",
+	  "GET\r\n\r\n",
+	  "GET /\r\n\r\n",
+	  "GET / HTTP/1.1\r\nHost\r\n\r\n",
+	  "GET / HTTP/1.1\r\nHost:\r\n\r\n",
+	  "GET / HTTP/1.1\r\n: x\r\n\r\n",
+	  "GET / HTTP/1.1\r\rHost: x\r\n\r\n"
+	};
+
+	static String str(Parser p, Pair x)
+	  throws Exception
+	{
+		byte[] b = p.bytes.bytes();
+		return new String(b, x.b, x.e - x.b, "UTF-8");
+	}
+
+
+	/* public: test entry point */
+
+	public static void main(String[] argv)
+	  throws Exception
+	{
+		new TestRequests().testParser();
+		new TestRequests().testLazyDecode();
+		new TestRequests().testKnownHeaders();
+		new TestRequests().testUrlDecoder();
+		new TestRequests().testFactory();
+		new TestRequests().testOverRead();
+		new TestRequests().testMultipart();
+		new TestRequests().testChunked();
+	}
+}
@@ -0,0 +1,655 @@
+package net.java.lohttp;
+
+/* Java */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+
+/**
+ * Tests writing of the responses.
+ *
+ * @author anton.baukin@gmail.com
+ */
+public class TestResponses
+{
+	public void testPreamble()
+	  throws Exception
+	{
+		//~: status lines of all the codes
+		for(int c = 100;(c < 600);c++)
+		{
+			String r = Responses.reason(c);
+			String l = new String(Responses.statusLine(c), "ASCII");
+
+			EX.assertx(l.equals("HTTP/1.1 " + c + " " +
+			  ((r == null)?(""):(r)) + "\r\n"));
+		}
+
+		EX.assertx(Responses.statusLine(200) == Responses.statusLine(200));
+
+		//~: preamble with the headers
+		ByteArrayOutputStream o = new ByteArrayOutputStream();
+		Responses.Headed      h = new Responses.Headed(o);
+
+		h.setKeepAlive(true, true);
+		h.setStatus(404);
+		h.addHeader("Content-Type", "text/plain");
+		h.addHeader("X-Name", "\u00e9\u0436\ud83d\ude00\ud83d.");
+		h.addHeader("Content-Length", "0");
+		h.write(null);
+		h.complete();
+
+		//HINT: ISO-8859-1 is written as-is, the rest in UTF-8.
+
+		ByteArrayOutputStream x = new ByteArrayOutputStream();
+		x.write(("HTTP/1.1 404 Not Found\r\nContent-Type: text/plain\r\n" +
+		  "X-Name: ").getBytes("ASCII"));
+		x.write(0xE9);
+		x.write("\u0436\ud83d\ude00".getBytes("UTF-8"));
+		x.write("?.\r\nContent-Length: 0\r\n\r\n".getBytes("ASCII"));
+
+		EX.assertx(Arrays.equals(x.toByteArray(), o.toByteArray()));
+
+		//~: large preamble exceeds the pooled buffer
+		StringBuilder v = new StringBuilder();
+		for(int i = 0;(i < 2000);i++)
+			v.append((char)('a' + i % 26));
+
+		o = new ByteArrayOutputStream();
+		h = new Responses.Headed(o);
+
+		h.setKeepAlive(false, false);
+		h.addHeader("X-Large", v.toString());
+		h.write(null);
+		h.complete();
+
+		EX.assertx(o.toString("ASCII").equals(
+		  "HTTP/1.1 200 OK\r\nX-Large: " + v +
+		  "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n"
+		));
+	}
+
+	public void testDate()
+	  throws Exception
+	{
+		//~: cached line is the same
+		byte[] a = Responses.dateLine();
+		byte[] b = Responses.dateLine();
+		EX.assertx((a == b) || !java.util.Arrays.equals(a, b));
+
+		String s = new String(a, "ASCII");
+		EX.assertx(s.matches(
+		  "Date: \\w{3}, \\d{2} \\w{3} \\d{4} \\d{2}:\\d{2}:\\d{2} GMT\r\n"));
+
+		//~: the date is added
+		ByteArrayOutputStream o = new ByteArrayOutputStream();
+		Responses.Headed      h = new Responses.Headed(o);
+
+		h.setKeepAlive(true, true);
+		h.setDate(true);
+		h.addHeader("Content-Length", "0");
+		h.write(null);
+		h.complete();
+		EX.assertx(o.toString("ASCII").contains("\r\nDate: "));
+
+		//~: the date of the handler
+		o = new ByteArrayOutputStream();
+		h = new Responses.Headed(o);
+
+		h.setKeepAlive(true, true);
+		h.setDate(true);
+		h.addHeader("Date", "now");
+		h.addHeader("Content-Length", "0");
+		h.write(null);
+		h.complete();
+		EX.assertx(o.toString("ASCII").equals(
+		  "HTTP/1.1 200 OK\r\nDate: now\r\nContent-Length: 0\r\n\r\n"
+		));
+	}
+
+
+	public void testCoalesced()
+	  throws Exception
+	{
+		//~: small response goes in single write
+		Writes  o = new Writes();
+		Responses.Headed h = new Responses.Headed(o);
+
+		h.setKeepAlive(true, true);
+		h.addHeader("Content-Length", "2");
+		h.write(new Support.CharBytes("OK").input());
+		EX.assertx(o.writes == 0);
+
+		h.complete();
+		EX.assertx(o.writes == 1);
+		EX.assertx(o.toString("ASCII").equals(
+		  "HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nOK"));
+
+		//~: random writes through the buffer
+		Random gen = new Random();
+
+		for(int cycle = 0;(cycle < 256);cycle++)
+		{
+			ByteArrayOutputStream x = new ByteArrayOutputStream();
+			o = new Writes();
+
+			try(Support.BufferedOutput b = new Support.BufferedOutput(o))
+			{
+				for(int i = gen.nextInt(64);(i > 0);i--)
+				{
+					byte[] d = new byte[gen.nextInt(20000)];
+					gen.nextBytes(d);
+
+					if(d.length == 1)
+						b.write(d[0]);
+					else
+						b.write(d, 0, d.length);
+
+					x.write(d);
+				}
+			}
+
+			EX.assertx(Arrays.equals(x.toByteArray(), o.toByteArray()));
+		}
+	}
+
+	public void testFraming()
+	  throws Exception
+	{
+		//~: small body gets the length
+		Writes o = new Writes();
+		Responses.Headed h = new Responses.Headed(o);
+
+		h.setKeepAlive(true, true);
+		h.write(new Support.CharBytes("Hello").input());
+		h.write(new Support.CharBytes(", World!").input());
+		EX.assertx(o.writes == 0);
+		EX.assertx(h.complete());
+
+		EX.assertx(o.writes == 1);
+		EX.assertx(o.toString("ASCII").equals(
+		  "HTTP/1.1 200 OK\r\nContent-Length: 13\r\n\r\nHello, World!"));
+
+		//~: large body is chunked
+		StringBuilder x = new StringBuilder();
+		for(int i = 0;(i < 20000);i++)
+			x.append((char)('a' + i % 26));
+
+		o = new Writes();
+		h = new Responses.Headed(o);
+		h.setKeepAlive(true, true);
+		h.write(new Support.CharBytes(x).input());
+		EX.assertx(h.complete());
+
+		String s = o.toString("ASCII");
+		EX.assertx(s.startsWith(
+		  "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n2000\r\n"));
+		EX.assertx(s.endsWith("\r\n0\r\n\r\n"));
+		EX.assertx(x.toString().equals(unchunk(s.substring(s.indexOf("\r\n\r\n") + 4))));
+
+		//~: large body of HTTP/1.0 closes
+		o = new Writes();
+		h = new Responses.Headed(o);
+		h.setKeepAlive(true, false);
+		h.write(new Support.CharBytes(x).input());
+		EX.assertx(!h.complete());
+		EX.assertx(o.toString("ASCII").equals(
+		  "HTTP/1.1 200 OK\r\nConnection: close\r\n\r\n" + x));
+
+		//~: declared length
+		o = new Writes();
+		h = new Responses.Headed(o);
+		h.setKeepAlive(true, true);
+		h.setContentLength(x.length());
+		h.write(new Support.CharBytes(x).input());
+		EX.assertx(h.complete());
+		EX.assertx(o.toString("ASCII").equals("HTTP/1.1 200 OK\r\n" +
+		  "Content-Length: " + x.length() + "\r\n\r\n" + x));
+
+		//~: not modified has no body
+		o = new Writes();
+		h = new Responses.Headed(o);
+		h.setKeepAlive(true, true);
+		h.setStatus(304);
+		h.write(null);
+		EX.assertx(h.complete());
+		EX.assertx(o.toString("ASCII").equals(
+		  "HTTP/1.1 304 Not Modified\r\n\r\n"));
+
+		//~: buffered body is not committed
+		o = new Writes();
+		h = new Responses.Headed(o);
+		h.setKeepAlive(true, true);
+		h.write(new Support.CharBytes("Hello").input());
+		EX.assertx(!h.isDirty());
+		h.release();
+		EX.assertx(o.writes == 0);
+
+		//~: large body is
+		o = new Writes();
+		h = new Responses.Headed(o);
+		h.setKeepAlive(true, true);
+		h.write(new Support.CharBytes(x).input());
+		EX.assertx(h.isDirty() && (o.writes != 0));
+		h.release();
+	}
+
+	public void testCompression()
+	  throws Exception
+	{
+		//~: negotiation
+		EX.assertx(Responses.negotiate(null) == null);
+		EX.assertx("gzip".equals(Responses.negotiate("gzip, deflate, br")));
+		EX.assertx("deflate".equals(Responses.negotiate("deflate, gzip;q=0.5")));
+		EX.assertx("deflate".equals(Responses.negotiate("gzip;q=0, deflate")));
+		EX.assertx("gzip".equals(Responses.negotiate("*")));
+		EX.assertx(Responses.negotiate("identity, gzip;q=0") == null);
+		EX.assertx(Responses.negotiate("br") == null);
+
+		//~: the content types
+		EX.assertx(Responses.compressible("text/css; charset=UTF-8"));
+		EX.assertx(Responses.compressible("application/json"));
+		EX.assertx(Responses.compressible("image/svg+xml"));
+		EX.assertx(!Responses.compressible("image/png"));
+		EX.assertx(!Responses.compressible("font/woff2"));
+		EX.assertx(!Responses.compressible("application/zip"));
+
+		StringBuilder x = new StringBuilder();
+		for(int i = 0;(i < 100000);i++)
+			x.append("abcdefghij".charAt(i * 7 % 10)).append(i % 100);
+
+		for(String e : new String[] { "gzip", "deflate" })
+		{
+			//~: tiny body is not compressed
+			Writes o = new Writes();
+			Responses.Headed h = new Responses.Headed(o);
+
+			h.setKeepAlive(true, true);
+			h.setCompression(e, 6, 1024);
+			h.write(new Support.CharBytes("tiny").input());
+			EX.assertx(h.complete());
+			EX.assertx(o.toString("ASCII").equals(
+			  "HTTP/1.1 200 OK\r\nContent-Length: 4\r\n\r\ntiny"));
+
+			//~: image is not compressed
+			String m = x.substring(0, 5000);
+			o = new Writes();
+			h = new Responses.Headed(o);
+
+			h.setKeepAlive(true, true);
+			h.setCompression(e, 6, 1024);
+			h.addHeader("Content-Type", "image/png");
+			h.write(new Support.CharBytes(m).input());
+			EX.assertx(h.complete());
+			EX.assertx(o.toString("ASCII").endsWith("\r\n\r\n" + m));
+
+			//~: medium body has the length
+			o = new Writes();
+			h = new Responses.Headed(o);
+
+			h.setKeepAlive(true, true);
+			h.setCompression(e, 6, 1024);
+			h.addHeader("Content-Type", "text/plain");
+			h.write(new Support.CharBytes(m).input());
+			EX.assertx(h.complete());
+			EX.assertx(o.writes == 1);
+
+			byte[] b = o.toByteArray();
+			String p = preamble(b);
+
+			EX.assertx(p.contains("\r\nContent-Encoding: " + e + "\r\n"));
+			EX.assertx(p.contains("\r\nVary: Accept-Encoding\r\n"));
+			EX.assertx(p.contains("\r\nContent-Length: " + (b.length - p.length()) + "\r\n"));
+			EX.assertx(m.equals(inflate(e, Arrays.copyOfRange(b, p.length(), b.length))));
+
+			//~: large body is chunked
+			o = new Writes();
+			h = new Responses.Headed(o);
+
+			h.setKeepAlive(true, true);
+			h.setCompression(e, 1, 1024);
+			h.write(new Support.CharBytes(x).input());
+			EX.assertx(h.complete());
+
+			b = o.toByteArray();
+			p = preamble(b);
+
+			EX.assertx(p.contains("\r\nContent-Encoding: " + e + "\r\n"));
+			EX.assertx(p.contains("\r\nTransfer-Encoding: chunked\r\n"));
+
+			String c = unchunk(new String(b, p.length(), b.length - p.length(), "ISO-8859-1"));
+			EX.assertx(x.toString().equals(inflate(e, c.getBytes("ISO-8859-1"))));
+		}
+	}
+
+	public void testStatics()
+	  throws Exception
+	{
+		Path d = Files.createTempDirectory("lohttp-");
+
+		StringBuilder x = new StringBuilder();
+		for(int i = 0;(i < 150);i++)
+			x.append("body { margin: ").append(i).append("px; }\n");
+
+		Files.write(d.resolve("index.html"), "<html/>".getBytes("UTF-8"));
+		Files.write(d.resolve("a.css"), x.toString().getBytes("UTF-8"));
+		Files.write(d.resolve("b.png"), new byte[5000]);
+		Files.write(d.resolve("c.css"), x.reverse().toString().getBytes("UTF-8"));
+		x.reverse();
+
+		try
+		{
+			Statics st = new Statics(Statics.directory(d.toFile()), 8000)
+			  .setEntryMax(4000);
+
+			//~: index page
+			String r = get(st, "/", "");
+			EX.assertx(r.startsWith("HTTP/1.1 200 OK\r\n"));
+			EX.assertx(r.contains("\r\nContent-Type: text/html;charset=UTF-8\r\n"));
+			EX.assertx(r.contains("\r\nCache-Control: no-cache\r\n"));
+			EX.assertx(r.endsWith("\r\n\r\n<html/>"));
+
+			String etag = header(r, "ETag");
+			String lmod = header(r, "Last-Modified");
+			EX.assertx(etag.matches("\"[0-9a-f]{40}\""));
+			EX.assertx(lmod != null);
+
+			//~: not modified
+			r = get(st, "/", "If-None-Match: W/\"x\", " + etag + "\r\n");
+			EX.assertx(r.startsWith("HTTP/1.1 304 Not Modified\r\n"));
+			EX.assertx(r.endsWith("\r\n\r\n"));
+
+			r = get(st, "/index.html", "If-Modified-Since: " + lmod + "\r\n");
+			EX.assertx(r.startsWith("HTTP/1.1 304 Not Modified\r\n"));
+
+			r = get(st, "/index.html", "If-None-Match: \"x\"\r\n");
+			EX.assertx(r.startsWith("HTTP/1.1 200 OK\r\n"));
+
+			EX.assertx(st.getHits() == 3 && st.getMisses() == 1);
+			EX.assertx(st.getEntries() == 1 && st.getMemory() == 7);
+
+			//~: gzip variant
+			r = get(st, "/a.css", "Accept-Encoding: gzip\r\n");
+			EX.assertx(r.contains("\r\nContent-Encoding: gzip\r\n"));
+			EX.assertx(r.contains("\r\nContent-Type: text/css;charset=UTF-8\r\n"));
+
+			String gtag = header(r, "ETag");
+			EX.assertx(gtag.matches("\"[0-9a-f]{40}-gz\""), gtag);
+
+			r = get(st, "/a.css", "");
+			EX.assertx(!r.contains("Content-Encoding"));
+			EX.assertx(r.endsWith("\r\n\r\n" + x));
+			EX.assertx(st.getEntries() == 2);
+
+			//?: {identity tag differs}
+			String itag = header(r, "ETag");
+			EX.assertx(gtag.equals(itag.substring(0, 41) + "-gz\""));
+
+			//~: both tags are not modified
+			r = get(st, "/a.css", "If-None-Match: " + itag + "\r\n");
+			EX.assertx(r.startsWith("HTTP/1.1 304 Not Modified\r\n"));
+			r = get(st, "/a.css", "Accept-Encoding: gzip\r\nIf-None-Match: " + itag + "\r\n");
+			EX.assertx(r.startsWith("HTTP/1.1 304 Not Modified\r\n"));
+			EX.assertx(gtag.equals(header(r, "ETag")));
+
+			//~: if-range of the gzip tag is not of the identity ranges
+			r = get(st, "/a.css", "Accept-Encoding: gzip\r\nRange: bytes=0-3\r\n" +
+			  "If-Range: " + gtag + "\r\n");
+			EX.assertx(r.startsWith("HTTP/1.1 200 OK\r\n"));
+			EX.assertx(r.contains("\r\nContent-Encoding: gzip\r\n"));
+
+			r = get(st, "/a.css", "Accept-Encoding: gzip\r\nRange: bytes=0-3\r\n" +
+			  "If-Range: " + itag + "\r\n");
+			EX.assertx(r.startsWith("HTTP/1.1 206 "));
+			EX.assertx(itag.equals(header(r, "ETag")));
+			EX.assertx(r.endsWith("\r\n\r\nbody"));
+
+			//~: head request
+			r = request(st, "HEAD", "/a.css", "");
+			EX.assertx(r.startsWith("HTTP/1.1 200 OK\r\n"));
+			EX.assertx(itag.equals(header(r, "ETag")));
+			EX.assertx(("" + x.length()).equals(header(r, "Content-Length")));
+			EX.assertx(r.endsWith("\r\n\r\n"));
+
+			r = request(st, "HEAD", "/b.png", "");
+			EX.assertx(r.startsWith("HTTP/1.1 200 OK\r\n"));
+			EX.assertx(r.contains("\r\nContent-Length: 5000\r\n"));
+			EX.assertx(r.endsWith("\r\n\r\n"));
+
+			r = request(st, "POST", "/a.css", "Content-Length: 0\r\n");
+			EX.assertx(r.startsWith("HTTP/1.1 405 "));
+			EX.assertx("GET, HEAD".equals(header(r, "Allow")));
+
+			//~: image is not compressed
+			r = get(st, "/b.png", "Accept-Encoding: gzip\r\n");
+			EX.assertx(!r.contains("Content-Encoding"));
+			EX.assertx(r.contains("\r\nContent-Type: image/png\r\n"));
+			EX.assertx(r.contains("\r\nContent-Length: 5000\r\n"));
+			EX.assertx(st.getEntries() == 2); //<-- too large
+
+			//~: eviction of the least recently used
+			Statics sm = new Statics(Statics.directory(d.toFile()), 4000)
+			  .setEntryMax(4000);
+
+			get(sm, "/", "");
+			get(sm, "/a.css", "");
+			get(sm, "/", "");
+			get(sm, "/c.css", "");
+			EX.assertx(sm.getEntries() == 2);
+			EX.assertx(sm.getMemory() <= 4000);
+
+			get(sm, "/", "");
+			get(sm, "/c.css", "");
+			EX.assertx(sm.getMisses() == 3 && sm.getHits() == 3);
+
+			//~: not found
+			EX.assertx(get(st, "/c.js", "").startsWith("HTTP/1.1 404 "));
+			EX.assertx(get(st, "/../x", "").startsWith("HTTP/1.1 404 "));
+
+			//~: content types
+			EX.assertx(Statics.contentType("/a/b.WOFF2").equals("font/woff2"));
+			EX.assertx(Statics.contentType("/a.b/c").equals("application/octet-stream"));
+		}
+		finally
+		{
+			for(String f : new String[] { "index.html", "a.css", "b.png", "c.css" })
+				Files.delete(d.resolve(f));
+			Files.delete(d);
+		}
+	}
+
+	public void testRanges()
+	  throws Exception
+	{
+		//~: ranges parsing
+		EX.assertx(Statics.ranges(null, 100) == null);
+		EX.assertx(Statics.ranges("items=0-1", 100) == null);
+		EX.assertx(Statics.ranges("bytes=5-1", 100) == null);
+		EX.assertx(Statics.ranges("bytes=a-", 100) == null);
+		EX.assertx(Arrays.equals(Statics.ranges("bytes=0-9", 100), new long[] { 0, 9 }));
+		EX.assertx(Arrays.equals(Statics.ranges("bytes=90-", 100), new long[] { 90, 99 }));
+		EX.assertx(Arrays.equals(Statics.ranges("bytes=-10", 100), new long[] { 90, 99 }));
+		EX.assertx(Arrays.equals(Statics.ranges("bytes=-200", 100), new long[] { 0, 99 }));
+		EX.assertx(Arrays.equals(Statics.ranges("bytes=50-500", 100), new long[] { 50, 99 }));
+		EX.assertx(Arrays.equals(Statics.ranges("bytes= 1-2, 200-300 ,4-5", 100),
+		  new long[] { 1, 2, 4, 5 }));
+		EX.assertx(Statics.ranges("bytes=100-", 100).length == 0);
+
+		Path d = Files.createTempDirectory("lohttp-");
+
+		byte[] small = new byte[1000];
+		byte[] large = new byte[100000];
+		for(int i = 0;(i < large.length);i++)
+			large[i] = (byte)('a' + i % 26);
+		System.arraycopy(large, 0, small, 0, small.length);
+
+		Files.write(d.resolve("s.bin"), small);
+		Files.write(d.resolve("l.bin"), large);
+
+		try
+		{
+			Statics st = new Statics(Statics.directory(d.toFile()), 16000);
+
+			for(String f : new String[] { "/s.bin", "/l.bin", "/s.bin", "/l.bin" })
+			{
+				byte[] data = f.startsWith("/s")?(small):(large);
+
+				//~: single range
+				String r = get(st, f, "Range: bytes=10-19\r\n");
+				EX.assertx(r.startsWith("HTTP/1.1 206 Partial Content\r\n"), r);
+				EX.assertx(("bytes 10-19/" + data.length).equals(header(r, "Content-Range")));
+				EX.assertx(r.endsWith("\r\n\r\nklmnopqrst"));
+
+				//~: suffix range
+				r = get(st, f, "Range: bytes=-3\r\n");
+				EX.assertx(r.endsWith("\r\n\r\n" + new String(data,
+				  data.length - 3, 3, "ASCII")));
+
+				//~: multiple ranges
+				r = get(st, f, "Range: bytes=0-2, 26-28, -2\r\n");
+				EX.assertx(r.startsWith("HTTP/1.1 206 Partial Content\r\n"));
+
+				String t = header(r, "Content-Type");
+				EX.assertx(t.startsWith("multipart/byteranges; boundary="));
+
+				String b = t.substring(t.indexOf('=') + 1);
+				String p = preamble(r.getBytes("ISO-8859-1"));
+				String x = r.substring(p.length());
+
+				EX.assertx(x.length() == Integer.parseInt(header(r, "Content-Length")));
+				String[] ps = x.split("\r\n--" + b);
+				EX.assertx(ps.length == 5 && ps[4].equals("--\r\n"));
+				EX.assertx(ps[1].endsWith("\r\nContent-Range: bytes 0-2/" +
+				  data.length + "\r\n\r\nabc"));
+				EX.assertx(ps[2].endsWith("\r\n\r\nabc"));
+				EX.assertx(ps[3].endsWith("/" + data.length + "\r\n\r\n" +
+				  new String(data, data.length - 2, 2, "ASCII")));
+
+				//~: not satisfiable
+				r = get(st, f, "Range: bytes=" + data.length + "-\r\n");
+				EX.assertx(r.startsWith("HTTP/1.1 416 Range Not Satisfiable\r\n"));
+				EX.assertx(("bytes */" + data.length).equals(header(r, "Content-Range")));
+
+				//~: if-range of other version
+				r = get(st, f, "Range: bytes=0-1\r\nIf-Range: \"x\"\r\n");
+				EX.assertx(r.startsWith("HTTP/1.1 200 OK\r\n"));
+				EX.assertx(("" + data.length).equals(header(r, "Content-Length")));
+
+				//~: if-range of this version
+				String v = f.startsWith("/s")?(header(r, "ETag")):
+				  (header(r, "Last-Modified"));
+
+				r = get(st, f, "Range: bytes=0-1\r\nIf-Range: " + v + "\r\n");
+				EX.assertx(r.startsWith("HTTP/1.1 206 "));
+				EX.assertx(r.endsWith("\r\n\r\nab"));
+			}
+		}
+		finally
+		{
+			Files.delete(d.resolve("s.bin"));
+			Files.delete(d.resolve("l.bin"));
+			Files.delete(d);
+		}
+	}
+
+	static String get(Statics st, String path, String headers)
+	  throws Exception
+	{
+		return request(st, "GET", path, headers);
+	}
+
+	static String request(Statics st, String method, String path, String headers)
+	  throws Exception
+	{
+		Requests.Scanner s = new Requests.Scanner(new Setup(),
+		  new ByteArrayInputStream((method + " " + path + " HTTP/1.1\r\n" +
+		  "Host: localhost\r\n" + headers + "\r\n").getBytes("UTF-8")));
+
+		ByteArrayOutputStream o = new ByteArrayOutputStream();
+		Responses.Headed      h = new Responses.Headed(o);
+
+		h.setKeepAlive(true, true);
+		st.act(s.upgrade("GET".equals(method)?(Requests.Got.FACTORY):
+		  (Requests.Bodied.FACTORY)), h);
+		h.complete();
+
+		return o.toString("ISO-8859-1");
+	}
+
+	static String header(String r, String name)
+	{
+		for(String l : r.split("\r\n"))
+			if(l.startsWith(name + ": "))
+				return l.substring(name.length() + 2);
+		return null;
+	}
+
+	static String preamble(byte[] b)
+	  throws Exception
+	{
+		String s = new String(b, "ISO-8859-1");
+		return s.substring(0, s.indexOf("\r\n\r\n") + 4);
+	}
+
+	static String inflate(String encoding, byte[] b)
+	  throws Exception
+	{
+		InputStream i = new ByteArrayInputStream(b);
+
+		i = "gzip".equals(encoding)?(new GZIPInputStream(i)):
+		  (new InflaterInputStream(i));
+
+		ByteArrayOutputStream o = new ByteArrayOutputStream();
+		Support.pump(i, o);
+		return o.toString("UTF-8");
+	}
+
+	static String unchunk(String s)
+	{
+		StringBuilder r = new StringBuilder();
+
+		for(int i = 0;;)
+		{
+			int e = s.indexOf("\r\n", i);
+			int l = Integer.parseInt(s.substring(i, e), 16);
+			if(l == 0) return r.toString();
+
+			r.append(s, e + 2, e + 2 + l);
+			i = e + 4 + l;
+		}
+	}
+
+	static class Writes extends ByteArrayOutputStream
+	{
+		public int writes;
+
+		public synchronized void write(byte[] b, int off, int len)
+		{
+			writes++;
+			super.write(b, off, len);
+		}
+	}
+
+
+	/* public: test entry point */
+
+	public static void main(String[] argv)
+	  throws Exception
+	{
+		new TestResponses().testPreamble();
+		new TestResponses().testDate();
+		new TestResponses().testCoalesced();
+		new TestResponses().testFraming();
+		new TestResponses().testCompression();
+		new TestResponses().testStatics();
+		new TestResponses().testRanges();
+	}
+}
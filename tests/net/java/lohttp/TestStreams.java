@@ -103,7 +103,8 @@ public class TestStreams
 
 		//~: strings with simple and complex characters.
 		String[] CPs = new String[] {
-		  "a", "ж", "\u0928\u093F\u4E9C", "\uD800\uDC83"
+		  "a", "ж", "\u0928\u093F\u4E9C", "\uD800\uDC83",
+		  "\uD83D\uDE00", "\uD800", "\uDC00"
 		};
 
 		//~: random tests
@@ -126,6 +127,178 @@ public class TestStreams
 
 			//?: {are the results equal}
 			EX.assertx(Arrays.equals(tst, bos.toByteArray()));
+
+			//~: convert by single bytes
+			cb  = new CharBytes(s);
+			bos = new ByteArrayOutputStream(4096);
+			for(int b;((b = cb.read()) != -1);)
+				bos.write(b);
+
+			EX.assertx(Arrays.equals(tst, bos.toByteArray()));
+
+			//~: encode directly
+			byte[] b = new byte[tst.length + 4];
+			char[] c = s.toString().toCharArray();
+			long   r = Support.utf8(c, 0, c.length, b, 2, tst.length);
+
+			EX.assertx(r == ((long) s.length() << 32 | (tst.length + 2)));
+			EX.assertx(Arrays.equals(tst, Arrays.copyOfRange(b, 2, tst.length + 2)));
+		}
+	}
+
+
+	public void testBuffers()
+	  throws Exception
+	{
+		Support.ByteBuffers pool = new Support.ByteBuffers(512, 64);
+		EX.assertx(pool.magazine == 16);
+
+		//~: single thread reuses
+		byte[] a = pool.get();
+		pool.free(a);
+		EX.assertx(pool.get() == a);
+		EX.assertx(pool.getMisses() == 1);
+
+		//~: exchange via the depot
+		byte[][] bs = new byte[64][];
+		for(int i = 0;(i < bs.length);i++)
+			bs[i] = pool.get();
+
+		Thread t = new Thread(() ->
+		{
+			for(byte[] b : bs)
+				pool.free(b);
+
+			pool.flush();
+		});
+
+		t.start();
+		t.join();
+
+		EX.assertx(pool.getDepot() == 64, pool.getDepot());
+
+		long m = pool.getMisses();
+		for(int i = 0;(i < 64);i++)
+			pool.get();
+		EX.assertx(pool.getMisses() == m);
+		EX.assertx(pool.getDepot() == 0);
+
+		//~: short-lived threads flushing the partial magazines
+		for(int i = 0;(i < 2000);i++)
+		{
+			Thread x = new Thread(() ->
+			{
+				byte[][] xs = new byte[8][];
+
+				for(int j = 0;(j < xs.length);j++)
+					xs[j] = pool.get();
+				for(byte[] b : xs)
+					pool.free(b);
+
+				pool.flush();
+			});
+
+			x.start();
+			x.join();
+		}
+
+		EX.assertx(pool.getMisses() == m + 8, pool.getMisses() - m);
+		EX.assertx(pool.getDepot() == 8, pool.getDepot());
+		pool.trim(0);
+
+		//~: partial magazines do not take the slots
+		Thread[] fs = new Thread[31];
+		for(int i = 0;(i < fs.length);i++)
+		{
+			final int n = (i == 0 || i == 30)?(16):(1);
+
+			(fs[i] = new Thread(() ->
+			{
+				for(int j = 0;(j < n);j++)
+					pool.free(new byte[512]);
+				pool.flush();
+			})).start();
+
+			fs[i].join();
+		}
+
+		//?: {the last full magazine is stored}
+		EX.assertx(pool.getDepot() == 61, pool.getDepot());
+		pool.trim(0);
+
+		//~: concurrent get-free cycles
+		Thread[] ts = new Thread[8];
+		for(int i = 0;(i < ts.length);i++)
+			(ts[i] = new Thread(() ->
+			{
+				Random   gen = new Random();
+				byte[][] xs  = new byte[64][];
+
+				for(int j = 0;(j < 100000);j++)
+				{
+					int k = gen.nextInt(xs.length);
+
+					if(xs[k] != null)
+					{
+						EX.assertx(xs[k][0] == (byte) k);
+						pool.free(xs[k]);
+						xs[k] = null;
+					}
+					else
+					{
+						xs[k] = pool.get();
+						xs[k][0] = (byte) k;
+					}
+				}
+			})).start();
+
+		for(Thread x : ts)
+			x.join();
+
+		//~: trim the depot
+		pool.trim(0);
+		EX.assertx(pool.getDepot() == 0);
+		EX.assertx(pool.getHits() > 0L);
+	}
+
+	public void testSizeClasses()
+	  throws Exception
+	{
+		EX.assertx(Support.buffers(1) == Support.BUFFERS);
+		EX.assertx(Support.buffers(512) == Support.BUFFERS);
+		EX.assertx(Support.buffers(513) == Support.OUTPUTS);
+		EX.assertx(Support.buffers(1 << 20) == Support.BULKS);
+
+		//~: grow through the classes
+		byte[] b = Support.BUFFERS.get();
+		EX.assertx((b = Support.grow(b)).length == 8192);
+		EX.assertx((b = Support.grow(b)).length == 65536);
+		EX.assertx(Support.grow(b) == b);
+		Support.free(b);
+
+		//~: pump of a bulk stream
+		byte[] src = new byte[1 << 20];
+		new Random().nextBytes(src);
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(src.length);
+		EX.assertx(Support.pump(new ByteArrayInputStream(src), bos) == src.length);
+		EX.assertx(Arrays.equals(src, bos.toByteArray()));
+
+		//~: stream of the mixed buffers
+		try(BytesStream bs = new BytesStream())
+		{
+			bs.write(new ByteArrayInputStream(src));
+			EX.assertx(Arrays.equals(src, bs.bytes()));
+
+			//~: read over the classes bounds
+			for(int o : new int[] { 0, 511, 512, 4095, 4096, 65535, 65536, 70000 })
+			{
+				bos = new ByteArrayOutputStream();
+				Support.pump(bs.inputStream(o, 100000), bos);
+
+				EX.assertx(Arrays.equals(bos.toByteArray(),
+				  Arrays.copyOfRange(src, o, o + 100000)));
+			}
 		}
 	}
 
@@ -137,5 +310,7 @@ public class TestStreams
 	{
 		new TestStreams().testBytesStream();
 		new TestStreams().testCharBytes();
+		new TestStreams().testBuffers();
+		new TestStreams().testSizeClasses();
 	}
 }
\ No newline at end of file
@@ -2,9 +2,7 @@ package net.java.lohttp;
 
 /* Java */
 
-import java.io.InputStream;
 import java.lang.reflect.Method;
-import java.net.URL;
 
 
 /**
@@ -39,44 +37,15 @@ public class TestWeb
 		//!: ... terminate the process
 	}
 
+	/**
+	 * Static content of the test application.
+	 */
+	private static final Statics STATICS = new Statics(
+	  Statics.classpath(TestWeb.class, "content"), 8L * 1024 * 1024);
+
 	private static void get(Get req, Response res)
 	{
-		res.addHeader("Cache-Control", "max-age=0, no-cache");
-
-		String p = null;
-		URL    u = null;
-
-		//?: {index page}
-		if("/".equals(req.getPath()))
-		{
-			res.addHeader("Content-Type", "text/html;charset=UTF-8");
-			p = "content/index.html";
-		}
-		//~: treat as a resource page
-		else
-			p = "content" + req.getPath();
-
-		//~: url of the resource
-		if(p != null)
-			u = TestWeb.class.getResource(p);
-
-		//?: {resource is not found}
-		if(u == null)
-		{
-			res.setStatus(404);
-			res.write(null);
-			return;
-		}
-
-		//~: write the file
-		try(InputStream i = u.openStream())
-		{
-			res.write(Support.input(i));
-		}
-		catch(Throwable e)
-		{
-			res.setStatus(500);
-		}
+		STATICS.act(req, res);
 	}
 
 	private static void post(Post req, Response res)
@@ -127,14 +96,10 @@ public class TestWeb
 		}
 
 		//~: write success
-		json(res, "{\"success\":true}");
-	}
-
-	private static void json(Response res, String body)
-	{
-		res.addHeader("Content-Type",
-		  "application/json;charset=UTF-8");
+		res.addHeader("Content-Type", Json.CONTENT_TYPE);
 
-		res.write(new Support.CharBytes(body).input());
+		new Json.Writer(res).object().
+		  name("success").value(true).
+		end().close();
 	}
 }
\ No newline at end of file